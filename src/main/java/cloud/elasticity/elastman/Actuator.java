@@ -19,14 +19,25 @@
 package cloud.elasticity.elastman;
 
 import java.io.IOException;
-import java.util.LinkedList;
+import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * The Actuator class is used to add or remove Voldemort nodes to the controlled Voldemort cluster.
- * The Actuator uses the rebalance tool provided by Voldemort to redistribute data.
+ * The Actuator uses the rebalance tool provided by Voldemort to redistribute data, or moves
+ * the partitions itself with a {@link RebalancePlanner}.
+ * <p>
+ * With a {@link WarmPool} a scale-out takes the spare VMs first and only creates the rest.
+ * The pool is refilled or trimmed in a thread of its own while the actuator is idle.
+ * <p>
+ * If a rebalance fails the data is moved back and the cluster returns to its old size.
+ * The removed VMs of a scale-in are only deleted after a successful rebalance.
+ * <p>
+ * With a {@link ReadinessProbe} the actuator goes on as soon as the new VMs run Voldemort
+ * and, after a rebalance, as soon as the store has settled. The fixed waits are then the
+ * max times.
  * 
  * @author Ahmad Al-Shishtawy <ahmadas@kth.se>
  *
@@ -38,7 +49,7 @@ public class Actuator implements Runnable, Steppable {
 //	private int nVMs;
 //	private boolean limit;	// limit the max delta VMs to add or remove
 
-	private LinkedList<Task> queue;
+	private RebalanceQueue queue;
 	
 	Cluster cluster;
 	
@@ -48,6 +59,14 @@ public class Actuator implements Runnable, Steppable {
 	private int voldDeltaMax; // max number of VMs to add or remove at one time
 	
 	private boolean rebalancing = false;
+	private boolean booting = false;	// a scale-out waits for its VMs and has not moved data
+	
+	private static final long START_MS = 2*60*1000;	// wait for voldemort & os
+	private static final long SETTLE_MS = 120*1000;	// wait for the store after a rebalance
+	private ReadinessProbe probe = null;	// null to always wait the max times
+	private WarmPool pool = null;
+	private Thread refiller = null;	// changes the pool
+	private RebalancePlanner planner = null;	// null to run the rebalance tool
 	 
 	
 	public Actuator(Cluster cluster, int voldMin, int voldMax, int voldDeltaMax, boolean createVMs) {
@@ -60,12 +79,15 @@ public class Actuator implements Runnable, Steppable {
 		this.voldMin = voldMin;
 		this.voldDeltaMax = voldDeltaMax;
 		
-		queue = new LinkedList<Actuator.Task>();
+		queue = new RebalanceQueue();
 	}
 	
 	public synchronized boolean  scheduleRebalance(int nVMs, boolean limit) {
-		queue.add(new Task(nVMs, limit));
-		if(rebalancing) {
+		queue.add(nVMs, limit);	// merged with the queued step, if any
+		if(booting) {
+			log.info("The actuator waits for new VMs. The step is queued and may cancel some of them");
+			return false;
+		} else if(rebalancing) {
 			log.warn("The actuator is rebalancing! Can't have multiple rebalance instances at same time!");
 			return false;
 		} else {
@@ -73,11 +95,8 @@ public class Actuator implements Runnable, Steppable {
 		}
 	}
 	
-	private synchronized Task getNextTask() {
-		if(queue.isEmpty()) {
-			return null;
-		}
-		return queue.remove();
+	private RebalanceQueue.Task getNextTask() {
+		return queue.take();
 	}
 	
 	
@@ -109,6 +128,31 @@ public class Actuator implements Runnable, Steppable {
 		return this.rebalancing;
 	}
 	
+	/**
+	 * @return	true while a scale-out waits for its new VMs. A step scheduled meanwhile in
+	 * 			the other direction cancels VMs of the scale-out.
+	 */
+	public synchronized boolean isBooting() {
+		return booting;
+	}
+	
+	private synchronized void setBooting(boolean booting) {
+		this.booting = booting;
+	}
+	
+	/**
+	 * Ends the boot wait of a scale-out and cancels the VMs not needed anymore. Atomic
+	 * with {@link #scheduleRebalance(int, boolean)}, so a step scheduled later waits for
+	 * the next round.
+	 * 
+	 * @param nVMs	The VMs added by the scale-out.
+	 * @return	The number of VMs to cancel.
+	 */
+	private synchronized int preempt(int nVMs) {
+		booting = false;
+		return queue.preempt(nVMs);
+	}
+	
 	public void run() {
 		
 		// Just an extra check; should not happen
@@ -116,7 +160,8 @@ public class Actuator implements Runnable, Steppable {
 			log.error("The actuator is rebalancing! Can not have two rebalance operations in parallel according to Voldemort specifications!");
 			return;
 		}
-		Task t;
+		awaitPool();
+		RebalanceQueue.Task t;
 		while((t=getNextTask()) != null) {
 			 
 			int nVMs = t.getnVMs();
@@ -125,136 +170,152 @@ public class Actuator implements Runnable, Steppable {
 			if(nVMs > 0) {  // add mode
 
 				// 1 - Bound nVMs
-				if(limit && nVMs > voldDeltaMax) {  // TODO: check if good idea
-					nVMs = voldDeltaMax;  
-				}
-
-				if(cluster.getActiveVoldVMsCount()+nVMs > voldMax) {	// the max size allowed for the Voldemort store
-					nVMs = voldMax - cluster.getActiveVoldVMsCount();
-				}
+				nVMs = bound(cluster.getActiveVoldVMsCount(), nVMs, limit, voldMin, voldMax, voldDeltaMax);
 				if(nVMs<=0) {  // will never be <0 but might equal 0
 					setRebalancing(false);
 					return;
 				}
+				int spares = 0;	// taken from the warm pool
+				if(pool != null) {
+					spares = pool.take(nVMs);
+					pool.recordScaleOut(System.currentTimeMillis(), nVMs);
+					log.info("Took {} VMs from the warm pool", spares);
+				}
+				setBooting(true);
 				cluster.setActiveVoldVMsCount(cluster.getActiveVoldVMsCount()+nVMs);
 				// 2 - Create new VMs
-				if(createVMs) {
-					cluster.createVMs(nVMs, cluster.getVoldPrefix(), cluster.getVoldImage(), cluster.getVoldFlavor());
+				if(createVMs && nVMs > spares) {
+					cluster.createVMs(nVMs - spares, cluster.getVoldPrefix(), cluster.getVoldImage(), cluster.getVoldFlavor(),
+							cluster.getActiveVoldVMsCount(), getReadySpares());
 					// wait to finish creation
 					cluster.waitCreating();
 
 					// then wait a bit more for voldemort & os
-					// FIXME: wait for things to finish
-					try {
-						Thread.sleep(2*60*1000);
-					} catch (InterruptedException e) {
-						e.printStackTrace();
+					awaitStart(cluster.getActiveVoldVMsCount() - nVMs + spares, cluster.getActiveVoldVMsCount());
+				}
+				
+				// no data was moved yet. If the controller reversed meanwhile, add fewer VMs
+				int cancel = preempt(nVMs);
+				if(cancel > 0) {
+					nVMs -= cancel;
+					cluster.setActiveVoldVMsCount(cluster.getActiveVoldVMsCount()-cancel);
+					int ready = getReadySpares();
+					int kept = pool == null ? 0 : pool.keep(System.currentTimeMillis(), cluster.getActiveVoldVMsCount(), cancel);
+					if(createVMs) {
+						deleteVoldVMs(cluster.getActiveVoldVMsCount()+ready+kept, cluster.getActiveVoldVMsCount()+ready+cancel);
+					}
+					if(nVMs == 0) {
+						cluster.genCluster(cluster.getActiveVoldVMsCount(), getReadySpares());
+						continue;	// nothing to move
 					}
 				}
 
 				//  3 - start rebalancing
 				// cluster.getSync().reset();
-				cluster.genCluster(cluster.getActiveVoldVMsCount());	// new cluster to move to
-				//for (int i = 0; i < 5; i++) { // try rebalancing x times FIXME:This is not needed now after updating the rebalance script
-				long rebStart = System.nanoTime();
-				try {
-					Process p=null;
-					p=Runtime.getRuntime().exec("./myrebalance");
-					p.waitFor();
-				} catch (IOException e) {
-					log.error("Rebalance didn't work!");
-					log.error(e.getMessage());
-				} catch (InterruptedException e) {
-					log.error("Rebalance didn't work!");
-					log.error(e.getMessage());
-				} 
-				long rebEnd = System.nanoTime();
-				long rebTime = (rebEnd-rebStart)/1000000000; // in seconds
-				log.info("Rebalance finished in {} sec", rebTime);
-				//	if(rebTime > 30) {// if takes less that 30 secs then probably it failed!
-				//		break;
-				//	}
-				//				try {
-				//					Thread.sleep(1000);
-				//				} catch (InterruptedException e) {
-				//					e.printStackTrace();
-				//				}
-				//}
+				cluster.genCluster(cluster.getActiveVoldVMsCount(), getReadySpares());	// new cluster to move to
+				if(!rebalance(cluster.getActiveVoldVMsCount() - nVMs, cluster.getActiveVoldVMsCount())) {
+					// move the data back off the new VMs, then drop them as if the step was cancelled
+					int active = cluster.getActiveVoldVMsCount() - nVMs;
+					cluster.setActiveVoldVMsCount(active);
+					int ready = getReadySpares();
+					cluster.genCluster(active, ready + nVMs);
+					if(rollback(active + nVMs, active)) {
+						int kept = pool == null ? 0 : pool.keep(System.currentTimeMillis(), active, nVMs);
+						if(createVMs) {
+							deleteVoldVMs(active+ready+kept, active+ready+nVMs);
+						}
+						cluster.genCluster(active, getReadySpares());
+					} else {
+						log.error("Rollback failed! Keeping all VMs. The store must be repaired by hand");
+					}
+				}
 			} else if (nVMs < 0 && cluster.getActiveVoldVMsCount() > voldMin) { //remove only if I have more than 3 nodes
 
 				// 1 - Bound nVMs
-				if((cluster.getActiveVoldVMsCount() + nVMs)<voldMin) { // note that nVMs is negative, remove 
-					nVMs = voldMin - cluster.getActiveVoldVMsCount();
-				}
-
-				if(limit && nVMs < -1*voldDeltaMax) {  // FIXME: check if good idea
-					nVMs = -1*voldDeltaMax; // good to have lower bound  
-				}
+				nVMs = bound(cluster.getActiveVoldVMsCount(), nVMs, limit, voldMin, voldMax, voldDeltaMax);
 				if(nVMs>=0) {  // will never be >0 but might equal 0
 					setRebalancing(false);
 					return;
 				}
 
 				cluster.setActiveVoldVMsCount(cluster.getActiveVoldVMsCount()+nVMs);; // note that nVMs is negative
+				
+				// the removed VMs with the lowest IDs are kept in the warm pool, after the spares
+				int spares = getReadySpares();
+				int kept = 0;
+				if(pool != null) {
+					kept = pool.keep(System.currentTimeMillis(), cluster.getActiveVoldVMsCount(), -nVMs);
+					log.info("Keeping {} of the removed VMs in the warm pool", kept);
+				}
 
 				// 2 - start rebalancing
 				//			App.http("reset", "1");
 				//			App.updateVMs();
-				cluster.genCluster(cluster.getActiveVoldVMsCount());	// new cluster to move to
-				//			for (int i = 0; i < 5; i++) { // try rebalancing x times FIXME:This is not needed now after updating the rebalance script
-				long rebStart = System.nanoTime();
-				try {
-					Process p=null;
-					p=Runtime.getRuntime().exec("./myrebalance");
-					p.waitFor();
-				} catch (IOException e) {
-					log.error("Rebalance didn't work!");
-					log.error(e.getMessage());
-				} catch (InterruptedException e) {
-					log.error("Rebalance didn't work!");
-					log.error(e.getMessage());
-				}
-				long rebEnd = System.nanoTime();
-				long rebTime = (rebEnd-rebStart)/1000000000; // in seconds
-				System.out.println("Rebalance finished in " + rebTime + " sec");
-				//				if(rebTime > 30) {// if takes less that 30 secs then probably it failed!
-				//					break;
-				//				}
-				//				try {
-				//					Thread.sleep(1000);
-				//				} catch (InterruptedException e) {
-				//					e.printStackTrace();
-				//				}
-				//			}
-
-
-
-				// 3 - Delete extra VMs
-				if(createVMs) {
-					for (int i = cluster.getActiveVoldVMsCount()-nVMs-1; i >= cluster.getActiveVoldVMsCount(); i--) {  // nVMs is negative
-						cluster.deleteVMs(cluster.getVoldPrefix()+i); 
-						try {
-							Thread.sleep(1000);	//don't delete too fast! maybe things will crash
-						} catch (InterruptedException e) {
-							e.printStackTrace();
-						}
-
+				cluster.genCluster(cluster.getActiveVoldVMsCount(), spares + kept);	// new cluster to move to
+				if(!rebalance(cluster.getActiveVoldVMsCount() - nVMs, cluster.getActiveVoldVMsCount())) {	// nVMs is negative
+					// the donors might still hold data. Never delete them, go back to the old cluster
+					int active = cluster.getActiveVoldVMsCount() - nVMs;
+					cluster.setActiveVoldVMsCount(active);
+					if(pool != null) {
+						pool.take(kept);
 					}
+					cluster.genCluster(active, getReadySpares());
+					if(!rollback(active + nVMs, active)) {
+						log.error("Rollback failed! Keeping all VMs. The store must be repaired by hand");
+					}
+				} else if(createVMs) {
+					// 3 - Delete extra VMs
+					deleteVoldVMs(cluster.getActiveVoldVMsCount()+spares+kept, cluster.getActiveVoldVMsCount()-nVMs+spares);  // nVMs is negative
 				}
 			}
 
 		
-			// FIXME: Wait for system to settle after rebalance
-			try {
-				Thread.sleep(120*1000);
-			} catch (InterruptedException e) {
-				e.printStackTrace();
+			// Wait for system to settle after rebalance
+			if(probe != null) {
+				probe.awaitSettled(SETTLE_MS);
+			} else {
+				try {
+					Thread.sleep(SETTLE_MS);
+				} catch (InterruptedException e) {
+					e.printStackTrace();
+				}
 			}
 		}
 		setRebalancing(false);
 
 	}
 	
+	/**
+	 * Bounds the number of VMs to add or remove to the size limits of the store.
+	 * 
+	 * @param active		The current number of Voldemort VMs.
+	 * @param nVMs			The number of VMs to add (positive) or remove (negative).
+	 * @param limit			true to add or remove at most voldDeltaMax VMs.
+	 * @param voldMin		The min cluster size.
+	 * @param voldMax		The max cluster size.
+	 * @param voldDeltaMax	The max number of VMs to add or remove at one time.
+	 * @return	The bounded nVMs. Might be 0 or have the opposite sign if the cluster is already
+	 * 			outside the limits, in which case nothing should be done.
+	 */
+	public static int bound(int active, int nVMs, boolean limit, int voldMin, int voldMax, int voldDeltaMax) {
+		if(nVMs > 0) {
+			if(limit && nVMs > voldDeltaMax) {  // TODO: check if good idea
+				nVMs = voldDeltaMax;
+			}
+			if(active+nVMs > voldMax) {	// the max size allowed for the Voldemort store
+				nVMs = voldMax - active;
+			}
+		} else if(nVMs < 0) {
+			if((active + nVMs)<voldMin) { // note that nVMs is negative, remove
+				nVMs = voldMin - active;
+			}
+			if(limit && nVMs < -1*voldDeltaMax) {  // FIXME: check if good idea
+				nVMs = -1*voldDeltaMax; // good to have lower bound
+			}
+		}
+		return nVMs;
+	}
+	
 	/**
 	 * Process the current time step
 	 *  
@@ -266,10 +327,222 @@ public class Actuator implements Runnable, Steppable {
 													// if a rebalance is ongoing then no need to start a
 													// new instance as the current instance
 													// will take care of tasks in the queue
+			if(!rebalancing) {
+				maintainPool();
+			}
 			return;
 		}
 		new Thread(this).start();
 	}
+	
+	/**
+	 * Refills or trims the warm pool in the background, if needed.
+	 */
+	private void maintainPool() {
+		if(pool == null || !createVMs || (refiller != null && refiller.isAlive())) {
+			return;
+		}
+		final long now = System.currentTimeMillis();
+		final int active = cluster.getActiveVoldVMsCount();
+		final int create = pool.refill(now, active);
+		final int delete = create > 0 ? 0 : pool.trim(now, active);
+		if(create == 0 && delete == 0) {
+			return;
+		}
+		refiller = new Thread("WarmPool") {
+			public void run() {
+				if(create > 0) {
+					log.info("Adding {} VMs to the warm pool", create);
+					int ready = pool.getReady();
+					cluster.createVMs(create, cluster.getVoldPrefix(), cluster.getVoldImage(), cluster.getVoldFlavor(),
+							active, ready + create);
+					cluster.waitCreating();
+					awaitStart(active + ready, active + ready + create);
+					// count the VMs that were really created
+					cluster.updateVMs();
+					pool.booted(Math.max(0, cluster.getVoldVMsCount() - active - pool.getReady()));
+				} else {
+					log.info("Deleting {} VMs of the warm pool", delete);
+					int ready = pool.getReady();
+					cluster.genCluster(active, ready);
+					deleteVoldVMs(active + ready, active + ready + delete);
+					pool.deleted();
+				}
+			}
+		};
+		refiller.start();
+	}
+	
+	/**
+	 * Waits till the warm pool stops changing, so the IDs of the spares are known.
+	 */
+	private void awaitPool() {
+		Thread t;
+		synchronized (this) {
+			t = refiller;
+		}
+		if(t == null) {
+			return;
+		}
+		try {
+			t.join();
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Moves the data to the new cluster, which must have been generated.
+	 * 
+	 * @param from	The number of Voldemort VMs before.
+	 * @param to	The number of Voldemort VMs after.
+	 * @return	false if the rebalance failed. The data might be on both clusters.
+	 */
+	private boolean rebalance(int from, int to) {
+		long rebStart = System.nanoTime();
+		boolean ok;
+		if(planner != null) {
+			List<RebalancePlanner.Move> moves = RebalancePlanner.plan(Cluster.PARTITIONS, from, to);
+			log.info("Moving {} partitions, {} at a time", moves.size(), planner.getParallel());
+			ok = planner.run(moves, cluster.getVoldAddrMap(0, Math.max(from, to)));
+			if(!ok) {
+				log.error("Rebalance didn't work! {} moves failed, {} of {} done", new Object[] {planner.getFailed(), planner.getDone(), moves.size()});
+			}
+		} else {
+			ok = runRebalanceTool();
+		}
+		long rebEnd = System.nanoTime();
+		long rebTime = (rebEnd-rebStart)/1000000000; // in seconds
+		log.info("Rebalance finished in {} sec", rebTime);
+		return ok;
+	}
+	
+	/**
+	 * Moves the data back to the old cluster after a failed rebalance. The old cluster must
+	 * have been generated, with the VMs that were added as spares.
+	 * 
+	 * @param from	The number of Voldemort VMs of the failed rebalance.
+	 * @param to	The number of Voldemort VMs before it.
+	 * @return	true if the data is back on the old cluster.
+	 */
+	private boolean rollback(int from, int to) {
+		log.warn("Rolling back the rebalance from {} to {} VMs", to, from);
+		if(planner != null) {
+			// only the partitions that were moved go back
+			return planner.run(RebalancePlanner.reverse(planner.getCompleted()), cluster.getVoldAddrMap(0, Math.max(from, to)));
+		}
+		return runRebalanceTool();
+	}
+	
+	/**
+	 * Runs the rebalance tool, which moves the data to the generated cluster.
+	 * 
+	 * @return	false if the tool failed.
+	 */
+	private boolean runRebalanceTool() {
+		try {
+			Process p=null;
+			p=Runtime.getRuntime().exec("./myrebalance");
+			int exit = p.waitFor();
+			if(exit != 0) {
+				log.error("Rebalance didn't work! The tool exited with {}", exit);
+				return false;
+			}
+			return true;
+		} catch (IOException e) {
+			log.error("Rebalance didn't work!");
+			log.error(e.getMessage());
+		} catch (InterruptedException e) {
+			log.error("Rebalance didn't work!");
+			log.error(e.getMessage());
+		}
+		return false;
+	}
+	
+	/**
+	 * Deletes the Voldemort VMs with IDs from-to, the highest ID first.
+	 */
+	private void deleteVoldVMs(int from, int to) {
+		for (int i = to - 1; i >= from; i--) {
+			cluster.deleteVMs(cluster.getVoldPrefix()+i); 
+			try {
+				Thread.sleep(1000);	//don't delete too fast! maybe things will crash
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	/**
+	 * Waits till the new Voldemort VMs with IDs from-to are up.
+	 */
+	private void awaitStart(final int from, final int to) {
+		if(probe != null) {
+			probe.awaitReady(new ReadinessProbe.Hosts() {
+				private boolean first = true;
+				public List<String> get() {
+					if(!first) {
+						cluster.updateVMs();	// the first time the VMs were just updated
+					}
+					first = false;
+					return cluster.getVoldAddrs(from, to);
+				}
+			}, to - from, START_MS);
+			return;
+		}
+		// FIXME: wait for things to finish
+		try {
+			Thread.sleep(START_MS);
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * @param probe	Tells when to go on after creating VMs and rebalancing, or null to
+	 * 				always wait the max times.
+	 */
+	public void setProbe(ReadinessProbe probe) {
+		this.probe = probe;
+	}
+	
+	/**
+	 * @param planner	Moves the partitions in process, or null to run the rebalance tool.
+	 */
+	public void setPlanner(RebalancePlanner planner) {
+		this.planner = planner;
+	}
+	
+	/**
+	 * @return	The planner, or null if the rebalance tool is used.
+	 */
+	public RebalancePlanner getPlanner() {
+		return planner;
+	}
+	
+	private int getReadySpares() {
+		return pool == null ? 0 : pool.getReady();
+	}
+	
+	/**
+	 * Keeps spare VMs. The Voldemort VMs after the ones in the store are taken as the
+	 * first spares. The counters of the cluster must be up to date.
+	 * 
+	 * @param pool	The pool, or null for none.
+	 */
+	public synchronized void setPool(WarmPool pool) {
+		this.pool = pool;
+		if(pool != null) {
+			pool.booted(Math.max(0, cluster.getVoldVMsCount() - cluster.getActiveVoldVMsCount()));
+		}
+	}
+	
+	/**
+	 * @return	The number of spare VMs that exist, which are not part of the store.
+	 */
+	public int getSpareVMs() {
+		return pool == null ? 0 : pool.getSpares();
+	}
 		
 	
 	/**
@@ -286,24 +559,6 @@ public class Actuator implements Runnable, Steppable {
 		this.createVMs = createVMs;
 	}
 	
-	class Task {
-		private int nVMs;
-		private boolean limit;
-		
-		public Task(int nVMs, boolean limit) {
-			this.nVMs = nVMs;
-			this.limit = limit;
-		}
-		
-		public boolean getLimit() {
-			return limit;
-		}
-		
-		public int getnVMs() {
-			return nVMs;
-		}
-		
-	}
 
 
 }
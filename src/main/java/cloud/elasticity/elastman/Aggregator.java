@@ -0,0 +1,166 @@
+/*
+ * This file is part of the ElastMan Elasticity Manager
+ *
+ * Copyright (C) 2013 Ahmad Al-Shishtawy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cloud.elasticity.elastman;
+
+import java.util.Arrays;
+
+/**
+ * Aggregates the client reports of one sampling period.
+ * <p>
+ * Every metric has a slot with its sum, min, max and count kept in primitive arrays.
+ * Adding a report does not allocate, {@link #reset()} is an array fill and the
+ * getters return primitives. This replaces one commons-math SummaryStatistics per metric.
+ *
+ * @author Ahmad Al-Shishtawy <ahmadas@kth.se>
+ *
+ */
+public class Aggregator {
+
+	// metric slots in the order they are sent by the clients
+	public static final int READ_OPS = 0;
+	public static final int READ_MEAN = 1;
+	public static final int READ_STDDEV = 2;
+	public static final int READ_MIN = 3;
+	public static final int READ_P95 = 4;
+	public static final int READ_P99 = 5;
+	public static final int READ_MAX = 6;
+	public static final int MIXED_OPS = 7;
+	public static final int MIXED_MEAN = 8;
+	public static final int MIXED_STDDEV = 9;
+	public static final int MIXED_MIN = 10;
+	public static final int MIXED_P95 = 11;
+	public static final int MIXED_P99 = 12;
+	public static final int MIXED_MAX = 13;
+
+	/**
+	 * Number of metrics in a client report.
+	 */
+	public static final int METRICS = 14;
+
+	/**
+	 * Read plus mixed operations. Not sent by the clients.
+	 */
+	public static final int TOTAL_OPS = 14;
+
+	/**
+	 * Number of slots.
+	 */
+	public static final int SLOTS = 15;
+
+	private final double[] sum = new double[SLOTS];
+	private final double[] min = new double[SLOTS];
+	private final double[] max = new double[SLOTS];
+	private final long[] count = new long[SLOTS];
+
+	public Aggregator() {
+		reset();
+	}
+
+	/**
+	 * Adds one value to a slot.
+	 *
+	 * @param slot	The metric slot.
+	 * @param v		The value.
+	 */
+	public void add(int slot, double v) {
+		sum[slot] += v;
+		count[slot]++;
+		if(v < min[slot]) {
+			min[slot] = v;
+		}
+		if(v > max[slot]) {
+			max[slot] = v;
+		}
+	}
+
+	/**
+	 * Adds one client report.
+	 *
+	 * @param r	A decoded report. Metrics the client did not send count as 0.
+	 * @return	false if the report was ignored because the client did not start yet.
+	 */
+	public boolean add(ClientReport r) {
+		double nr = r.get(READ_OPS);
+		double nm = r.get(MIXED_OPS);
+		if(nr == 0) {	// A new client that did not start yet! Don't add this time
+			return false;
+		}
+		for (int i = READ_OPS; i <= MIXED_MAX; i++) {
+			add(i, r.get(i));
+		}
+		add(TOTAL_OPS, nr+nm);
+		return true;
+	}
+
+	/**
+	 * Adds the sums of many values at once. Min and max are not known.
+	 *
+	 * @param slot	The metric slot.
+	 * @param s		The sum of the values.
+	 * @param n		The number of values.
+	 */
+	public void addSum(int slot, double s, long n) {
+		sum[slot] += s;
+		count[slot] += n;
+	}
+
+	/**
+	 * Forgets all values.
+	 */
+	public void reset() {
+		Arrays.fill(sum, 0);
+		Arrays.fill(count, 0);
+		Arrays.fill(min, Double.POSITIVE_INFINITY);
+		Arrays.fill(max, Double.NEGATIVE_INFINITY);
+	}
+
+	public double getSum(int slot) {
+		return sum[slot];
+	}
+
+	/**
+	 * @return The mean of the slot or NaN if it is empty.
+	 */
+	public double getMean(int slot) {
+		if(count[slot] == 0) {
+			return Double.NaN;
+		}
+		return sum[slot] / count[slot];
+	}
+
+	/**
+	 * @return The min of the slot or NaN if not known.
+	 */
+	public double getMin(int slot) {
+		return min[slot] == Double.POSITIVE_INFINITY ? Double.NaN : min[slot];
+	}
+
+	/**
+	 * @return The max of the slot or NaN if not known.
+	 */
+	public double getMax(int slot) {
+		return max[slot] == Double.NEGATIVE_INFINITY ? Double.NaN : max[slot];
+	}
+
+	public long getCount(int slot) {
+		return count[slot];
+	}
+
+}
@@ -177,15 +177,8 @@ public class App
 		
 		System.out.print("Starting Nova Client...");
 		nova = new Nova(Props.username, Props.password, Props.keyname, Props.zone, Props.endpoint);
-		sync = new WebSyncServer(Props.webSyncServer);
-		cluster = new Cluster(nova, sync);
-		cluster.setVoldPrefix(Props.voldPrefix);
-		cluster.setVoldImage(Props.voldImage);
-		cluster.setVoldFlavor(Props.voldFlavor);
-		cluster.setReplicationFactor(Props.voldReplicationFactor);
-		cluster.setYcsbPrefix(Props.ycsbPrefix);
-		cluster.setYcsbImage(Props.ycsbImage);
-		cluster.setYcsbFlavor(Props.ycsbFlavor);
+		cluster = Cluster.fromProps(nova);
+		sync = cluster.getSync();
 		
 		nova.open();
 		System.out.println("OK");
@@ -196,6 +189,11 @@ public class App
 			System.exit(0); // don't go to interactive mode
 		}
 
+		if(cmd.hasOption("c") && Props.clusters.length > 0) { // control the clusters listed in the settings
+			new MultiClusterServer(nova, Props.clusters).run();
+			System.exit(0);
+		}
+
 		if(cmd.hasOption("c")) { // enter identification mode
 			cluster.updateVMs();
 			new ElastManServer(true,cluster).run(); // start in this thread instead of .start();
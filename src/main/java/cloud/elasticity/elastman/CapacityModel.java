@@ -0,0 +1,259 @@
+/*
+ * This file is part of the ElastMan Elasticity Manager
+ * 
+ * Copyright (C) 2013 Ahmad Al-Shishtawy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cloud.elasticity.elastman;
+
+/**
+ * The capacity of a Voldemort server, learned online: the throughput per server at which
+ * the p99 latency reaches the SLA (inOp) for the current workload.
+ * <p>
+ * The p99 is modelled as linear in the load of a server,
+ * <pre>
+ * p99 = t0 + tr*rtps + tm*mtps + tc*cps
+ * </pre>
+ * where rtps and mtps are the read and mixed throughput per server and cps the YCSB clients
+ * per server. The parameters are fitted by recursive least squares with forgetting, as in
+ * {@link RlsModel}, from the steps outside rebalancing. The latency curve is far from linear
+ * once a server saturates, so only samples with a p99 within window*inOp of inOp are used
+ * and the model is a local fit around the SLA. Adding servers scales the whole
+ * load of a server down, so the capacity is where the ray through the current load
+ * crosses inOp. The bounds are z standard errors of the prediction at that point.
+ * <p>
+ * Until the model has enough samples and a clearly positive slope along the ray, the
+ * capacity is the hand-identified line through (control.ff.r1, control.ff.w1) and
+ * (control.ff.r2, control.ff.w2) in the read/mixed plane, with no bounds.
+ * <p>
+ * Updates and estimates only use the fields, so they allocate nothing.
+ *
+ * @author Ahmad Al-Shishtawy <ahmadas@kth.se>
+ *
+ */
+public class CapacityModel {
+
+	/**
+	 * Updates needed before the learned model is used.
+	 */
+	public static final int MIN_SAMPLES = 20;
+
+	private static final int N = 4;
+
+	private final double lambda;
+	private final double delta;	// initial covariance
+	private final double z;
+	private final double inOp;
+	private final double window;
+	private final double r1, w1, r2, w2;	// the prior line
+
+	private final double[] theta = new double[N];
+	private final double[] p = new double[N*N];	// the symmetric covariance matrix
+	private final double[] x = new double[N];
+	private final double[] px = new double[N];
+	private double noise;	// smoothed squared prediction error
+	private int count;
+
+	private double estimate, lower, upper;
+	private boolean learned;
+
+	/**
+	 * @param lambda	The forgetting factor in (0, 1]. 1 never forgets.
+	 * @param delta		The initial covariance.
+	 * @param z			The width of the bounds in standard errors.
+	 * @param inOp		The SLA on the p99 latency.
+	 * @param window	The samples used are within window*inOp of inOp.
+	 * @param r1		The read throughput of the first point of the prior line.
+	 * @param w1		The mixed throughput of the first point of the prior line.
+	 * @param r2		The read throughput of the second point of the prior line.
+	 * @param w2		The mixed throughput of the second point of the prior line.
+	 */
+	public CapacityModel(double lambda, double delta, double z, double inOp, double window,
+			double r1, double w1, double r2, double w2) {
+		this.lambda = lambda;
+		this.delta = delta;
+		this.z = z;
+		this.inOp = inOp;
+		this.window = window;
+		this.r1 = r1;
+		this.w1 = w1;
+		this.r2 = r2;
+		this.w2 = w2;
+		reset();
+	}
+
+	/**
+	 * Forgets everything learned.
+	 */
+	public void reset() {
+		for (int i = 0; i < N; i++) {
+			theta[i] = 0;
+			for (int j = 0; j < N; j++) {
+				p[i*N + j] = i == j ? delta : 0;
+			}
+		}
+		noise = 0;
+		count = 0;
+	}
+
+	/**
+	 * Adds a sample. Samples too far from inOp are ignored.
+	 *
+	 * @param rtps	The read throughput per server.
+	 * @param mtps	The mixed throughput per server.
+	 * @param cps	The clients per server.
+	 * @param p99	The p99 latency.
+	 */
+	public void update(double rtps, double mtps, double cps, double p99) {
+		if(Math.abs(p99 - inOp) > window*inOp) {
+			return;
+		}
+		x[0] = 1;
+		x[1] = rtps;
+		x[2] = mtps;
+		x[3] = cps;
+		double d = lambda;
+		double e = p99;
+		for (int i = 0; i < N; i++) {
+			double s = 0;
+			for (int j = 0; j < N; j++) {
+				s += p[i*N + j] * x[j];
+			}
+			px[i] = s;
+			d += x[i] * s;
+			e -= theta[i] * x[i];
+		}
+		double trace = 0;
+		for (int i = 0; i < N; i++) {
+			theta[i] += px[i] / d * e;
+			trace += p[i*N + i];
+		}
+		double f = trace < N*delta ? lambda : 1;	// forget only while the covariance is bounded
+		for (int i = 0; i < N; i++) {
+			for (int j = 0; j < N; j++) {
+				p[i*N + j] = (p[i*N + j] - px[i]*px[j]/d) / f;
+			}
+		}
+		noise = count == 0 ? e*e : lambda*noise + (1 - lambda)*e*e;
+		count++;
+	}
+
+	/**
+	 * Estimates the capacity for the current workload. The bounds are then available from
+	 * {@link #getLower()} and {@link #getUpper()}.
+	 *
+	 * @param rtps	The read throughput per server.
+	 * @param mtps	The mixed throughput per server.
+	 * @param cps	The clients per server.
+	 * @return	The throughput per server at which the p99 reaches inOp, or 0 if unknown.
+	 */
+	public double estimate(double rtps, double mtps, double cps) {
+		double tps = rtps + mtps;
+		learned = false;
+		if(count >= MIN_SAMPLES && tps > 0) {
+			// the direction of the ray per unit of throughput
+			x[0] = 0;
+			x[1] = rtps / tps;
+			x[2] = mtps / tps;
+			x[3] = cps / tps;
+			double slope = dot(theta, x);
+			double slopeStdDev = Math.sqrt(Math.max(noise * quadratic(x), 0));
+			if(slope > 2*slopeStdDev) {
+				estimate = (inOp - theta[0]) / slope;
+				x[0] = 1;
+				x[1] *= estimate;
+				x[2] *= estimate;
+				x[3] *= estimate;
+				double se = Math.sqrt(Math.max(noise * quadratic(x), 0));
+				lower = (inOp - theta[0] - z*se) / slope;
+				upper = (inOp - theta[0] + z*se) / slope;
+				learned = estimate > 0;
+			}
+		}
+		if(!learned) {
+			estimate = prior(rtps, mtps);
+			lower = upper = estimate;
+		}
+		return estimate;
+	}
+
+	/**
+	 * @return	The total throughput where the ray through (rtps, mtps) crosses the prior
+	 * 			line, or 0 if it does not.
+	 */
+	private double prior(double rtps, double mtps) {
+		double d = (r2 - r1)*mtps - (w2 - w1)*rtps;
+		if(d == 0) {
+			return 0;
+		}
+		double t = (r2*w1 - r1*w2) / d;	// the ray is t*(rtps, mtps)
+		return Math.max(t * (rtps + mtps), 0);
+	}
+
+	private static double dot(double[] a, double[] b) {
+		double s = 0;
+		for (int i = 0; i < N; i++) {
+			s += a[i] * b[i];
+		}
+		return s;
+	}
+
+	/**
+	 * @return	v'Pv.
+	 */
+	private double quadratic(double[] v) {
+		double s = 0;
+		for (int i = 0; i < N; i++) {
+			for (int j = 0; j < N; j++) {
+				s += v[i] * p[i*N + j] * v[j];
+			}
+		}
+		return s;
+	}
+
+	/**
+	 * @return	true if the last estimate came from the learned model rather than the prior line.
+	 */
+	public boolean isLearned() {
+		return learned;
+	}
+
+	/**
+	 * @return	The last estimate.
+	 */
+	public double getEstimate() {
+		return estimate;
+	}
+
+	/**
+	 * @return	The lower bound of the last estimate.
+	 */
+	public double getLower() {
+		return lower;
+	}
+
+	/**
+	 * @return	The upper bound of the last estimate.
+	 */
+	public double getUpper() {
+		return upper;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+}
@@ -0,0 +1,452 @@
+/*
+ * This file is part of the ElastMan Elasticity Manager
+ *
+ * Copyright (C) 2013 Ahmad Al-Shishtawy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cloud.elasticity.elastman;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects monitoring data from the YCSB clients using a single {@link Selector}.
+ * <p>
+ * Each call to {@link #poll(long, Listener)} pings all clients at once and then gathers
+ * the replies in parallel until all clients answered or the deadline of the round passed.
+ * A client that misses the deadline is counted as late and is not pinged again until its
+ * reply arrives. The late reply is then delivered in the round in which it completes.
+ * <p>
+ * In push mode ({@link #startListening(Listener)}) the clients are never pinged. They stream
+ * their records whenever they like and a background thread delivers each complete record.
+ * <p>
+ * Replies are framed and decoded by the {@link WireProtocol}. Old clients that send the
+ * version 1 layout and new clients that send version 2 frames can be mixed.
+ * <p>
+ * Clients can be added and removed from any thread. The changes are applied by the thread
+ * that uses the selector so the client list itself is never shared. {@link #size()} counts
+ * a change right away, before it is applied.
+ *
+ * @author Ahmad Al-Shishtawy <ahmadas@kth.se>
+ *
+ */
+public class ClientPoller {
+
+	static Logger log = LoggerFactory.getLogger(ClientPoller.class);
+
+	// initial size of the receive buffer of a client. Grows up to WireProtocol.MAX_FRAME_SIZE
+	private static final int BUFFER_SIZE = 1024;
+
+	/**
+	 * Receives the replies collected by the poller.
+	 */
+	public interface Listener {
+		/**
+		 * Called once for each valid reply.
+		 *
+		 * @param report	The decoded reply. Only valid during the call.
+		 */
+		public void report(ClientReport report);
+	}
+
+	private final Selector selector;
+	private final boolean histograms;
+	private final ArrayList<Client> clients = new ArrayList<Client>();	// only used by the selector thread
+	private final ConcurrentLinkedQueue<Runnable> changes = new ConcurrentLinkedQueue<Runnable>();
+
+	private final AtomicInteger size = new AtomicInteger();	// counts changes not applied yet
+	private volatile int late = 0;
+	private volatile int dead = 0;
+	private volatile boolean listening = false;
+
+	/**
+	 * Creates a new poller with its own selector.
+	 *
+	 * @param histograms	true if version 1 clients send latency histograms after each report.
+	 * @throws IOException if the selector can not be opened
+	 */
+	public ClientPoller(boolean histograms) throws IOException {
+		this.histograms = histograms;
+		selector = Selector.open();
+	}
+
+	/**
+	 * Adds a client to the poller. The channel is switched to non-blocking mode.
+	 * The client takes part in the next round (or is read right away in push mode).
+	 *
+	 * @param channel	A connected channel to the client.
+	 * @throws IOException
+	 */
+	public void add(SocketChannel channel) throws IOException {
+		channel.configureBlocking(false);
+		final Client c = new Client(channel);
+		size.incrementAndGet();
+		changes.add(new Runnable() {
+			public void run() {
+				try {
+					c.key = c.channel.register(selector, listening ? SelectionKey.OP_READ : 0, c);
+					clients.add(c);
+				} catch (IOException e) {
+					log.error("Can't register client {}: {}", c, e.getMessage());
+					size.decrementAndGet();
+					c.close();
+				}
+			}
+		});
+		selector.wakeup();
+	}
+
+	/**
+	 * Removes and closes the last added client.
+	 */
+	public void removeLast() {
+		int n;
+		while((n = size.get()) > 0 && !size.compareAndSet(n, n - 1)) {
+			// retry
+		}
+		changes.add(new Runnable() {
+			public void run() {
+				if(clients.size()==0) {
+					log.error("No More Clients!!");
+					return;
+				}
+				Client c = clients.remove(clients.size()-1);
+				if(c.dead) {
+					dead--;
+				}
+				log.info("Removing Client: {}", c);
+				c.close();
+			}
+		});
+		selector.wakeup();
+	}
+
+	private void applyChanges() {
+		Runnable r;
+		while((r = changes.poll()) != null) {
+			r.run();
+		}
+	}
+
+	/**
+	 * Pings all clients and collects their replies.
+	 *
+	 * @param timeoutMs	The deadline of the round in milliseconds.
+	 * @param listener	Receives every reply that completed during the round.
+	 * @return The number of replies delivered to the listener.
+	 */
+	public int poll(long timeoutMs, Listener listener) {
+		final long deadline = System.nanoTime() + timeoutMs * 1000000L;
+		int pending = 0;
+		int replies = 0;
+
+		applyChanges();
+
+		// 1 - ping everyone at once
+		for (Client c : clients) {
+			if(c.dead) {
+				continue;
+			}
+			if(c.waiting) {	// late from last round. Don't ping again, otherwise we get two replies
+				pending++;
+				continue;
+			}
+			try {
+				c.ping.clear();
+				c.channel.write(c.ping);
+				c.reset();
+				c.waiting = true;
+				c.key.interestOps(c.ping.hasRemaining() ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+				pending++;
+			} catch (IOException e) {
+				kill(c, e);
+			}
+		}
+
+		// 2 - gather replies in parallel till the deadline
+		while(pending > 0) {
+			long left = (deadline - System.nanoTime()) / 1000000L;
+			if(left <= 0) {
+				break;
+			}
+			try {
+				selector.select(left);
+			} catch (IOException e) {
+				log.error("Select failed: {}", e.getMessage());
+				break;
+			}
+			Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+			while (it.hasNext()) {
+				SelectionKey key = it.next();
+				it.remove();
+				Client c = (Client) key.attachment();
+				if(!key.isValid()) {
+					continue;
+				}
+				try {
+					if(key.isWritable()) {
+						c.channel.write(c.ping);
+						if(!c.ping.hasRemaining()) {
+							key.interestOps(SelectionKey.OP_READ);
+						}
+					}
+					if(key.isReadable()) {
+						if(read(c)) {
+							c.waiting = false;
+							key.interestOps(0);
+							pending--;
+							if(deliver(c, listener)) {
+								replies++;
+							}
+						}
+					}
+				} catch (IOException e) {
+					kill(c, e);
+					pending--;
+				}
+			}
+		}
+
+		late = pending;
+		if(late > 0) {
+			log.warn("{} clients missed the deadline of {} ms", late, timeoutMs);
+		}
+		return replies;
+	}
+
+	/**
+	 * Switches the poller to push mode. A daemon thread reads the records that the clients
+	 * stream and hands each complete record to the listener. {@link #poll(long, Listener)}
+	 * must not be used after this call.
+	 *
+	 * @param listener	Receives every complete record. Called from the listening thread.
+	 */
+	public void startListening(final Listener listener) {
+		listening = true;
+		changes.add(new Runnable() {
+			public void run() {
+				for (Client c : clients) {
+					if(!c.dead) {
+						c.key.interestOps(SelectionKey.OP_READ);
+					}
+				}
+			}
+		});
+		Thread t = new Thread("ClientPoller") {
+			public void run() {
+				listen(listener);
+			}
+		};
+		t.setDaemon(true);
+		t.start();
+	}
+
+	private void listen(Listener listener) {
+		while(selector.isOpen()) {
+			try {
+				selector.select();
+			} catch (IOException e) {
+				log.error("Select failed: {}", e.getMessage());
+				return;
+			}
+			applyChanges();
+			if(!selector.isOpen()) {
+				return;
+			}
+			Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+			while (it.hasNext()) {
+				SelectionKey key = it.next();
+				it.remove();
+				Client c = (Client) key.attachment();
+				if(!key.isValid() || !key.isReadable()) {
+					continue;
+				}
+				try {
+					// drain the socket. There might be more than one record waiting
+					while(read(c)) {
+						deliver(c, listener);
+						c.reset();
+					}
+				} catch (IOException e) {
+					kill(c, e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads as much as is available from a client.
+	 *
+	 * @return	true if the client buffer now holds a complete frame.
+	 * @throws IOException	if the connection failed or the frame is too large.
+	 */
+	private boolean read(Client c) throws IOException {
+		while(true) {
+			int n = c.channel.read(c.in);
+			if(n < 0) {
+				throw new IOException("Connection closed by " + c);
+			}
+			if(c.in.hasRemaining()) {
+				if(n == 0) {
+					return false;
+				}
+				continue;
+			}
+			// got all the bytes we knew about. Check if the frame is longer
+			int need = WireProtocol.frameSize(c.in, histograms);
+			if(need == c.in.position()) {
+				return true;
+			}
+			if(need < 0 || need > WireProtocol.MAX_FRAME_SIZE) {
+				throw new IOException("Invalid frame from " + c);
+			}
+			if(need > c.in.capacity()) {
+				c.grow(need);
+			}
+			c.in.limit(need);
+		}
+	}
+
+	/**
+	 * Decodes the frame in the client buffer and hands it to the listener.
+	 *
+	 * @return	false if the frame was dropped.
+	 */
+	private boolean deliver(Client c, Listener listener) {
+		c.in.flip();
+		if(!WireProtocol.decode(c.in, c.report)) {
+			log.warn("Dropped an invalid frame of {} bytes from {}", c.in.limit(), c);
+			return false;
+		}
+		long seq = c.report.getSeq();
+		if(seq >= 0) {
+			if(c.lastSeq >= 0 && seq != c.lastSeq + 1) {
+				log.warn("Client {} skipped {} reports", c, seq - c.lastSeq - 1);
+			}
+			c.lastSeq = seq;
+		}
+		listener.report(c.report);
+		return true;
+	}
+
+	private void kill(Client c, IOException e) {
+		// The client stays in the list. The workload generator removes it using removeLast()
+		log.error(e.getMessage());
+		c.dead = true;
+		c.waiting = false;
+		c.key.cancel();
+		dead++;
+	}
+
+	/**
+	 * @return Total number of clients including dead ones. Clients added or removed from
+	 * 			another thread are counted right away.
+	 */
+	public int size() {
+		return size.get();
+	}
+
+	/**
+	 * @return The number of clients that did not fail. A removed dead client is still
+	 * 			subtracted till the removal is applied in the next round.
+	 */
+	public int getLiveCount() {
+		return Math.max(0, size.get() - dead);
+	}
+
+	/**
+	 * @return The number of clients that missed the deadline in the last round.
+	 */
+	public int getLateCount() {
+		return late;
+	}
+
+	/**
+	 * Closes all clients and the selector. The poller can not be used after this call.
+	 */
+	public void close() {
+		try {
+			for (SelectionKey key : selector.keys()) {
+				key.channel().close();
+			}
+			selector.close();
+		} catch (IOException e) {
+			log.error(e.getMessage());
+		}
+	}
+
+	class Client {
+		final SocketChannel channel;
+		final ByteBuffer ping = ByteBuffer.allocate(4);	// any int makes the client send its data
+		final ClientReport report = new ClientReport();
+		ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+		long lastSeq = -1;
+		SelectionKey key;
+		boolean waiting = false;
+		boolean dead = false;
+
+		public Client(SocketChannel channel) {
+			this.channel = channel;
+			ping.putInt(0, 0);
+			reset();
+		}
+
+		/**
+		 * Prepare to receive the next reply
+		 */
+		void reset() {
+			in.clear();
+			in.limit(WireProtocol.HEADER_SIZE);
+		}
+
+		/**
+		 * Replaces the buffer with a larger one keeping the bytes received so far.
+		 */
+		void grow(int size) {
+			ByteBuffer b = ByteBuffer.allocate(Math.min(Math.max(size, 2*in.capacity()), WireProtocol.MAX_FRAME_SIZE));
+			in.flip();
+			b.put(in);
+			in = b;
+		}
+
+		void close() {
+			if(key != null) {
+				key.cancel();
+			}
+			try {
+				channel.close();
+			} catch (IOException e) {
+				log.error(e.getMessage());
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "" + channel.socket().getInetAddress();
+		}
+	}
+
+}
@@ -0,0 +1,112 @@
+/*
+ * This file is part of the ElastMan Elasticity Manager
+ *
+ * Copyright (C) 2013 Ahmad Al-Shishtawy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cloud.elasticity.elastman;
+
+import java.nio.ByteBuffer;
+
+/**
+ * One decoded report from a YCSB client.
+ * <p>
+ * A report is decoded in place by {@link WireProtocol#decode(ByteBuffer, ClientReport)} and
+ * reused for the next report of the same client, so decoding does not allocate.
+ * Metrics are indexed by their id. The ids of the fields of the original protocol are the
+ * slots of the {@link Aggregator}.
+ *
+ * @author Ahmad Al-Shishtawy <ahmadas@kth.se>
+ *
+ */
+public class ClientReport {
+
+	int version;
+	int clientId = -1;
+	long seq = -1;
+	final double[] values = new double[WireProtocol.MAX_METRICS];
+	long present = 0;	// bit i is set if metric i was sent
+
+	private ByteBuffer frame;
+	private int histograms = -1;	// position of the histograms in the frame
+
+	/**
+	 * @return The protocol version of the report.
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return The id of the client or -1 for version 1 clients.
+	 */
+	public int getClientId() {
+		return clientId;
+	}
+
+	/**
+	 * @return The sequence number of the report or -1 for version 1 clients.
+	 */
+	public long getSeq() {
+		return seq;
+	}
+
+	/**
+	 * @param id	A metric id.
+	 * @return	true if the client sent the metric.
+	 */
+	public boolean has(int id) {
+		return (present & (1L << id)) != 0;
+	}
+
+	/**
+	 * @param id	A metric id.
+	 * @return	The value of the metric, or 0 if the client did not send it.
+	 */
+	public double get(int id) {
+		return has(id) ? values[id] : 0;
+	}
+
+	/**
+	 * @return	The frame positioned at the encoded read and mixed {@link LatencyHistogram}s,
+	 * 			or null if the client did not send histograms.
+	 */
+	public ByteBuffer histograms() {
+		if(histograms < 0) {
+			return null;
+		}
+		frame.position(histograms);
+		return frame;
+	}
+
+	void clear(ByteBuffer frame) {
+		this.frame = frame;
+		present = 0;
+		histograms = -1;
+		clientId = -1;
+		seq = -1;
+	}
+
+	void set(int id, double v) {
+		values[id] = v;
+		present |= 1L << id;
+	}
+
+	void setHistograms(int position) {
+		histograms = position;
+	}
+
+}
@@ -21,7 +21,9 @@ package cloud.elasticity.elastman;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Hashtable;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.TreeMap;
 
 import org.jclouds.openstack.nova.v2_0.domain.Server;
 import org.slf4j.Logger;
@@ -39,6 +41,10 @@ public class Cluster {
 
 	static Logger log = LoggerFactory.getLogger(Nova.class);
 
+	/**
+	 * The number of partitions of the store.
+	 */
+	public static final int PARTITIONS = 90;
 
 	private Nova nova;
 	private SyncServer sync;
@@ -63,8 +69,10 @@ public class Cluster {
 
 
 	// myVMs is a hashtable with key = (physical host ID) and value = (array list of servers (VMs) running on that physical host)
-	private Hashtable<String, ArrayList<Server>> myVMs = new Hashtable<String, ArrayList<Server>>();
-	private ArrayList<String> myHosts = new ArrayList<String>();
+	// updateVMs replaces both under vmsLock instead of changing them, as the Actuator reads them from its own thread
+	private volatile Hashtable<String, ArrayList<Server>> myVMs = new Hashtable<String, ArrayList<Server>>();
+	private volatile ArrayList<String> myHosts = new ArrayList<String>();
+	private final Object vmsLock = new Object();
 
 	private int myVMsCount = 0;
 	private int myVoldVMsCount = 0;
@@ -95,10 +103,28 @@ public class Cluster {
 		
 	}
 
+	/**
+	 * Creates a cluster and its {@link WebSyncServer} using the settings in {@link Props}.
+	 * 
+	 * @param nova	The Nova wrapper object that will be used with this cluster
+	 * @return	The cluster.
+	 */
+	public static Cluster fromProps(Nova nova) {
+		Cluster cluster = new Cluster(nova, new WebSyncServer(Props.webSyncServer));
+		cluster.setVoldPrefix(Props.voldPrefix);
+		cluster.setVoldImage(Props.voldImage);
+		cluster.setVoldFlavor(Props.voldFlavor);
+		cluster.setReplicationFactor(Props.voldReplicationFactor);
+		cluster.setYcsbPrefix(Props.ycsbPrefix);
+		cluster.setYcsbImage(Props.ycsbImage);
+		cluster.setYcsbFlavor(Props.ycsbFlavor);
+		return cluster;
+	}
+
 
 
 	public void updateVMs() {
-		myVMs.clear();
+		Hashtable<String, ArrayList<Server>> vms = new Hashtable<String, ArrayList<Server>>();
 		int our=0, vold=0, ycsb=0, other=0;
 
 		for(Server s : nova.getVMs()){
@@ -117,13 +143,13 @@ public class Cluster {
 				// Then add the current server (i.e., VM) to myMVs
 				// myVMs is a hashtable with key = physical host ID and value = array list of servers (VMs) running on that physical host
 				String tmpHostId = s.getHostId();  // the physical machine (host) where the VM runs
-				ArrayList<Server> tmpServers= myVMs.get(tmpHostId);
+				ArrayList<Server> tmpServers= vms.get(tmpHostId);
 				if(tmpServers != null) {
 					tmpServers.add(s);
 				} else {
 					tmpServers = new ArrayList<Server>();
 					tmpServers.add(s);
-					myVMs.put(tmpHostId, tmpServers);
+					vms.put(tmpHostId, tmpServers);
 				}
 			} else {
 				other++;	// ignore other VMs that don't belong to us and don't add them to myVMs
@@ -133,15 +159,17 @@ public class Cluster {
 
 
 		// update the list of hosts running myVMs
-		myHosts.clear();
-		for (String name : myVMs.keySet()) {
-			myHosts.add(name);
+		ArrayList<String> hosts = new ArrayList<String>(vms.keySet());
+		Collections.sort(hosts);	// to get same zones everytime
+
+		synchronized (vmsLock) {
+			myVMs = vms;
+			myHosts = hosts;
+			myVMsCount = our;
+			myVoldVMsCount = vold;
+			myYcsbVMsCount = ycsb;
 		}
-
-		myVMsCount = our;
-		myVoldVMsCount = vold;
-		myYcsbVMsCount = ycsb;
-		log.info("Done updating VMs list. Our VMs = {}, vold = {}, ycsb = {}, Other VMs = {}, hosts = {}", new Object[]{myVMsCount, myVoldVMsCount, myYcsbVMsCount, other, myHosts.size()});
+		log.info("Done updating VMs list. Our VMs = {}, vold = {}, ycsb = {}, Other VMs = {}, hosts = {}", new Object[]{our, vold, ycsb, other, hosts.size()});
 
 	}	
 
@@ -177,6 +205,17 @@ public class Cluster {
 	private boolean creating = false;
 
 	synchronized void createVMs(final int count, String prefix, String img, String flv) {
+		createVMs(count, prefix, img, flv, -1, 0);
+	}
+	
+	/**
+	 * Creates VMs. If they are Voldemort VMs the cluster.xml is generated when all are
+	 * created, see {@link #genCluster(int, int)}.
+	 * 
+	 * @param n			The number of VMs in the store, -1 for all.
+	 * @param spares	The number of VMs after them that are listed without partitions.
+	 */
+	synchronized void createVMs(final int count, String prefix, String img, String flv, final int n, final int spares) {
 		
 		creating = true;
 
@@ -211,7 +250,7 @@ public class Cluster {
 				// generating the cluster config file
 				if(genCluster) {
 					sync.reset();
-					genCluster(-1);
+					genCluster(n, spares);
 				}
 				// then unlock the web server so VMs can start downloading cluster.xml
 				sync.unlock();
@@ -272,6 +311,18 @@ public class Cluster {
 	
 
 	void genCluster(int n) {
+		genCluster(n, 0);
+	}
+	
+	/**
+	 * Generates the cluster.xml on the {@link SyncServer}.
+	 * 
+	 * @param n			The number of VMs in the store, -1 for all. The partitions are
+	 * 					spread over the Voldemort VMs with the IDs 0 to n-1.
+	 * @param spares	The number of VMs after them that are listed without partitions,
+	 * 					e.g., the {@link WarmPool}. The other VMs are left out.
+	 */
+	void genCluster(int n, int spares) {
 		updateVMs();
 		if(n <= 0) {
 			n = myVoldVMsCount;
@@ -325,13 +376,18 @@ public class Cluster {
 		sync.clusterAppend(cluster.toString());
 		cluster = new StringBuilder();
 
-		ArrayList<ArrayList<Integer>> partitions = PartitionGenerator.calc(90, n);
+		ArrayList<ArrayList<Integer>> partitions = PartitionGenerator.calc(PARTITIONS, n);
 
 
-		Collections.sort(myHosts);	// to get same zones everytime
+		Hashtable<String, ArrayList<Server>> vms;
+		ArrayList<String> hosts;
+		synchronized (vmsLock) {
+			vms = myVMs;
+			hosts = myHosts;	// sorted by updateVMs
+		}
 
-		for (Entry<String, ArrayList<Server>> e : myVMs.entrySet()) {
-			int z = myHosts.indexOf(e.getKey())%replicationFactor;	// get the zone id
+		for (Entry<String, ArrayList<Server>> e : vms.entrySet()) {
+			int z = hosts.indexOf(e.getKey())%replicationFactor;	// get the zone id
 			for (Server s : e.getValue()) {	// for each server in this zone
 				String name = s.getName();
 				if(!name.startsWith(voldPrefix)) {
@@ -339,7 +395,7 @@ public class Cluster {
 				}
 
 				int id = Integer.parseInt(name.substring(voldPrefix.length()));		// ID of this vold server to get the partitions
-				if(id >= partitions.size()) {
+				if(id >= partitions.size() + spares) {
 					continue; // for the case of delete VMs. I need cluster file with fewer vms
 				}
 				cluster.append("  <server>\n");
@@ -350,7 +406,7 @@ public class Cluster {
 				cluster.append("    <admin-port>6667</admin-port>\n");
 				//    			<!-- A list of data partitions assigned to this server -->
 				cluster.append("     <partitions>");
-				for (int i = 0; i <partitions.get(id).size(); i++) {
+				for (int i = 0; id < partitions.size() && i <partitions.get(id).size(); i++) {	// a spare has none
 					cluster.append(partitions.get(id).get(i).toString());
 					if(i != partitions.get(id).size()-1) {
 						cluster.append(",");
@@ -588,6 +644,51 @@ public class Cluster {
 		return myVMs.get(hostId);
 	}
 
+	/**
+	 * Get the addresses of the Voldemort VMs with IDs from-to according to the last call
+	 * to updateVMs.
+	 * 
+	 * @param from	The first ID.
+	 * @param to	The ID after the last one.
+	 * @return	The addresses.
+	 */
+	public ArrayList<String> getVoldAddrs(int from, int to) {
+		return new ArrayList<String>(getVoldAddrMap(from, to).values());
+	}
+
+	/**
+	 * Get the addresses of the Voldemort VMs with IDs from-to according to the last call
+	 * to updateVMs. The map doesn't change when the VMs are updated again.
+	 * 
+	 * @param from	The first ID.
+	 * @param to	The ID after the last one.
+	 * @return	An unmodifiable map from the ID to the address.
+	 */
+	public Map<Integer, String> getVoldAddrMap(int from, int to) {
+		Hashtable<String, ArrayList<Server>> vms;
+		synchronized (vmsLock) {
+			vms = myVMs;
+		}
+		Map<Integer, String> addrs = new TreeMap<Integer, String>();	// by ID
+		for (ArrayList<Server> servers : vms.values()) {
+			for (Server s : servers) {
+				String name = s.getName();
+				if(!name.startsWith(voldPrefix)) {
+					continue;
+				}
+				try {
+					int id = Integer.parseInt(name.substring(voldPrefix.length()));
+					if(from <= id && id < to) {
+						addrs.put(id, Nova.getAddr(s));
+					}
+				} catch (NumberFormatException e) {
+					// not one of the numbered Voldemort VMs
+				}
+			}
+		}
+		return Collections.unmodifiableMap(addrs);
+	}
+
 
 
 
@@ -0,0 +1,104 @@
+/*
+ * This file is part of the ElastMan Elasticity Manager
+ * 
+ * Copyright (C) 2013 Ahmad Al-Shishtawy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cloud.elasticity.elastman;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Collections;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link MoveExecutor} that runs a command for each move, e.g., a script around the
+ * Voldemort admin tool. The command is called with the partition and the addresses of the
+ * donor and stealer servers,
+ * <pre>
+ * command partition donor stealer
+ * </pre>
+ * and must exit with 0 when the partition was moved. If the last line it prints is a number
+ * it is taken as the bytes moved.
+ *
+ * @author Ahmad Al-Shishtawy <ahmadas@kth.se>
+ *
+ */
+public class CommandMoveExecutor implements MoveExecutor {
+
+	static Logger log = LoggerFactory.getLogger(CommandMoveExecutor.class);
+
+	private final String command;
+	private volatile Map<Integer, String> addrs = Collections.emptyMap();
+
+	/**
+	 * @param command	The command that moves a partition.
+	 */
+	public CommandMoveExecutor(String command) {
+		this.command = command;
+	}
+
+	public long move(RebalancePlanner.Move move) throws IOException {
+		String donor = getAddr(move.getFrom());
+		String stealer = getAddr(move.getTo());
+		Process p = new ProcessBuilder(command, "" + move.getPartition(), donor, stealer).redirectErrorStream(true).start();
+		String last = null;
+		BufferedReader in = new BufferedReader(new InputStreamReader(p.getInputStream()));
+		try {
+			String line;
+			while((line = in.readLine()) != null) {
+				log.trace("{}: {}", move, line);
+				if(!line.trim().isEmpty()) {
+					last = line.trim();
+				}
+			}
+		} finally {
+			in.close();
+		}
+		int exit;
+		try {
+			exit = p.waitFor();
+		} catch (InterruptedException e) {
+			p.destroy();
+			throw new IOException("Interrupted");
+		}
+		if(exit != 0) {
+			throw new IOException(command + " exited with " + exit);
+		}
+		try {
+			return last == null ? 0 : Long.parseLong(last);
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	public void setAddrs(Map<Integer, String> addrs) {
+		this.addrs = addrs;
+	}
+
+	private String getAddr(int id) throws IOException {
+		String addr = addrs.get(id);
+		if(addr == null) {
+			throw new IOException("No address of server " + id);
+		}
+		return addr;
+	}
+
+}
@@ -41,7 +41,14 @@ public class ControlWorkLoad extends Thread {
 	public ControlWorkLoad(Sensor handler, Cluster cluster) {
 		this.handler = handler;
 		this.cluster = cluster;
-		workload = new ArrayList<ControlWorkLoad.work>();
+		workload = scenario();
+	}
+	
+	/**
+	 * @return	The day/night pattern and spikes as the number of YCSB clients to have after each delay.
+	 */
+	static ArrayList<work> scenario() {
+		ArrayList<work> workload = new ArrayList<ControlWorkLoad.work>();
 		workload.add(new work(0, 12));
 		/// controller starts here
 		workload.add(new work(40, 14));
@@ -95,7 +102,7 @@ public class ControlWorkLoad extends Thread {
 		workload.add(new work(60, 26));
 		workload.add(new work(60, 10));
 		
-		
+		return workload;
 	}
 	
 	@Override
@@ -145,7 +152,7 @@ public class ControlWorkLoad extends Thread {
 		
 	}
 	
-	class work {
+	static class work {
 		int delayMs;	// how much to wait in ms
 		int vms;	// how many vms to add/remove +/-'
 		public work(int delayMinuts, int vms) {
@@ -0,0 +1,315 @@
+/*
+ * This file is part of the ElastMan Elasticity Manager
+ *
+ * Copyright (C) 2013 Ahmad Al-Shishtawy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cloud.elasticity.elastman;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes the samples of the {@link Sensor} to the data file (ident.dat or control.dat)
+ * and/or the binary {@link HistoryWriter history} file in a background thread.
+ * <p>
+ * The control loop hands over one {@link Sample} per step with {@link #submit(Sample)},
+ * which never blocks. If the disk is so slow that the queue is full the sample is dropped
+ * and counted. The recorder thread formats all queued samples in one batch and flushes
+ * at most once per flush interval (group commit), and when it has nothing else to do.
+ *
+ * @author Ahmad Al-Shishtawy <ahmadas@kth.se>
+ *
+ */
+public class DataRecorder extends Thread {
+
+	static Logger log = LoggerFactory.getLogger(DataRecorder.class);
+
+	/**
+	 * The first line of the data file.
+	 */
+	public static final String HEADER = "T \t" +
+			"PeriodSec \t" +
+			"Clients \t" +
+			"Servers \t" +
+			"TotalOps \t" +
+			"Throughput \t" +
+			"ThroPerServ \t" +
+
+			"tpsR \t" +
+			"meanR \t" +
+			"stddivR \t" +
+			"minR \t" +
+			"p95R \t" +
+			"p99R \t" +
+			"fp99R \t" +
+			"maxR \t" +
+
+			"tpSM \t" +
+			"meanM \t" +
+			"stddivM \t" +
+			"minM \t" +
+			"p95M \t" +
+			"p99M \t" +
+			"maxM \t" +
+			"ntp \t" +
+			"nfp99 \t" +
+			"opID \t" +
+			"log\n";
+
+	private static final int QUEUE_SIZE = 1024;
+
+	/**
+	 * Queued by {@link #close()} after the last sample. Interrupting the thread instead
+	 * would close the channel of the history file if it is writing.
+	 */
+	private static final Sample CLOSE = new Sample();
+
+	/**
+	 * One row of the data file: the measurements of a step and the decision taken.
+	 * Latencies are in ns and throughputs in ops/sec.
+	 */
+	public static class Sample {
+		public long step;
+		public double periodSec;
+		public int clients;
+		public int servers;
+		public double totalOps;
+		public long throughput, tps;
+		public long rtps, meanR, stddevR, minR, p95R, p99R, fp99R, maxR;
+		public long mtps, meanM, stddevM, minM, p95M, p99M, maxM;
+		public long ntp, nfp99;
+
+		// the decision
+		public int opId = -1;
+		public String log = "Ident";
+		public boolean action = false;	// true if output, n and nn are set
+		public double output, n;
+		public int nn;
+		public boolean ffFail = false;
+
+		/**
+		 * Sets a decision that has no output.
+		 *
+		 * @param opId	The code of the decision.
+		 * @param log	The name of the decision.
+		 */
+		public void decide(int opId, String log) {
+			this.opId = opId;
+			this.log = log;
+			action = false;
+		}
+
+		/**
+		 * Sets a decision of the FF or FB controllers.
+		 *
+		 * @param opId		The code of the decision.
+		 * @param log		The name of the controller.
+		 * @param output	The throughput per server given by the controller.
+		 * @param n			The exact number of servers to add.
+		 * @param nn		The number of servers to add.
+		 */
+		public void decide(int opId, String log, double output, double n, int nn) {
+			decide(opId, log);
+			this.output = output;
+			this.n = n;
+			this.nn = nn;
+			action = true;
+		}
+	}
+
+	private final ArrayBlockingQueue<Sample> queue = new ArrayBlockingQueue<Sample>(QUEUE_SIZE);
+	private final Writer out;				// null if not writing the tab separated file
+	private final HistoryWriter history;	// null if not writing the binary file
+	private final long flushNs;
+	private final StringBuilder row = new StringBuilder(512);
+	private char[] chars = new char[512];	// the row is copied here, not to a new String
+	private long dropped = 0;
+
+	/**
+	 * Opens the data files and writes the header. Call {@link #start()} to start recording.
+	 *
+	 * @param name		The name of the data files without extension, e.g., control.
+	 * 					Existing files are overwritten.
+	 * @param format	tsv for name.dat, binary for name.hist or both.
+	 * @param flushMs	The minimum time between two flushes in milliseconds.
+	 * @throws IOException	if a file can not be opened
+	 */
+	public DataRecorder(String name, String format, long flushMs) throws IOException {
+		this(format.equals("binary") ? null : new BufferedWriter(new FileWriter(name + ".dat")),
+				format.equals("binary") || format.equals("both") ? new HistoryWriter(name + ".hist") : null,
+				flushMs);
+	}
+
+	DataRecorder(Writer out, HistoryWriter history, long flushMs) throws IOException {
+		super("DataRecorder");
+		setDaemon(true);
+		this.out = out;
+		this.history = history;
+		this.flushNs = flushMs * 1000000L;
+		if(out != null) {
+			out.write(HEADER);
+			out.flush();
+		}
+	}
+
+	/**
+	 * Queues a sample for writing. Never blocks.
+	 *
+	 * @param s	The sample. Must not be changed after this call.
+	 * @return	false if the sample was dropped because the queue is full.
+	 */
+	public boolean submit(Sample s) {
+		if(queue.offer(s)) {
+			return true;
+		}
+		dropped++;
+		log.warn("Data file is too slow! Dropped sample {} ({} dropped so far)", s.step, dropped);
+		return false;
+	}
+
+	/**
+	 * Writes all queued samples, closes the file and stops the recorder thread.
+	 */
+	public void close() {
+		try {
+			while(isAlive() && !queue.offer(CLOSE, 100, TimeUnit.MILLISECONDS)) {
+				// full. The recorder makes room
+			}
+			join();
+		} catch (InterruptedException e) {
+			log.error(e.getMessage());
+		}
+	}
+
+	@Override
+	public void run() {
+		ArrayList<Sample> batch = new ArrayList<Sample>();
+		boolean dirty = false;
+		long lastFlush = System.nanoTime();
+		try {
+			while(true) {
+				Sample s;
+				try {
+					s = queue.poll(Math.max(flushNs / 1000000L, 1), TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					continue;	// close() doesn't interrupt
+				}
+				if(s == null) {	// idle. Make sure the last batch reaches the disk
+					if(dirty) {
+						flush();
+						dirty = false;
+						lastFlush = System.nanoTime();
+					}
+					continue;
+				}
+				batch.add(s);
+				queue.drainTo(batch);
+				boolean last = batch.remove(CLOSE);
+				write(batch);
+				if(last) {
+					break;
+				}
+				dirty = true;
+				if(System.nanoTime() - lastFlush >= flushNs) {
+					flush();
+					dirty = false;
+					lastFlush = System.nanoTime();
+				}
+			}
+			queue.drainTo(batch);	// submitted while closing
+			write(batch);
+			if(out != null) {
+				out.close();
+			}
+			if(history != null) {
+				history.close();
+			}
+		} catch (IOException e) {
+			log.error("Can't write the data file: {}", e.getMessage());
+		}
+	}
+
+	private void write(ArrayList<Sample> batch) throws IOException {
+		for (int i = 0; i < batch.size(); i++) {
+			if(out != null) {
+				row.setLength(0);
+				appendRow(batch.get(i), row);
+				appendDecision(batch.get(i), row);
+				if(chars.length < row.length()) {
+					chars = new char[row.capacity()];
+				}
+				row.getChars(0, row.length(), chars, 0);
+				out.write(chars, 0, row.length());
+			}
+			if(history != null) {
+				history.append(batch.get(i));
+			}
+		}
+		batch.clear();
+	}
+
+	private void flush() throws IOException {
+		if(out != null) {
+			out.flush();
+		}
+		if(history != null) {
+			history.flush();
+		}
+	}
+
+	/**
+	 * Formats the measurements of a sample as in the data file.
+	 *
+	 * @param s		The sample.
+	 * @param row	Receives the columns from T to nfp99.
+	 */
+	public static void appendRow(Sample s, StringBuilder row) {
+		row.append(s.step).append(" \t").append(Math.round(s.periodSec*1000)/1000.0).append(" \t").append(s.clients).append(" \t").append(s.servers)
+			.append(" \t").append(s.totalOps).append(" \t").append(s.throughput).append(" \t").append(s.tps)
+			.append(" \t").append(s.rtps).append(" \t").append(s.meanR).append(" \t").append(s.stddevR).append(" \t").append(s.minR)
+			.append(" \t").append(s.p95R).append(" \t").append(s.p99R).append(" \t").append(s.fp99R).append(" \t").append(s.maxR)
+			.append(" \t").append(s.mtps).append(" \t").append(s.meanM).append(" \t").append(s.stddevM).append(" \t").append(s.minM)
+			.append(" \t").append(s.p95M).append(" \t").append(s.p99M).append(" \t").append(s.maxM)
+			.append(" \t").append(s.ntp).append(" \t").append(s.nfp99);
+	}
+
+	/**
+	 * Formats the decision of a sample as in the data file.
+	 *
+	 * @param s		The sample.
+	 * @param row	Receives the opID and log columns and the end of line.
+	 */
+	static void appendDecision(Sample s, StringBuilder row) {
+		row.append(" \t").append(s.opId).append(" \t").append(s.log);
+		if(s.action) {
+			row.append('#').append(s.output).append('#').append(s.n).append('#').append(s.nn);
+			if(s.ffFail) {
+				row.append("#FFFail");
+			}
+		}
+		row.append('\n');
+	}
+
+}
@@ -0,0 +1,537 @@
+/*
+ * This file is part of the ElastMan Elasticity Manager
+ *
+ * Copyright (C) 2013 Ahmad Al-Shishtawy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cloud.elasticity.elastman;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The decision logic of the controller: warmup, dead zone, rebalancing checks and the
+ * choice between the feedforward ({@link CapacityModel}) and feedback
+ * ({@link PIDController}) controllers.
+ * <p>
+ * The decider does not know where the measurements come from or how VMs are added. The
+ * {@link Sensor} feeds it live measurements and a {@link Plant} backed by the real
+ * {@link Cluster} and {@link Actuator}. {@link TraceReplay} feeds it recorded measurements
+ * and a simulated plant.
+ * <p>
+ * The p99 is smoothed by the {@link Estimator} chosen with filter.type: the {@link Filter}
+ * (ewma) or the {@link KalmanEstimator} (kalman). The dead zone is widened by filter.z
+ * standard deviations of the estimate, so no decision is made while the estimate is too
+ * uncertain to tell if the latency left the dead zone.
+ * <p>
+ * Each step the caller first calls {@link #observe(double, double)} with the new
+ * measurements, records the filtered p99, then calls
+ * {@link #decide(long, double, double, double, double, boolean, DataRecorder.Sample)}.
+ * <p>
+ * No decision is made while rebalancing, except while a scale-out still waits for its new
+ * VMs. If the load dropped meanwhile, the MPC or the learned capacity model decides how
+ * many of them are not needed anymore, and these are cancelled before any data is moved,
+ * see {@link RebalanceQueue#preempt(int)}.
+ * <p>
+ * The feedforward controller sizes the cluster for the capacity per server, learned
+ * online from the steps outside rebalancing. Once the capacity model is learned its
+ * decisions are trusted. Before that, a decision that adds or removes too few
+ * servers for a large error still falls back to the feedback controller (FFFail).
+ * <p>
+ * Every step outside rebalancing also updates an online {@link RlsModel} of the p99 as a
+ * function of the throughput per server. In adaptive mode (control.adaptive) the model
+ * replaces the identified P gain: kp is set so that the error shrinks by the factor
+ * control.adaptive.pole per step. The feedback controller adds its output to the current
+ * throughput per server, so the output operating point cancels out and is not adapted.
+ * <p>
+ * With control.mode=mpc the feedforward and feedback controllers are replaced by an
+ * {@link MPCController} on the identified model (model.*). The warmup, dead zone and
+ * rebalancing checks still apply.
+ * <p>
+ * With forecast.enabled a {@link Forecaster} learns the daily pattern of the throughput.
+ * When the peak forecast within forecast.lead seconds (VM creation, start and rebalance)
+ * needs more servers than there are, the servers are added ahead of the peak, up to
+ * act.voldMax. Periods ended early by a spike are not added to the forecaster, so its
+ * season stays aligned with the time of day. Scaling in never goes below the servers the
+ * forecast needs, and the MPC gets the forecast as its load.
+ *
+ * @author Ahmad Al-Shishtawy <ahmadas@kth.se>
+ *
+ */
+public class Decider {
+
+	static Logger log = LoggerFactory.getLogger(Decider.class);
+
+	/**
+	 * What the decider sees of and does to the Voldemort cluster.
+	 */
+	public interface Plant {
+		/**
+		 * Refreshes the VM counts.
+		 */
+		public void update();
+
+		/**
+		 * @return The number of Voldemort VMs that are part of the store.
+		 */
+		public int getActiveVoldVMsCount();
+
+		/**
+		 * @return The number of Voldemort VMs that exist.
+		 */
+		public int getVoldVMsCount();
+
+		/**
+		 * @return true if VMs are created and deleted, false if only rebalancing.
+		 */
+		public boolean isCreateVMs();
+
+		public boolean isRebalancing();
+
+		/**
+		 * @return true while a running scale-out waits for its new VMs and has not moved data
+		 * 			yet, so a step in the other direction can still cancel it.
+		 */
+		public boolean isBooting();
+
+		/**
+		 * Adds or removes VMs.
+		 *
+		 * @param nVMs	The number of VMs to add (positive) or remove (negative).
+		 * @param limit	true if the change should be limited to act.voldDeltaMax VMs.
+		 */
+		public void scheduleRebalance(int nVMs, boolean limit);
+	}
+
+	private final boolean controlMode;
+	private final Plant plant;
+
+	private final PIDController pid;
+	private final Estimator filter;
+	private final CapacityModel capacity; // FF model
+	private final MPCController mpc;	// null unless control.mode=mpc
+	private final Forecaster forecaster;	// null unless forecast.enabled
+	private final int leadSteps;
+	private double[] forecast;	// the load given to the MPC
+	private int ahead = 0;	// servers needed for the forecast peak, 0 if none
+	private double aheadOutput = 0;	// throughput per server at the forecast peak
+	private final int voldMin, voldMax, voldDeltaMax;
+
+	private int warmup;	// iterations to wait before controller
+	private final double dead;
+	private final double inOp;
+	private final double outOp;
+	private final double ffThroughputDelta; // larger delta will indicate a spike thus we use FF
+	private final double z;	// the dead zone is widened by z standard deviations of the estimate
+
+	// online identification
+	private static final double RLS_COVARIANCE = 1e6;
+	private final RlsModel model;
+	private final boolean adaptive;
+	private final double pole;
+	private final double ki, kd;
+
+	private long nextFF = 0;
+	private boolean bigTPChange = false;
+	private boolean firstInput = true;
+	private double lastTps = 0;
+
+	/**
+	 * Creates a decider using the control settings in {@link Props}.
+	 *
+	 * @param controlMode	false for identification, where no decisions are made.
+	 * @param plant			The cluster to control.
+	 */
+	public Decider(boolean controlMode, Plant plant) {
+		this.controlMode = controlMode;
+		this.plant = plant;
+
+		// TODO: change normalized setPoint to real setPoint
+		pid = new PIDController(Props.control_inOp, Props.control_outOp, 0, Props.control_kp, Props.control_ki, Props.control_kd);
+		filter = createEstimator();
+		capacity = new CapacityModel(Props.capacity_lambda, RLS_COVARIANCE, Props.capacity_z, Props.control_inOp, Props.capacity_window,
+				Props.control_ffr1, Props.control_ffw1, Props.control_ffr2, Props.control_ffw2);
+
+		inOp = Props.control_inOp;
+		outOp = Props.control_outOp;
+		warmup = Props.control_warmup;
+		dead = Props.control_dead;
+		ffThroughputDelta = Props.control_ff_throughputDelta;
+		z = Props.filter_z;
+
+		model = new RlsModel(Props.control_adaptive_lambda, RLS_COVARIANCE);
+		adaptive = Props.control_adaptive;
+		pole = Props.control_adaptive_pole;
+		ki = Props.control_ki;
+		kd = Props.control_kd;
+
+		if("mpc".equals(Props.control_mode)) {
+			mpc = MPCController.fromProps();
+			if(mpc == null) {
+				log.warn("control.mode=mpc needs the model.* settings. Using PID");
+			}
+		} else {
+			mpc = null;
+		}
+
+		if(Props.forecast_enabled) {
+			forecaster = new Forecaster(Props.forecast_season, Props.forecast_alpha, Props.forecast_beta, Props.forecast_gamma);
+		} else {
+			forecaster = null;
+		}
+		voldMin = Props.voldMin;
+		voldMax = Props.voldMax;
+		voldDeltaMax = Props.voldDeltaMax;
+		leadSteps = Math.max(1, (int)Math.ceil((double)Props.forecast_lead / Props.control_interval));
+		forecast = new double[Props.control_mpc_horizon];
+	}
+
+	/**
+	 * Starts a new step with the measurements of the last period.
+	 *
+	 * @param tps	The throughput per server.
+	 * @param p99R	The p99 of the read latency.
+	 */
+	public void observe(double tps, double p99R) {
+		if(warmup > 0){
+			warmup--;
+		} else if (warmup==0) {
+			warmup--;
+		}
+
+		// calculate a smoothed value of the p99 as well
+		filter.step(p99R);
+		if(mpc != null) {
+			mpc.observe(tps, p99R);
+		}
+
+		if(firstInput) {
+			lastTps = tps;
+			firstInput=false;
+		}
+
+		// the latency while moving data tells nothing about the capacity
+		if(tps > 0 && !plant.isRebalancing()) {
+			model.update(tps, p99R);
+			if(adaptive && model.isValid()) {
+				double kp = (1 - pole) / model.getB();
+				pid.setGains(kp, ki, kd);
+				log.debug("Model p99 = {} + {} * tps. kp = {}", new Object[] {model.getA(), model.getB(), kp});
+			}
+		}
+	}
+
+	/**
+	 * Decides what to do in this step and sets the decision in the sample.
+	 *
+	 * @param timeStep		The step number.
+	 * @param throughput	The total throughput.
+	 * @param tps			The throughput per server.
+	 * @param rtps			The read throughput per server.
+	 * @param mtps			The mixed throughput per server.
+	 * @param spiked		true if the step was started early by a load spike.
+	 * @param sample		Receives the decision.
+	 */
+	public void decide(long timeStep, double throughput, double tps, double rtps, double mtps, boolean spiked, DataRecorder.Sample sample) {
+		double cps = sample.servers > 0 ? (double)sample.clients/sample.servers : 0;	// clients per server
+		if(tps > 0 && sample.servers > 0 && !plant.isRebalancing()) {
+			capacity.update(rtps, mtps, cps, sample.p99R);
+		}
+		if(forecaster != null) {
+			// a spike ends the period early. Counting the short period would move the season
+			// one step ahead of the time of day
+			if(!spiked) {
+				forecaster.update(throughput);
+			}
+			ahead = forecastServers(rtps, mtps, cps);
+		}
+
+		if(warmup == 0) {  // next time the controller will be started!! so initialize;
+			pid.reset();
+			filter.reset();	// to remove any noise in startup
+		}
+
+		if(controlMode && warmup >= 0) {
+			sample.decide(0, "Warmup");
+		} else if(controlMode && warmup < 0) {
+
+			if( !plant.isRebalancing() && (spiked || Math.abs(lastTps-tps)>ffThroughputDelta)) {
+				bigTPChange=true;
+				log.info("Big Throughput Change: {}", lastTps-tps);
+			}
+
+			// 0 - check
+			plant.update();
+			if(plant.isCreateVMs() && !plant.isBooting() && plant.getActiveVoldVMsCount() != plant.getVoldVMsCount()) { // then there is something wrong (e.g., didn't finish removing nodes)
+				log.warn("Vold Count Error!!");	// Should never happen unless someone adds VoldVMs externally
+				pid.reset();
+				filter.reset();
+				sample.decide(3, "RebalanceNotComplete!");
+			}
+			// 1 - add the servers for the forecast peak ahead of time
+			else if(aheadStep() > 0 && !plant.isRebalancing()) {
+				int nn = aheadStep();
+				log.info("Controller: Forecast peak needs {} servers", ahead);
+				pid.reset();
+				filter.reset();
+				sample.decide(5, "Forecast", aheadOutput, nn, nn);
+				plant.scheduleRebalance(nn, true);
+			}
+			// 2 - if in dead zone then do nothing
+			else if(inDeadZone(filter, inOp, dead, z)){
+				log.info("Controller: in dead zone! Do nothing!");
+				pid.reset();
+				filter.reset();
+				sample.decide(0, "DeadZone");
+			}
+			// 3 - Rebalancing. While the new VMs boot the scale-out can still be cancelled
+			else if(plant.isRebalancing()) {
+				int nn = plant.isBooting() ? cancelStep(throughput, rtps, mtps, cps) : 0;
+				if(nn < 0) {
+					log.info("Controller: {} of the booting VMs are not needed", -nn);
+					sample.decide(3, "Cancel", throughput/(plant.getActiveVoldVMsCount()+nn), nn, nn);
+					plant.scheduleRebalance(nn, false);
+				} else {
+					log.info("Controller: Rebalancing! Do nothing!");
+					sample.decide(3, "Rebalancing");
+				}
+			}
+			// 3.5 - if current latency is less than desired and min servers if 3 then do nothing.
+			else if (plant.getActiveVoldVMsCount()<=3 && filter.getValue() <= inOp+dead){ // should never be < 3
+				log.info("Controller: Having min=3 Vold VMs and the response time is OK! Not running controller");
+				pid.reset();
+				filter.reset();
+				sample.decide(0, "MinVMs");
+			}
+			// 4 - MPC
+			else if(mpc != null) {
+				if(mpc.isReady()) {
+					log.info("Controller: Using MPC");
+					int active = plant.getActiveVoldVMsCount();
+					int nn;
+					if(forecaster != null && forecaster.isReady()) {
+						for (int h = 0; h < forecast.length; h++) {
+							forecast[h] = forecaster.forecast(h + 1);
+						}
+						nn = hold(mpc.decide(forecast, active));
+					} else {
+						nn = hold(mpc.decide(throughput, active));
+					}
+					double output = throughput/(active+nn);
+					log.info("Controller: MPC output = {} -> {} servers", output, nn);
+					sample.decide(4, "MPC", output, nn, nn);
+					if(nn != 0) {
+						plant.scheduleRebalance(nn, true);
+					}
+				} else {
+					sample.decide(0, "MPCNotReady");
+				}
+			} // 4 -
+			else {
+				boolean usePID=true, ffFail=false;
+
+				if (timeStep>nextFF && (  bigTPChange ||  (filter.getValue()>(inOp + (inOp*0.5)) || filter.getValue()<(inOp - (inOp*0.5)))    ) /*Big change in load use ff*/){
+					usePID=false;
+					bigTPChange=false;
+					//	use the capacity model
+					nextFF = timeStep+4;	// TODO: Fix nextFF
+					log.info("Controller: Using FF");
+					double output= capacity.estimate(rtps, mtps, cps);
+					// calculate number of servers needed to handle current throughput
+					double n = (throughput/output) - plant.getActiveVoldVMsCount();
+
+					// TODO: Now I get ceil. Check if there is a better solution
+					int nn=(int)Math.ceil(n);
+
+					log.info("Controller: FF output = {} that is {} -> {} servers", new Object[] {output, n, nn});
+					if(capacity.isLearned()) {
+						log.info("Controller: capacity {} in [{}, {}]", new Object[] {capacity.getEstimate(), capacity.getLower(), capacity.getUpper()});
+					}
+
+					if(output <= 0 || (!capacity.isLearned() &&
+							((filter.getValue()>(inOp+inOp*0.5) && nn<3) || (filter.getValue()<(inOp-inOp*0.5) && nn>-3)))) {
+						// Very large error & add/rem few VMs! Must be outside of op region
+						// Fall back to FB
+						usePID=true;
+						ffFail=true;
+					} else {
+						nn = hold(nn);
+						sample.decide(2, "FF", output, n, nn);
+						pid.reset();
+						filter.reset();
+						if(nn > 0 || (nn < 0 && plant.getActiveVoldVMsCount() > 3)) {
+							plant.scheduleRebalance(nn,false);
+						}
+					}
+				}
+				if(usePID){ // 4 - use PID
+					log.info("Controller: Using FB");
+					double delta = pid.step(filter.getValue());  // pid gives throughput per server
+
+					double output = tps+delta;	// this is the new throughput per server
+					if(output < 50) {
+						output=50;
+						log.warn("WARNING!!! pid gave negative/small output!!");
+					}
+
+					// calculate number of servers needed to handle new throughput
+					double n = (throughput/output) - plant.getActiveVoldVMsCount();
+
+					// TODO: Now I ceil. Check if there is a better solution
+					int nn=hold((int)Math.ceil(n));
+
+					log.info("Controller: PID output = {} that is {} -> {} servers", new Object[] {output, n, nn});
+
+					sample.decide(1, "FB", output, n, nn);
+					sample.ffFail = ffFail;
+					if(nn > 0 || (nn < 0 && plant.getActiveVoldVMsCount() > 3)) {
+						plant.scheduleRebalance(nn,true);
+					}
+				}
+			}
+		}
+
+		lastTps = tps;
+	}
+
+	/**
+	 * Checks if the VMs of a scale-out that are still booting are needed, using the MPC or,
+	 * once learned, the capacity model. The feedback controller is not used, as the p99
+	 * does not show the new VMs yet. Changes no state of the controllers.
+	 *
+	 * @return	The number of VMs to cancel as a negative step, or 0 to go on.
+	 */
+	private int cancelStep(double throughput, double rtps, double mtps, double cps) {
+		int active = plant.getActiveVoldVMsCount();
+		if(mpc != null) {	// its cost already weighs the predicted p99
+			return mpc.isReady() ? Math.min(0, hold(mpc.decide(throughput, active))) : 0;
+		}
+		if(!capacity.isLearned() || filter.getValue() > inOp + dead) {
+			return 0;
+		}
+		double output = capacity.estimate(rtps, mtps, cps);
+		if(output <= 0) {
+			return 0;
+		}
+		return Math.min(0, hold((int)Math.ceil(throughput/output) - active));
+	}
+
+	/**
+	 * @return	The estimator of the p99 chosen by filter.type.
+	 */
+	static Estimator createEstimator() {
+		if("kalman".equals(Props.filter_type)) {
+			return new KalmanEstimator(Props.filter_kalman_noise, Props.filter_kalman_process);
+		}
+		return new Filter(Props.filter_alpha);
+	}
+
+	/**
+	 * @return	true if the estimate is in the dead zone or within z standard deviations
+	 * 			of it.
+	 */
+	static boolean inDeadZone(Estimator filter, double inOp, double dead, double z) {
+		double margin = z * filter.getStdDev();
+		return inOp-2*dead-margin <= filter.getValue() && filter.getValue() <= inOp+dead+margin;
+	}
+
+	/**
+	 * @return	The number of servers needed for the peak forecast within the lead time at
+	 * 			the lower bound of the capacity per server for the current workload, or 0
+	 * 			if there is no forecast yet.
+	 */
+	private int forecastServers(double rtps, double mtps, double cps) {
+		if(!forecaster.isReady() || rtps + mtps <= 0) {
+			return 0;
+		}
+		capacity.estimate(rtps, mtps, cps);
+		aheadOutput = capacity.getLower();
+		if(aheadOutput <= 0) {
+			return 0;
+		}
+		return Math.min(voldMax, (int)Math.ceil(forecaster.peak(leadSteps + 1) / aheadOutput));
+	}
+
+	/**
+	 * @return	The number of servers to add now for the forecast peak, within the size
+	 * 			limits of the store. 0 if none.
+	 */
+	private int aheadStep() {
+		int active = plant.getActiveVoldVMsCount();
+		if(ahead <= active) {
+			return 0;
+		}
+		return Math.max(0, Actuator.bound(active, ahead - active, true, voldMin, voldMax, voldDeltaMax));
+	}
+
+	/**
+	 * @param nn	The number of servers to add or remove.
+	 * @return	nn, but never removing the servers needed for the forecast peak.
+	 */
+	private int hold(int nn) {
+		if(nn < 0 && ahead > 0) {
+			return Math.max(nn, Math.min(0, ahead - plant.getActiveVoldVMsCount()));
+		}
+		return nn;
+	}
+
+	/**
+	 * @return true if the warmup is over and decisions are being made.
+	 */
+	public boolean isActive() {
+		return controlMode && warmup < 0;
+	}
+
+	/**
+	 * @return The smoothed p99 of the read latency.
+	 */
+	public double getFilteredP99() {
+		return filter.getValue();
+	}
+
+	/**
+	 * @return The standard deviation of the smoothed p99, 0 for the {@link Filter}.
+	 */
+	public double getP99StdDev() {
+		return filter.getStdDev();
+	}
+
+	public double getInOp() {
+		return inOp;
+	}
+
+	/**
+	 * @return The output operating point, control.outOp.
+	 */
+	public double getOutOp() {
+		return outOp;
+	}
+
+	/**
+	 * @return The capacity model of the FF controller.
+	 */
+	public CapacityModel getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return The online model of the p99 latency.
+	 */
+	public RlsModel getModel() {
+		return model;
+	}
+
+}
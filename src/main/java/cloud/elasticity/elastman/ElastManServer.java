@@ -20,8 +20,9 @@
 package cloud.elasticity.elastman;
 
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 
 /**
  * A server that listens for connections form ElastMan sensors.
@@ -52,15 +53,25 @@ public class ElastManServer extends Thread {
 	// run controller every x seconds
 	int control_interval = 300;
 	private Cluster cluster;
+	private Sensor handler;
+	private Sensor.Decisions decisions;	// null unless shared with other clusters
 	
 	public ElastManServer(boolean controlMode, Cluster cluster) { //if controlMode=false will do identification
-		this.controlMode = controlMode;
-		this.cluster = cluster;
+		this(controlMode, cluster, null);
 	}
 	
-	@Override
-	public void run() {
-
+	/**
+	 * Creates a server with the settings in {@link Props}. They are read here, not when the
+	 * server runs, so the servers of many clusters can be created one after the other.
+	 * 
+	 * @param controlMode	false for identification.
+	 * @param cluster		The cluster.
+	 * @param decisions		The decision stage shared with other clusters, or null.
+	 */
+	public ElastManServer(boolean controlMode, Cluster cluster, Sensor.Decisions decisions) {
+		this.controlMode = controlMode;
+		this.cluster = cluster;
+		this.decisions = decisions;
 		
 		// FIXME: change to setters and getters
 		server_port = Props.server_port;
@@ -74,12 +85,20 @@ public class ElastManServer extends Thread {
 
 		control_interval = Props.control_interval;
 		
-			
-		
+		if(controlMode) {
+			handler = new Sensor(control_interval, controlMode, cluster, decisions); // get data every x min
+		} else {
+			handler = new Sensor(ident_sampling, controlMode, cluster, decisions); // get data every x min
+		}
+	}
+	
+	@Override
+	public void run() {
 		
-		ServerSocket serverSocket = null;
+		ServerSocketChannel serverSocket = null;
 		try {
-			serverSocket = new ServerSocket(server_port);
+			serverSocket = ServerSocketChannel.open();
+			serverSocket.socket().bind(new InetSocketAddress(server_port));
 		} catch (IOException e) {
 			System.err.println("Could not listen on port: " + server_port);
 			System.exit(1);
@@ -87,15 +106,12 @@ public class ElastManServer extends Thread {
 		
 		
 		
-		Sensor handler;
 		if(!controlMode) { // start workload gen as well
-			handler = new Sensor(ident_sampling, controlMode, cluster); // get data every x min
 			if(!ident_client_manual) {
 				IdentWorkLoad work = new IdentWorkLoad(handler,ident_client_min, ident_client_max, ident_client_delta, ident_period, ident_client_delay, cluster); // add/rem every y > x min
 				work.start();
 			}
 		} else {
-			handler = new Sensor(control_interval, controlMode, cluster); // get data every x min
 			new ControlWorkLoad(handler, cluster).start();
 		}
 		
@@ -103,7 +119,7 @@ public class ElastManServer extends Thread {
 		while(handler.identifying) {  // FIXME: this will not stop the ".accept()"
 
 			try {
-				Socket clientSocket = serverSocket.accept();
+				SocketChannel clientSocket = serverSocket.accept();
 				handler.addClient(clientSocket);
 				if(first) {
 					first=false;
@@ -0,0 +1,62 @@
+/*
+ * This file is part of the ElastMan Elasticity Manager
+ * 
+ * Copyright (C) 2013 Ahmad Al-Shishtawy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cloud.elasticity.elastman;
+
+/**
+ * Estimates the true p99 latency from the noisy measurements of each period.
+ * <p>
+ * {@link Filter} is the moving average used since the first experiments. It gives no trend
+ * or uncertainty. {@link KalmanEstimator} also tracks the trend and the standard deviation
+ * of its estimate. The {@link Decider} picks one with filter.type.
+ *
+ * @author Ahmad Al-Shishtawy <ahmadas@kth.se>
+ *
+ */
+public interface Estimator {
+
+	/**
+	 * Adds a measurement.
+	 *
+	 * @param input	The measured value.
+	 * @return	The new estimate.
+	 */
+	public double step(double input);
+
+	/**
+	 * Forgets the history, so the next measurements count more.
+	 */
+	public void reset();
+
+	/**
+	 * @return	The current estimate.
+	 */
+	public double getValue();
+
+	/**
+	 * @return	The estimated change per step, or 0 if not tracked.
+	 */
+	public double getTrend();
+
+	/**
+	 * @return	The standard deviation of the estimate, or 0 if not tracked.
+	 */
+	public double getStdDev();
+
+}
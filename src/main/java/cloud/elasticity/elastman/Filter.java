@@ -23,12 +23,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * A smoothing (moving average) filter.
+ * A smoothing (moving average) filter. It tracks no trend or uncertainty.
  * 
  * @author Ahmad Al-Shishtawy <ahmadas@kth.se>
  *
  */
-public class Filter {
+public class Filter implements Estimator {
 	static Logger log = LoggerFactory.getLogger(Filter.class);
 
 	private boolean firstInput;
@@ -101,6 +101,20 @@ public class Filter {
 		lastFilter = f;
 		return f; 
 	}
+
+	/**
+	 * @return 0 as the trend is not tracked.
+	 */
+	public double getTrend() {
+		return 0;
+	}
+
+	/**
+	 * @return 0 as the uncertainty is not tracked.
+	 */
+	public double getStdDev() {
+		return 0;
+	}
 	
 }
 
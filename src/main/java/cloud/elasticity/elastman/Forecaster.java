@@ -0,0 +1,121 @@
+/*
+ * This file is part of the ElastMan Elasticity Manager
+ *
+ * Copyright (C) 2013 Ahmad Al-Shishtawy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cloud.elasticity.elastman;
+
+/**
+ * Forecasts the total throughput with additive Holt-Winters (triple exponential) smoothing:
+ * a level, a trend and one seasonal offset per step of the season, e.g., the day. It is
+ * updated once per control step and keeps its state in primitive arrays.
+ * <p>
+ * The first season is only recorded. At its end the level is the mean of the season and
+ * the seasonal offsets are the differences from it. After that each step updates
+ * <pre>
+ * level  = alpha*(x - season[i]) + (1-alpha)*(level + trend)
+ * trend  = beta*(level - lastLevel) + (1-beta)*trend
+ * season[i] = gamma*(x - level) + (1-gamma)*season[i]
+ * </pre>
+ * and the forecast h steps ahead is level + h*trend + season[i+h].
+ *
+ * @author Ahmad Al-Shishtawy <ahmadas@kth.se>
+ *
+ */
+public class Forecaster {
+
+	private final int period;
+	private final double alpha, beta, gamma;
+	private final double[] season;
+	private double level = 0, trend = 0;
+	private long count = 0;
+
+	/**
+	 * @param period	The number of steps in a season.
+	 * @param alpha		The smoothing of the level.
+	 * @param beta		The smoothing of the trend.
+	 * @param gamma		The smoothing of the seasonal offsets.
+	 */
+	public Forecaster(int period, double alpha, double beta, double gamma) {
+		if(period < 1) {
+			throw new IllegalArgumentException("The period must be at least one step");
+		}
+		this.period = period;
+		this.alpha = alpha;
+		this.beta = beta;
+		this.gamma = gamma;
+		season = new double[period];
+	}
+
+	/**
+	 * Adds the throughput of the last step.
+	 */
+	public void update(double x) {
+		int i = (int)(count % period);
+		if(count < period) {
+			season[i] = x;
+			level += x / period;
+			if(i == period - 1) {
+				for (int j = 0; j < period; j++) {
+					season[j] -= level;
+				}
+			}
+		} else {
+			double last = level;
+			level = alpha*(x - season[i]) + (1 - alpha)*(level + trend);
+			trend = beta*(level - last) + (1 - beta)*trend;
+			season[i] = gamma*(x - level) + (1 - gamma)*season[i];
+		}
+		count++;
+	}
+
+	/**
+	 * @return	true after a full season was observed.
+	 */
+	public boolean isReady() {
+		return count >= period;
+	}
+
+	/**
+	 * @param h	The number of steps ahead, at least 1.
+	 * @return	The forecast throughput of that step. Never negative.
+	 */
+	public double forecast(int h) {
+		return Math.max(0, level + h*trend + season[(int)((count + h - 1) % period)]);
+	}
+
+	/**
+	 * @param steps	The number of steps ahead.
+	 * @return	The highest forecast of the next steps.
+	 */
+	public double peak(int steps) {
+		double max = 0;
+		for (int h = 1; h <= steps; h++) {
+			max = Math.max(max, forecast(h));
+		}
+		return max;
+	}
+
+	public double getLevel() {
+		return level;
+	}
+
+	public double getTrend() {
+		return trend;
+	}
+
+}
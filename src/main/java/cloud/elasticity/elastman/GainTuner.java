@@ -0,0 +1,405 @@
+/*
+ * This file is part of the ElastMan Elasticity Manager
+ *
+ * Copyright (C) 2013 Ahmad Al-Shishtawy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cloud.elasticity.elastman;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+/**
+ * Searches PID gains by simulating the feedback loop against the identified
+ * {@link PlantModel} (the model.* settings written by {@link ModelFitter}).
+ * <p>
+ * A simulation runs a {@link PIDController} and an {@link Estimator} as the {@link Decider}
+ * does in feedback mode: warmup, dead zone, min VMs and the wait while the cluster is
+ * resized, with changes bounded by {@link Actuator#bound(int, int, boolean, int, int, int)}.
+ * A resize takes a number of control steps, during which the old number of VMs serves
+ * and the new VMs are paid for. The workload is the {@link ControlWorkLoad} scenario or
+ * the throughput of a recorded trace. All simulations see the same latency noise.
+ * <p>
+ * Each simulation is scored by its SLA violations (steps with p99 above control.inOp) and
+ * VM-minutes. The grid of gains is spread over all cores and the Pareto-optimal gains are
+ * printed, with the knee of the front as the suggested control.kp/ki/kd.
+ *
+ * @author Ahmad Al-Shishtawy <ahmadas@kth.se>
+ *
+ */
+public class GainTuner {
+
+	private final PlantModel model;
+	private final double[] load;	// total throughput of each step
+	private final double stepMinutes;
+	private final int resizeSteps;
+	private final int initialVMs;
+	private final double noise;
+	private final long seed;
+
+	/**
+	 * The score of one set of gains.
+	 */
+	public static class Result {
+		public final double kp, ki, kd;
+		public final int violations;
+		public final double vmMinutes;
+
+		Result(double kp, double ki, double kd, int violations, double vmMinutes) {
+			this.kp = kp;
+			this.ki = ki;
+			this.kd = kd;
+			this.violations = violations;
+			this.vmMinutes = vmMinutes;
+		}
+	}
+
+	/**
+	 * @param model			The plant.
+	 * @param load			The total throughput of each control step.
+	 * @param stepMinutes	The length of a control step.
+	 * @param resizeSteps	The steps it takes to add or remove VMs.
+	 * @param initialVMs	The number of VMs at the start.
+	 * @param noise			The standard deviation of the latency noise in ns.
+	 * @param seed			The seed of the noise.
+	 */
+	public GainTuner(PlantModel model, double[] load, double stepMinutes, int resizeSteps, int initialVMs,
+			double noise, long seed) {
+		this.model = model;
+		this.load = load;
+		this.stepMinutes = stepMinutes;
+		this.resizeSteps = resizeSteps;
+		this.initialVMs = initialVMs;
+		this.noise = noise;
+		this.seed = seed;
+	}
+
+	/**
+	 * Runs the closed loop with one set of gains using the control settings in {@link Props}.
+	 */
+	public Result simulate(double kp, double ki, double kd) {
+		final double inOp = Props.control_inOp;
+		final double dead = Props.control_dead;
+		Random random = new Random(seed);
+		PIDController pid = new PIDController(inOp, 0, 0, kp, ki, kd);
+		pid.setWarnings(false);
+		Estimator filter = Decider.createEstimator();
+
+		int lag = model.getLag();
+		double[] y = new double[load.length + lag];
+		double[] u = new double[load.length + lag];
+		int vms = initialVMs, target = initialVMs;
+		for (int i = 0; i < lag; i++) {	// start in steady state
+			u[i] = load[0] / vms;
+			y[i] = model.steadyState(u[i]);
+		}
+
+		int warmup = Props.control_warmup;
+		int busy = 0;
+		int violations = 0;
+		double vmMinutes = 0;
+		for (int k = 0; k < load.length; k++) {
+			int i = k + lag;
+			if(busy > 0 && --busy == 0) {
+				vms = target;
+			}
+			u[i] = load[k] / vms;
+			y[i] = model.predict(y, u, i) + random.nextGaussian()*noise;
+			double p99 = Math.max(y[i], 0);
+			if(p99 > inOp) {
+				violations++;
+			}
+			vmMinutes += Math.max(vms, target) * stepMinutes;
+
+			filter.step(p99);
+			if(warmup > 0) {
+				if(--warmup == 0) {
+					pid.reset();
+					filter.reset();
+				}
+				continue;
+			}
+			if(busy > 0) {
+				continue;	// rebalancing
+			}
+			double f = filter.getValue();
+			if(Decider.inDeadZone(filter, inOp, dead, Props.filter_z) || (vms <= Props.voldMin && f <= inOp+dead)) {
+				pid.reset();
+				filter.reset();
+				continue;
+			}
+			double output = u[i] + pid.step(f);
+			if(output < 50) {
+				output = 50;
+			}
+			int nn = (int)Math.ceil(load[k]/output - vms);
+			if(nn > 0 || (nn < 0 && vms > Props.voldMin)) {
+				int d = Actuator.bound(vms, nn, true, Props.voldMin, Props.voldMax, Props.voldDeltaMax);
+				if((nn > 0 && d > 0) || (nn < 0 && d < 0)) {
+					target = vms + d;
+					busy = resizeSteps;
+					if(busy == 0) {
+						vms = target;
+					}
+				}
+			}
+		}
+		return new Result(kp, ki, kd, violations, vmMinutes);
+	}
+
+	/**
+	 * Simulates all combinations of gains in parallel.
+	 *
+	 * @return	The results in the order of the grid.
+	 */
+	public List<Result> search(final double[] kps, final double[] kis, final double[] kds, ForkJoinPool pool) {
+		ArrayList<Callable<Result[]>> tasks = new ArrayList<Callable<Result[]>>();
+		for (int i = 0; i < kps.length; i++) {
+			for (int j = 0; j < kis.length; j++) {
+				final double kp = kps[i], ki = kis[j];
+				tasks.add(new Callable<Result[]>() {
+					public Result[] call() {
+						Result[] r = new Result[kds.length];
+						for (int l = 0; l < kds.length; l++) {
+							r[l] = simulate(kp, ki, kds[l]);
+						}
+						return r;
+					}
+				});
+			}
+		}
+		ArrayList<Result> results = new ArrayList<Result>();
+		try {
+			for (Future<Result[]> f : pool.invokeAll(tasks)) {
+				Collections.addAll(results, f.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		}
+		return results;
+	}
+
+	/**
+	 * @param results	Scored gains.
+	 * @return	The results that no other result beats on both violations and VM-minutes,
+	 * 			fewest violations first.
+	 */
+	public static List<Result> pareto(List<Result> results) {
+		ArrayList<Result> sorted = new ArrayList<Result>(results);
+		Collections.sort(sorted, new Comparator<Result>() {
+			public int compare(Result r1, Result r2) {
+				if(r1.violations != r2.violations) {
+					return r1.violations < r2.violations ? -1 : 1;
+				}
+				return Double.compare(r1.vmMinutes, r2.vmMinutes);
+			}
+		});
+		ArrayList<Result> front = new ArrayList<Result>();
+		double best = Double.POSITIVE_INFINITY;
+		for (Result r : sorted) {
+			if(r.vmMinutes < best) {
+				front.add(r);
+				best = r.vmMinutes;
+			}
+		}
+		return front;
+	}
+
+	/**
+	 * @param front	A Pareto front, fewest violations first.
+	 * @return	The result closest to the ideal point when both scores are scaled to [0, 1].
+	 */
+	public static Result knee(List<Result> front) {
+		Result first = front.get(0), last = front.get(front.size() - 1);
+		double dv = Math.max(last.violations - first.violations, 1);
+		double dm = Math.max(first.vmMinutes - last.vmMinutes, 1e-9);
+		Result knee = first;
+		double min = Double.POSITIVE_INFINITY;
+		for (Result r : front) {
+			double x = (r.violations - first.violations) / dv;
+			double z = (r.vmMinutes - last.vmMinutes) / dm;
+			if(x*x + z*z < min) {
+				min = x*x + z*z;
+				knee = r;
+			}
+		}
+		return knee;
+	}
+
+	/**
+	 * @return	n log-spaced values from 'from' to 'to', preceded by 0 if zero is true.
+	 */
+	static double[] grid(double from, double to, int n, boolean zero) {
+		int o = zero ? 1 : 0;
+		double[] g = new double[n + o];
+		for (int i = 0; i < n; i++) {
+			g[o + i] = n == 1 ? from : from * Math.pow(to/from, (double)i/(n - 1));
+		}
+		return g;
+	}
+
+	/**
+	 * @param clientOps		The ops/sec of a YCSB client.
+	 * @param stepSec		The length of a control step.
+	 * @param tailSec		How long to run after the last change.
+	 * @return	The total throughput of each step of the {@link ControlWorkLoad} scenario.
+	 */
+	static double[] scenario(double clientOps, long stepSec, long tailSec) {
+		List<ControlWorkLoad.work> work = ControlWorkLoad.scenario();
+		long end = tailSec * 1000;
+		for (ControlWorkLoad.work w : work) {
+			end += w.getDelayMs();
+		}
+		double[] load = new double[(int)(end / (stepSec*1000))];
+		for (int k = 0; k < load.length; k++) {
+			long t = k * stepSec * 1000;
+			long at = 0;
+			int clients = 0;
+			for (ControlWorkLoad.work w : work) {
+				at += w.getDelayMs();
+				if(at > t) {
+					break;
+				}
+				clients = w.getVms();
+			}
+			load[k] = clients * clientOps;
+		}
+		return load;
+	}
+
+	/**
+	 * Tunes the gains and prints the Pareto-optimal ones.
+	 *
+	 * @param args	See the help (-h).
+	 */
+	public static void main(String[] args) {
+		Options options = new Options();
+		options.addOption("o", "options", true, "Configuration file with the model.* and control settings. Default control.prop");
+		options.addOption("w", "write", true, "Write the results to this file instead of the console");
+		options.addOption("t", "trace", true, "Use the throughput of a recorded trace instead of the ControlWorkLoad scenario");
+		options.addOption("r", "resize", true, "Control steps a resize takes. Default 2");
+		options.addOption("n", "nodes", true, "Initial number of VMs. Default enough for control.inOp");
+		options.addOption("s", "noise", true, "Standard deviation of the latency noise in ns. Default 5% of control.inOp");
+		options.addOption("g", "grid", true, "Number of kp values. ki and kd get half as many. Default 20");
+		options.addOption("h", "help", false, "Print this help");
+
+		CommandLineParser parser = new GnuParser();
+		CommandLine cmd = null;
+		try {
+			cmd = parser.parse(options, args);
+		} catch (ParseException e) {
+			System.out.println(e.getMessage());
+			cmd = null;
+		}
+		if(cmd == null || cmd.hasOption("h") || cmd.getArgs().length != 0) {
+			HelpFormatter formatter = new HelpFormatter();
+			formatter.printHelp( "GainTuner [options]" , options);
+			System.exit(cmd == null ? 1 : 0);
+		}
+
+		Props.load(cmd.getOptionValue("o", "control.prop"), cmd);
+		PlantModel model = PlantModel.fromProps();
+		if(model == null) {
+			System.err.println("No model.* settings. Fit a model with ModelFitter first");
+			System.exit(1);
+		}
+
+		try {
+			double[] load;
+			if(cmd.hasOption("t")) {
+				List<DataRecorder.Sample> trace = TraceReplay.read(cmd.getOptionValue("t"));
+				load = new double[trace.size()];
+				for (int k = 0; k < load.length; k++) {
+					load[k] = trace.get(k).throughput;
+				}
+			} else {
+				load = scenario(Props.sim_client_ops, Props.control_interval, 3600);
+			}
+			if(load.length == 0) {
+				System.err.println("The workload is empty");
+				System.exit(1);
+			}
+			int nodes;
+			if(cmd.hasOption("n")) {
+				nodes = Integer.parseInt(cmd.getOptionValue("n"));
+			} else {
+				nodes = (int)Math.ceil(load[0] / model.inverse(Props.control_inOp));
+				nodes = Math.min(Math.max(nodes, Props.voldMin), Props.voldMax);
+			}
+			double noise = cmd.hasOption("s") ? Double.parseDouble(cmd.getOptionValue("s")) : 0.05*Props.control_inOp;
+			int resize = Integer.parseInt(cmd.getOptionValue("r", "2"));
+			int g = Integer.parseInt(cmd.getOptionValue("g", "20"));
+
+			// around the gain that removes the static error in one step
+			double k0 = 1 / model.getStaticGain();
+			double[] kps = grid(0.02*k0, 2*k0, g, false);
+			double[] kis = grid(0.005*k0, 0.5*k0, Math.max(g/2 - 1, 1), true);
+			double[] kds = grid(0.01*k0, k0, Math.max(g/2 - 1, 1), true);
+
+			long start = System.nanoTime();
+			GainTuner tuner = new GainTuner(model, load, Props.control_interval/60.0, resize, nodes, noise, Props.sim_seed);
+			ForkJoinPool pool = new ForkJoinPool();
+			List<Result> results = tuner.search(kps, kis, kds, pool);
+			pool.shutdown();
+			long ms = (System.nanoTime() - start) / 1000000;
+
+			List<Result> front = pareto(results);
+			Result knee = knee(front);
+			Writer out;
+			if(cmd.hasOption("w")) {
+				out = new BufferedWriter(new FileWriter(cmd.getOptionValue("w")));
+			} else {
+				out = new BufferedWriter(new OutputStreamWriter(System.out));
+			}
+			out.write("# " + results.size() + " simulations of " + load.length + " steps on " + pool.getParallelism()
+					+ " threads in " + ms + " ms. Model " + model + ", " + nodes + " initial VMs\n");
+			out.write("# Pareto-optimal gains:\n# violations\tVM-minutes\tkp\tki\tkd\n");
+			for (Result r : front) {
+				out.write("# " + r.violations + "\t" + Math.round(r.vmMinutes) + "\t" + r.kp + "\t" + r.ki + "\t" + r.kd + "\n");
+			}
+			out.write("# The knee of the front: " + knee.violations + " violations, " + Math.round(knee.vmMinutes) + " VM-minutes\n");
+			out.write("control.kp=" + knee.kp + "\n");
+			out.write("control.ki=" + knee.ki + "\n");
+			out.write("control.kd=" + knee.kd + "\n");
+			out.close();
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+	}
+
+}
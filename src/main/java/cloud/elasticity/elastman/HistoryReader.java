@@ -0,0 +1,319 @@
+/*
+ * This file is part of the ElastMan Elasticity Manager
+ *
+ * Copyright (C) 2013 Ahmad Al-Shishtawy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cloud.elasticity.elastman;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+
+/**
+ * Reads a history file written by {@link HistoryWriter}.
+ * <p>
+ * The whole file is memory-mapped read-only and the values are read in place, so scanning
+ * a column of weeks of history touches only the pages of that column. Rows are numbered
+ * from 0 across all blocks. If the file has no footer index (it was not closed) the
+ * blocks are found by walking them from the start.
+ * <p>
+ * The main method converts a history file to the tab separated format of control.dat.
+ *
+ * @author Ahmad Al-Shishtawy <ahmadas@kth.se>
+ *
+ */
+public class HistoryReader {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final MappedByteBuffer map;
+	private final int blockRows;
+	private final int[] offsets;
+	private final ArrayList<String> dictionary = new ArrayList<String>();
+	private final long[] blockOffsets;
+	private final int[] blockRowCounts;
+	private final int rowCount;
+
+	/**
+	 * Opens and maps a history file.
+	 *
+	 * @param filename	The file name.
+	 * @throws IOException if the file can not be read or is not a history file.
+	 */
+	public HistoryReader(String filename) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(filename, "r");
+		try {
+			map = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+		} finally {
+			file.close();	// the mapping stays valid
+		}
+		if(map.limit() < HistoryWriter.HEADER_SIZE || map.getInt(0) != HistoryWriter.MAGIC) {
+			throw new IOException(filename + " is not a history file");
+		}
+		if(map.getShort(4) != HistoryWriter.VERSION) {
+			throw new IOException("Unknown history version " + map.getShort(4));
+		}
+		int columns = map.getShort(6);
+		if(columns != HistoryWriter.TYPES.length) {
+			throw new IOException("Expected " + HistoryWriter.TYPES.length + " columns but found " + columns);
+		}
+		for (int i = 0; i < columns; i++) {
+			if(map.get(12 + i) != HistoryWriter.TYPES[i]) {
+				throw new IOException("Unexpected type of column " + HistoryWriter.NAMES[i]);
+			}
+		}
+		blockRows = map.getInt(8);
+		offsets = HistoryWriter.columnOffsets(blockRows);
+
+		// decision names
+		int p = 12 + columns;
+		int names = map.getInt(p);
+		p += 4;
+		for (int i = 0; i < names; i++) {
+			byte[] b = new byte[map.getShort(p)];
+			for (int j = 0; j < b.length; j++) {
+				b[j] = map.get(p + 2 + j);
+			}
+			dictionary.add(new String(b, UTF8));
+			p += 2 + b.length;
+		}
+
+		// blocks
+		ArrayList<long[]> blocks = new ArrayList<long[]>();
+		int limit = map.limit();
+		if(limit >= 12 && map.getInt(limit - 4) == HistoryWriter.INDEX_MAGIC) {
+			int q = (int)map.getLong(limit - 12);
+			int n = map.getInt(q);
+			q += 4;
+			for (int i = 0; i < n; i++, q += 28) {
+				blocks.add(new long[] {map.getLong(q), map.getInt(q + 8)});
+			}
+		} else {
+			// not closed. Walk the blocks
+			long o = HistoryWriter.HEADER_SIZE;
+			int size = offsets[columns];
+			while(o + size <= limit && map.getInt((int)o) == HistoryWriter.BLOCK_MAGIC) {
+				int rows = map.getInt((int)o + 4);
+				if(rows == 0) {
+					break;
+				}
+				blocks.add(new long[] {o, rows});
+				o += size;
+			}
+		}
+		blockOffsets = new long[blocks.size()];
+		blockRowCounts = new int[blocks.size()];
+		int total = 0;
+		for (int i = 0; i < blocks.size(); i++) {
+			blockOffsets[i] = blocks.get(i)[0];
+			blockRowCounts[i] = (int)blocks.get(i)[1];
+			total += blockRowCounts[i];
+		}
+		rowCount = total;
+	}
+
+	/**
+	 * @return The number of rows in the file.
+	 */
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	/**
+	 * @param name	A column name as in the TSV header, e.g., "p99R".
+	 * @return	The column number or -1 if there is no such column.
+	 */
+	public static int getColumn(String name) {
+		for (int i = 0; i < HistoryWriter.NAMES.length; i++) {
+			if(HistoryWriter.NAMES[i].equals(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	// all blocks but the last are full
+	private int position(int col, int row) {
+		int b = row / blockRows;
+		int r = row - b*blockRows;
+		return (int)blockOffsets[b] + offsets[col] + HistoryWriter.width(HistoryWriter.TYPES[col])*r;
+	}
+
+	/**
+	 * Reads a value of any numeric column.
+	 *
+	 * @param col	The column number.
+	 * @param row	The row number.
+	 * @return	The value as a double.
+	 */
+	public double getDouble(int col, int row) {
+		int p = position(col, row);
+		switch (HistoryWriter.TYPES[col]) {
+		case HistoryWriter.DOUBLE:
+			return map.getDouble(p);
+		case HistoryWriter.LONG:
+			return map.getLong(p);
+		case HistoryWriter.INT:
+			return map.getInt(p);
+		default:
+			return map.get(p) & 0xFF;
+		}
+	}
+
+	/**
+	 * Reads a value of a long or int column.
+	 *
+	 * @param col	The column number.
+	 * @param row	The row number.
+	 * @return	The value.
+	 */
+	public long getLong(int col, int row) {
+		int p = position(col, row);
+		switch (HistoryWriter.TYPES[col]) {
+		case HistoryWriter.LONG:
+			return map.getLong(p);
+		case HistoryWriter.INT:
+			return map.getInt(p);
+		case HistoryWriter.BYTE:
+			return map.get(p) & 0xFF;
+		default:
+			return (long)map.getDouble(p);
+		}
+	}
+
+	/**
+	 * @param row	The row number.
+	 * @return	The name of the decision taken in the row.
+	 */
+	public String getLog(int row) {
+		int c = map.get(position(HistoryWriter.COL_LOG, row)) & 0xFF;
+		return c < dictionary.size() ? dictionary.get(c) : "?";
+	}
+
+	/**
+	 * Finds the first row of a step using the step range of the blocks.
+	 *
+	 * @param step	The step (the T column).
+	 * @return	The row number or -1 if the step is not in the file.
+	 */
+	public int findStep(long step) {
+		int base = 0;
+		for (int b = 0; b < blockOffsets.length; b++) {
+			int o = (int)blockOffsets[b];
+			if(step >= map.getLong(o + 8) && step <= map.getLong(o + 16)) {
+				for (int r = 0; r < blockRowCounts[b]; r++) {
+					if(map.getLong(o + offsets[0] + 8*r) == step) {
+						return base + r;
+					}
+				}
+			}
+			base += blockRowCounts[b];
+		}
+		return -1;
+	}
+
+	/**
+	 * Reads a whole row.
+	 *
+	 * @param row	The row number.
+	 * @param s		Receives the row.
+	 * @return	s
+	 */
+	public DataRecorder.Sample get(int row, DataRecorder.Sample s) {
+		s.step = getLong(0, row);
+		s.periodSec = getDouble(1, row);
+		s.clients = (int)getLong(2, row);
+		s.servers = (int)getLong(3, row);
+		s.totalOps = getDouble(4, row);
+		s.throughput = getLong(5, row);
+		s.tps = getLong(6, row);
+		s.rtps = getLong(7, row);
+		s.meanR = getLong(8, row);
+		s.stddevR = getLong(9, row);
+		s.minR = getLong(10, row);
+		s.p95R = getLong(11, row);
+		s.p99R = getLong(12, row);
+		s.fp99R = getLong(13, row);
+		s.maxR = getLong(14, row);
+		s.mtps = getLong(15, row);
+		s.meanM = getLong(16, row);
+		s.stddevM = getLong(17, row);
+		s.minM = getLong(18, row);
+		s.p95M = getLong(19, row);
+		s.p99M = getLong(20, row);
+		s.maxM = getLong(21, row);
+		s.ntp = getLong(22, row);
+		s.nfp99 = getLong(23, row);
+		int flags = (int)getLong(HistoryWriter.COL_FLAGS, row);
+		if((flags & HistoryWriter.FLAG_ACTION) != 0) {
+			s.decide((int)getLong(24, row), getLog(row), getDouble(26, row), getDouble(27, row), (int)getLong(28, row));
+		} else {
+			s.decide((int)getLong(24, row), getLog(row));
+		}
+		s.ffFail = (flags & HistoryWriter.FLAG_FFFAIL) != 0;
+		return s;
+	}
+
+	/**
+	 * Writes all rows in the tab separated format of control.dat.
+	 *
+	 * @param out	The output.
+	 * @throws IOException
+	 */
+	public void toTsv(Writer out) throws IOException {
+		out.write(DataRecorder.HEADER);
+		DataRecorder.Sample s = new DataRecorder.Sample();
+		StringBuilder row = new StringBuilder(512);
+		for (int i = 0; i < rowCount; i++) {
+			row.setLength(0);
+			get(i, s);
+			DataRecorder.appendRow(s, row);
+			DataRecorder.appendDecision(s, row);
+			out.append(row);
+		}
+		out.flush();
+	}
+
+	/**
+	 * Converts a history file to the tab separated format.
+	 *
+	 * @param args	The history file and the output file, e.g., control.hist control.dat
+	 */
+	public static void main(String[] args) {
+		if(args.length != 2) {
+			System.err.println("Usage: HistoryReader <history file> <tsv file>");
+			System.exit(1);
+		}
+		try {
+			HistoryReader in = new HistoryReader(args[0]);
+			Writer out = new BufferedWriter(new FileWriter(args[1]));
+			in.toTsv(out);
+			out.close();
+			System.out.println("Converted " + in.getRowCount() + " rows");
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+	}
+
+}
@@ -0,0 +1,312 @@
+/*
+ * This file is part of the ElastMan Elasticity Manager
+ *
+ * Copyright (C) 2013 Ahmad Al-Shishtawy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cloud.elasticity.elastman;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+
+/**
+ * Records the samples of the {@link Sensor} in a compact binary columnar file.
+ * <p>
+ * The file starts with a header of {@value #HEADER_SIZE} bytes: the magic, the version,
+ * the number of rows per block, the type of each column and a dictionary of the decision
+ * names. Then come blocks of {@link #BLOCK_ROWS} rows. A block has a small header (magic,
+ * number of rows, first and last step) followed by the values of each column stored one
+ * after the other in fixed-width big-endian primitives. Blocks are written through a
+ * memory-mapped buffer and the row count in the block header is updated after each row,
+ * so a file that was not closed can still be read.
+ * <p>
+ * {@link #close()} appends a footer index with the offset, row count and step range of every
+ * block, followed by the offset of the index and a magic.
+ * <p>
+ * Use {@link HistoryReader} to read the file or convert it to the tab separated format.
+ *
+ * @author Ahmad Al-Shishtawy <ahmadas@kth.se>
+ *
+ */
+public class HistoryWriter {
+
+	public static final int MAGIC = 0x454D4853;			// "EMHS"
+	public static final int BLOCK_MAGIC = 0x454D424B;	// "EMBK"
+	public static final int INDEX_MAGIC = 0x454D4958;	// "EMIX"
+	public static final int VERSION = 1;
+
+	/**
+	 * Size of the file header.
+	 */
+	public static final int HEADER_SIZE = 4096;
+
+	/**
+	 * Size of a block header: magic, rows, first and last step.
+	 */
+	public static final int BLOCK_HEADER_SIZE = 4 + 4 + 8 + 8;
+
+	/**
+	 * Rows per block. About 3.5 days of 5 minute steps.
+	 */
+	public static final int BLOCK_ROWS = 1024;
+
+	// column types
+	public static final byte LONG = 0;
+	public static final byte DOUBLE = 1;
+	public static final byte INT = 2;
+	public static final byte BYTE = 3;
+
+	// the columns in file order. The names are the TSV column names
+	public static final String[] NAMES = {
+		"T", "PeriodSec", "Clients", "Servers", "TotalOps", "Throughput", "ThroPerServ",
+		"tpsR", "meanR", "stddivR", "minR", "p95R", "p99R", "fp99R", "maxR",
+		"tpSM", "meanM", "stddivM", "minM", "p95M", "p99M", "maxM",
+		"ntp", "nfp99", "opID", "log", "output", "n", "nn", "flags" };
+
+	public static final byte[] TYPES = {
+		LONG, DOUBLE, INT, INT, DOUBLE, LONG, LONG,
+		LONG, LONG, LONG, LONG, LONG, LONG, LONG, LONG,
+		LONG, LONG, LONG, LONG, LONG, LONG, LONG,
+		LONG, LONG, INT, BYTE, DOUBLE, DOUBLE, INT, BYTE };
+
+	// the columns that are not plain numbers
+	static final int COL_LOG = 25;
+	static final int COL_FLAGS = 29;
+
+	// bits of the flags column
+	static final int FLAG_ACTION = 1;
+	static final int FLAG_FFFAIL = 2;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final MappedByteBuffer header;
+	private final int dictPosition;	// position of the dictionary count in the header
+	private final ArrayList<String> dictionary = new ArrayList<String>();
+
+	private MappedByteBuffer block;
+	private long blockOffset;
+	private int rows = 0;	// rows in the current block
+	private final ArrayList<long[]> index = new ArrayList<long[]>();	// offset, rows, first, last
+
+	/**
+	 * @param type	A column type.
+	 * @return	The width of the type in bytes.
+	 */
+	public static int width(byte type) {
+		switch (type) {
+		case LONG:
+		case DOUBLE:
+			return 8;
+		case INT:
+			return 4;
+		default:
+			return 1;
+		}
+	}
+
+	/**
+	 * @param blockRows	The rows per block.
+	 * @return	The offset of each column in a block, plus the block size as the last element.
+	 */
+	public static int[] columnOffsets(int blockRows) {
+		int[] offsets = new int[TYPES.length + 1];
+		int p = BLOCK_HEADER_SIZE;
+		for (int i = 0; i < TYPES.length; i++) {
+			offsets[i] = p;
+			p += width(TYPES[i]) * blockRows;
+		}
+		offsets[TYPES.length] = p;
+		return offsets;
+	}
+
+	private static final int[] OFFSETS = columnOffsets(BLOCK_ROWS);
+
+	/**
+	 * Creates a new history file. An existing file is overwritten.
+	 *
+	 * @param filename	The file name.
+	 * @throws IOException
+	 */
+	public HistoryWriter(String filename) throws IOException {
+		file = new RandomAccessFile(filename, "rw");
+		file.setLength(0);
+		channel = file.getChannel();
+		header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+		header.putInt(MAGIC);
+		header.putShort((short)VERSION);
+		header.putShort((short)TYPES.length);
+		header.putInt(BLOCK_ROWS);
+		header.put(TYPES);
+		dictPosition = header.position();
+		header.putInt(0);
+		blockOffset = HEADER_SIZE;
+		block = null;
+	}
+
+	/**
+	 * Appends one sample.
+	 *
+	 * @param s	The sample.
+	 * @throws IOException if the file can not be extended
+	 */
+	public void append(DataRecorder.Sample s) throws IOException {
+		if(block == null || rows == BLOCK_ROWS) {
+			nextBlock();
+		}
+		int r = rows;
+		putLong(0, r, s.step);
+		putDouble(1, r, s.periodSec);
+		putInt(2, r, s.clients);
+		putInt(3, r, s.servers);
+		putDouble(4, r, s.totalOps);
+		putLong(5, r, s.throughput);
+		putLong(6, r, s.tps);
+		putLong(7, r, s.rtps);
+		putLong(8, r, s.meanR);
+		putLong(9, r, s.stddevR);
+		putLong(10, r, s.minR);
+		putLong(11, r, s.p95R);
+		putLong(12, r, s.p99R);
+		putLong(13, r, s.fp99R);
+		putLong(14, r, s.maxR);
+		putLong(15, r, s.mtps);
+		putLong(16, r, s.meanM);
+		putLong(17, r, s.stddevM);
+		putLong(18, r, s.minM);
+		putLong(19, r, s.p95M);
+		putLong(20, r, s.p99M);
+		putLong(21, r, s.maxM);
+		putLong(22, r, s.ntp);
+		putLong(23, r, s.nfp99);
+		putInt(24, r, s.opId);
+		block.put(OFFSETS[COL_LOG] + r, (byte)code(s.log));
+		putDouble(26, r, s.output);
+		putDouble(27, r, s.n);
+		putInt(28, r, s.nn);
+		block.put(OFFSETS[COL_FLAGS] + r, (byte)((s.action ? FLAG_ACTION : 0) | (s.ffFail ? FLAG_FFFAIL : 0)));
+
+		// publish the row
+		if(rows == 0) {
+			block.putLong(8, s.step);
+		}
+		block.putLong(16, s.step);
+		rows++;
+		block.putInt(4, rows);
+	}
+
+	private void putLong(int col, int row, long v) {
+		block.putLong(OFFSETS[col] + 8*row, v);
+	}
+
+	private void putDouble(int col, int row, double v) {
+		block.putDouble(OFFSETS[col] + 8*row, v);
+	}
+
+	private void putInt(int col, int row, int v) {
+		block.putInt(OFFSETS[col] + 4*row, v);
+	}
+
+	/**
+	 * @return The dictionary code of a decision name. New names are added to the header.
+	 */
+	private int code(String name) throws IOException {
+		int c = dictionary.indexOf(name);
+		if(c >= 0) {
+			return c;
+		}
+		byte[] b = name.getBytes(UTF8);
+		int end = dictPosition + 4;
+		for (int i = 0; i < dictionary.size(); i++) {
+			end += 2 + dictionary.get(i).getBytes(UTF8).length;
+		}
+		if(dictionary.size() == 255 || end + 2 + b.length > HEADER_SIZE) {
+			throw new IOException("Too many decision names in the history header");
+		}
+		header.putShort(end, (short)b.length);
+		for (int i = 0; i < b.length; i++) {
+			header.put(end + 2 + i, b[i]);
+		}
+		dictionary.add(name);
+		header.putInt(dictPosition, dictionary.size());
+		return dictionary.size() - 1;
+	}
+
+	private void nextBlock() throws IOException {
+		if(block != null) {
+			closeBlock();
+			blockOffset += OFFSETS[TYPES.length];
+		}
+		block = channel.map(FileChannel.MapMode.READ_WRITE, blockOffset, OFFSETS[TYPES.length]);
+		block.putInt(0, BLOCK_MAGIC);
+		block.putInt(4, 0);
+		rows = 0;
+	}
+
+	private void closeBlock() {
+		block.force();
+		index.add(new long[] {blockOffset, rows, block.getLong(8), block.getLong(16)});
+	}
+
+	/**
+	 * Forces the written rows to the disk.
+	 */
+	public void flush() {
+		header.force();
+		if(block != null) {
+			block.force();
+		}
+	}
+
+	/**
+	 * Writes the footer index and closes the file.
+	 *
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		long end = HEADER_SIZE;
+		if(block != null) {
+			closeBlock();
+			end = blockOffset + OFFSETS[TYPES.length];
+		}
+		header.force();
+		ByteBuffer footer = ByteBuffer.allocate(4 + index.size()*(8 + 4 + 8 + 8) + 8 + 4);
+		footer.putInt(index.size());
+		for (long[] b : index) {
+			footer.putLong(b[0]);
+			footer.putInt((int)b[1]);
+			footer.putLong(b[2]);
+			footer.putLong(b[3]);
+		}
+		footer.putLong(end);
+		footer.putInt(INDEX_MAGIC);
+		footer.flip();
+		channel.position(end);
+		while(footer.hasRemaining()) {
+			channel.write(footer);
+		}
+		channel.truncate(end + footer.limit());
+		channel.force(true);
+		file.close();
+	}
+
+}
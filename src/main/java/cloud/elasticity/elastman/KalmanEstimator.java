@@ -0,0 +1,108 @@
+/*
+ * This file is part of the ElastMan Elasticity Manager
+ * 
+ * Copyright (C) 2013 Ahmad Al-Shishtawy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cloud.elasticity.elastman;
+
+/**
+ * A Kalman filter of the p99 latency with a level and a trend (constant velocity) state.
+ * <pre>
+ * level(k+1) = level(k) + trend(k) + w1
+ * trend(k+1) = trend(k) + w2
+ * z(k)       = level(k) + v
+ * </pre>
+ * v is the measurement noise, with standard deviation filter.kalman.noise. w is a random
+ * change of the trend, with standard deviation filter.kalman.process per step. Compared
+ * to the {@link Filter} it follows a ramp without lag and, when the measurements are
+ * noisy, weighs them less.
+ * <p>
+ * A reset keeps the level but drops the trend and sets the uncertainty back to that of a
+ * single measurement. The estimate then follows the next measurements quickly without
+ * jumping to the first one.
+ *
+ * @author Ahmad Al-Shishtawy <ahmadas@kth.se>
+ *
+ */
+public class KalmanEstimator implements Estimator {
+
+	private final double r;	// measurement variance
+	private final double q;	// process variance
+	private double level = 0, trend = 0;
+	private double p00, p01, p11;	// covariance of the estimate
+	private boolean firstInput = true;
+
+	/**
+	 * @param noise		The standard deviation of the measurements.
+	 * @param process	The standard deviation of the change of the trend per step.
+	 */
+	public KalmanEstimator(double noise, double process) {
+		r = noise * noise;
+		q = process * process;
+	}
+
+	public double step(double input) {
+		if(firstInput) {
+			firstInput = false;
+			level = input;
+			trend = 0;
+			p00 = r;
+			p01 = 0;
+			p11 = r;
+			return level;
+		}
+
+		// predict
+		level += trend;
+		p00 += 2*p01 + p11 + q/4;
+		p01 += p11 + q/2;
+		p11 += q;
+
+		// correct
+		double s = p00 + r;
+		double k0 = p00 / s, k1 = p01 / s;
+		double innovation = input - level;
+		level += k0 * innovation;
+		trend += k1 * innovation;
+		p11 -= k1 * p01;
+		p01 -= k0 * p01;
+		p00 -= k0 * p00;
+		return level;
+	}
+
+	public void reset() {
+		if(!firstInput) {
+			trend = 0;
+			p00 = r;
+			p01 = 0;
+			p11 = r;
+		}
+	}
+
+	public double getValue() {
+		return level;
+	}
+
+	public double getTrend() {
+		return trend;
+	}
+
+	public double getStdDev() {
+		return Math.sqrt(p00);
+	}
+
+}
@@ -0,0 +1,258 @@
+/*
+ * This file is part of the ElastMan Elasticity Manager
+ *
+ * Copyright (C) 2013 Ahmad Al-Shishtawy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cloud.elasticity.elastman;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A mergeable, log-bucketed latency histogram.
+ * <p>
+ * Latencies (in nano seconds) are counted in a fixed array of buckets. Every power of two
+ * is split into {@link #SUB} linear sub-buckets so the relative error of a bucket is at
+ * most 1/{@value #SUB}. All histograms use the same layout so histograms from many clients
+ * can be merged by adding the bucket counts. The percentiles of the merged histogram are
+ * the true cluster-wide percentiles, unlike the mean of the per-client percentiles.
+ * <p>
+ * On the wire a histogram is sent as a sparse block: an int with the number of non-empty
+ * buckets, a long with the exact max, then an (int index, long count) pair for every
+ * non-empty bucket.
+ *
+ * @author Ahmad Al-Shishtawy <ahmadas@kth.se>
+ *
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BITS = 5;
+
+	/**
+	 * Number of linear sub-buckets in each power of two.
+	 */
+	public static final int SUB = 1 << SUB_BITS;
+
+	/**
+	 * Values above 2^MAX_EXP ns (about 18 minutes) go to the last bucket.
+	 */
+	private static final int MAX_EXP = 40;
+
+	/**
+	 * Number of buckets in every histogram.
+	 */
+	public static final int BUCKETS = (MAX_EXP - SUB_BITS + 2) * SUB;
+
+	/**
+	 * Size in bytes of the fixed part of an encoded histogram.
+	 */
+	public static final int HEADER_SIZE = 4 + 8;
+
+	/**
+	 * Size in bytes of each non-empty bucket in an encoded histogram.
+	 */
+	public static final int ENTRY_SIZE = 4 + 8;
+
+	private final long[] counts = new long[BUCKETS];
+	private long total = 0;
+	private long max = 0;
+
+	/**
+	 * Maps a latency to its bucket.
+	 *
+	 * @param v	The latency in ns.
+	 * @return	The bucket index.
+	 */
+	public static int index(long v) {
+		if(v < SUB) {
+			return v < 0 ? 0 : (int)v;	// exact for small values
+		}
+		int e = 63 - Long.numberOfLeadingZeros(v);	// floor(log2(v))
+		if(e > MAX_EXP) {
+			return BUCKETS-1;
+		}
+		int sub = (int)(v >>> (e - SUB_BITS)) - SUB;
+		return (e - SUB_BITS + 1) * SUB + sub;
+	}
+
+	/**
+	 * @param index	A bucket index.
+	 * @return	The smallest latency counted in the bucket.
+	 */
+	public static long lowerBound(int index) {
+		int g = index / SUB;
+		int s = index % SUB;
+		if(g == 0) {
+			return s;
+		}
+		return ((long)(SUB + s)) << (g - 1);
+	}
+
+	/**
+	 * @param index	A bucket index.
+	 * @return	The largest latency counted in the bucket.
+	 */
+	public static long upperBound(int index) {
+		if(index >= BUCKETS-1) {
+			return Long.MAX_VALUE;
+		}
+		return lowerBound(index+1) - 1;
+	}
+
+	/**
+	 * Counts one latency.
+	 *
+	 * @param v	The latency in ns.
+	 */
+	public void record(long v) {
+		counts[index(v)]++;
+		total++;
+		if(v > max) {
+			max = v;
+		}
+	}
+
+	/**
+	 * Adds an encoded histogram to this histogram.
+	 *
+	 * @param in	The encoded histogram. The position is moved past the histogram.
+	 */
+	public void merge(ByteBuffer in) {
+		int n = in.getInt();
+		long m = in.getLong();
+		if(m > max) {
+			max = m;
+		}
+		for (int i = 0; i < n; i++) {
+			int index = in.getInt();
+			long c = in.getLong();
+			if(index >= 0 && index < BUCKETS) {
+				counts[index] += c;
+				total += c;
+			}
+		}
+	}
+
+	/**
+	 * Adds one bucket. Used to merge histograms that are not encoded.
+	 *
+	 * @param index	The bucket index.
+	 * @param count	The count to add.
+	 */
+	void add(int index, long count) {
+		counts[index] += count;
+		total += count;
+	}
+
+	/**
+	 * Raises the max if needed. Used to merge histograms that are not encoded.
+	 *
+	 * @param m	A max latency.
+	 */
+	void addMax(long m) {
+		if(m > max) {
+			max = m;
+		}
+	}
+
+	/**
+	 * Adds all counts of another histogram to this histogram.
+	 *
+	 * @param h	The histogram to add.
+	 */
+	void add(LatencyHistogram h) {
+		if(h.total == 0) {
+			return;
+		}
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] += h.counts[i];
+		}
+		total += h.total;
+		addMax(h.max);
+	}
+
+	/**
+	 * Writes this histogram in the sparse wire format.
+	 *
+	 * @param out	The buffer to write to.
+	 */
+	public void encode(ByteBuffer out) {
+		int n = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			if(counts[i] != 0) {
+				n++;
+			}
+		}
+		out.putInt(n);
+		out.putLong(max);
+		for (int i = 0; i < BUCKETS; i++) {
+			if(counts[i] != 0) {
+				out.putInt(i);
+				out.putLong(counts[i]);
+			}
+		}
+	}
+
+	/**
+	 * Gets a percentile of the counted latencies. The result is the upper bound of the bucket
+	 * holding the percentile, so it overestimates by at most the bucket width.
+	 *
+	 * @param q	The percentile as a fraction, e.g., 0.99
+	 * @return	The latency in ns or 0 if the histogram is empty.
+	 */
+	public long percentile(double q) {
+		if(total == 0) {
+			return 0;
+		}
+		long rank = (long)Math.ceil(q * total);
+		if(rank < 1) {
+			rank = 1;
+		}
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if(seen >= rank) {
+				return Math.min(upperBound(i), max);
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * @return	The largest latency counted.
+	 */
+	public long getMax() {
+		return max;
+	}
+
+	/**
+	 * @return	The number of latencies counted.
+	 */
+	public long getCount() {
+		return total;
+	}
+
+	/**
+	 * Forgets all counted latencies.
+	 */
+	public void reset() {
+		Arrays.fill(counts, 0);
+		total = 0;
+		max = 0;
+	}
+
+}
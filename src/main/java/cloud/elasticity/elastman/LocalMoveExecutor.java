@@ -0,0 +1,92 @@
+/*
+ * This file is part of the ElastMan Elasticity Manager
+ * 
+ * Copyright (C) 2013 Ahmad Al-Shishtawy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cloud.elasticity.elastman;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * A stand-in {@link MoveExecutor} that keeps the owners of the partitions in memory, e.g.,
+ * for tests. Each move takes a fixed time and moves a fixed number of bytes.
+ *
+ * @author Ahmad Al-Shishtawy <ahmadas@kth.se>
+ *
+ */
+public class LocalMoveExecutor implements MoveExecutor {
+
+	private final int[] owner;
+	private final long moveMs;
+	private final long partitionBytes;
+	private int running = 0, maxRunning = 0;
+
+	/**
+	 * @param partitions		The number of partitions.
+	 * @param servers			The current number of servers.
+	 * @param moveMs			The time of a move.
+	 * @param partitionBytes	The size of a partition.
+	 */
+	public LocalMoveExecutor(int partitions, int servers, long moveMs, long partitionBytes) {
+		owner = PartitionGenerator.owners(partitions, servers);
+		this.moveMs = moveMs;
+		this.partitionBytes = partitionBytes;
+	}
+
+	public long move(RebalancePlanner.Move move) throws IOException {
+		synchronized (this) {
+			if(owner[move.getPartition()] != move.getFrom()) {
+				throw new IOException("Server " + move.getFrom() + " does not own partition " + move.getPartition());
+			}
+			running++;
+			maxRunning = Math.max(maxRunning, running);
+		}
+		try {
+			Thread.sleep(moveMs);
+		} catch (InterruptedException e) {
+			throw new IOException("Interrupted");
+		} finally {
+			synchronized (this) {
+				running--;
+			}
+		}
+		synchronized (this) {
+			owner[move.getPartition()] = move.getTo();
+		}
+		return partitionBytes;
+	}
+
+	public void setAddrs(Map<Integer, String> addrs) {
+		// the servers are only IDs here
+	}
+
+	/**
+	 * @return	The ID of the server that owns each partition now.
+	 */
+	public synchronized int[] getOwners() {
+		return owner.clone();
+	}
+
+	/**
+	 * @return	The max number of moves that ran at the same time.
+	 */
+	public synchronized int getMaxRunning() {
+		return maxRunning;
+	}
+
+}
@@ -0,0 +1,198 @@
+/*
+ * This file is part of the ElastMan Elasticity Manager
+ *
+ * Copyright (C) 2013 Ahmad Al-Shishtawy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cloud.elasticity.elastman;
+
+/**
+ * A model predictive controller of the number of Voldemort VMs, an alternative to the
+ * {@link PIDController}.
+ * <p>
+ * Every step it predicts the p99 latency over a horizon with the identified
+ * {@link PlantModel}, for every change of the cluster size allowed by
+ * {@link Actuator#bound(int, int, boolean, int, int, int)}. A change takes effect after
+ * the actuation delay (booting and rebalancing) and is then held to the end of the horizon.
+ * The change with the lowest cost is chosen,
+ * <pre>
+ * J = sum over the horizon of  w(e)*(e/inOp)^2 + vm*N
+ * </pre>
+ * where e is the predicted p99 minus inOp, w(e) is the weight sla above inOp and 1 below,
+ * and N is the number of VMs. Only the first move is applied and the search is repeated
+ * in the next step. The search is at most 2*voldDeltaMax+1 predictions of the horizon.
+ * <p>
+ * The difference between the measured p99 and the one-step prediction of the model is
+ * smoothed and added to the predictions, so a biased model does not leave a steady error.
+ *
+ * @author Ahmad Al-Shishtawy <ahmadas@kth.se>
+ *
+ */
+public class MPCController {
+
+	private final PlantModel model;
+	private final int horizon;
+	private final int delay;
+	private final double inOp;
+	private final double sla;
+	private final double vm;
+	private final double alpha;
+	private final int voldMin, voldMax, voldDeltaMax;
+
+	private final int lag;
+	private final double[] y, u;	// the last lag samples followed by the horizon
+	private final double[] load;
+	private int count = 0;
+	private double disturbance = 0;
+
+	/**
+	 * @param model			The plant.
+	 * @param horizon		The number of steps to predict.
+	 * @param delay			The number of steps before a change of the cluster serves.
+	 * @param inOp			The desired p99 latency.
+	 * @param sla			The weight of latency above inOp relative to below.
+	 * @param vm			The cost of a VM per step.
+	 * @param alpha			The smoothing of the model error, as in {@link Filter}.
+	 * @param voldMin		The min cluster size.
+	 * @param voldMax		The max cluster size.
+	 * @param voldDeltaMax	The max number of VMs to add or remove at one time.
+	 */
+	public MPCController(PlantModel model, int horizon, int delay, double inOp, double sla, double vm,
+			double alpha, int voldMin, int voldMax, int voldDeltaMax) {
+		if(horizon <= delay) {
+			throw new IllegalArgumentException("The horizon must be longer than the delay");
+		}
+		this.model = model;
+		this.horizon = horizon;
+		this.delay = delay;
+		this.inOp = inOp;
+		this.sla = sla;
+		this.vm = vm;
+		this.alpha = alpha;
+		this.voldMin = voldMin;
+		this.voldMax = voldMax;
+		this.voldDeltaMax = voldDeltaMax;
+		lag = model.getLag();
+		y = new double[lag + horizon];
+		u = new double[lag + horizon];
+		load = new double[horizon];
+	}
+
+	/**
+	 * Creates a controller using the model.*, control.* and act.* settings in {@link Props}.
+	 *
+	 * @return	The controller, or null if there is no model.
+	 */
+	public static MPCController fromProps() {
+		PlantModel model = PlantModel.fromProps();
+		if(model == null) {
+			return null;
+		}
+		return new MPCController(model, Props.control_mpc_horizon, Props.control_mpc_delay, Props.control_inOp,
+				Props.control_mpc_sla, Props.control_mpc_vm, Props.filter_alpha,
+				Props.voldMin, Props.voldMax, Props.voldDeltaMax);
+	}
+
+	/**
+	 * Adds the measurements of the last period. Must be called every step, also while
+	 * rebalancing, as the model needs the past samples.
+	 *
+	 * @param tps	The throughput per server.
+	 * @param p99	The p99 of the read latency.
+	 */
+	public void observe(double tps, double p99) {
+		if(count >= lag) {
+			u[lag] = tps;
+			double error = p99 - model.predict(y, u, lag);
+			disturbance = count == lag ? error : disturbance + alpha*(error - disturbance);
+		}
+		if(lag > 0) {
+			System.arraycopy(y, 1, y, 0, lag - 1);
+			System.arraycopy(u, 1, u, 0, lag - 1);
+			y[lag - 1] = p99;
+			u[lag - 1] = tps;
+		}
+		count++;
+	}
+
+	/**
+	 * @return	true when enough samples were observed to predict.
+	 */
+	public boolean isReady() {
+		return count > lag;
+	}
+
+	/**
+	 * Chooses the change of the cluster size assuming the throughput stays the same.
+	 *
+	 * @param throughput	The total throughput.
+	 * @param nodes			The current number of VMs.
+	 * @return	The number of VMs to add (positive) or remove (negative).
+	 */
+	public int decide(double throughput, int nodes) {
+		for (int k = 0; k < horizon; k++) {
+			load[k] = throughput;
+		}
+		return decide(load, nodes);
+	}
+
+	/**
+	 * Chooses the change of the cluster size for a forecast of the throughput.
+	 *
+	 * @param forecast	The total throughput of the coming steps. The last value is used for
+	 * 					the rest of the horizon.
+	 * @param nodes		The current number of VMs.
+	 * @return	The number of VMs to add (positive) or remove (negative).
+	 */
+	public int decide(double[] forecast, int nodes) {
+		int lo = Math.min(0, Actuator.bound(nodes, -voldDeltaMax, true, voldMin, voldMax, voldDeltaMax));
+		int hi = Math.max(0, Actuator.bound(nodes, voldDeltaMax, true, voldMin, voldMax, voldDeltaMax));
+		int best = 0;
+		double min = Double.POSITIVE_INFINITY;
+		for (int d = lo; d <= hi; d++) {
+			double j = cost(forecast, nodes, d);
+			if(j < min || (j == min && Math.abs(d) < Math.abs(best))) {
+				min = j;
+				best = d;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @return	The cost of changing the cluster by d VMs now.
+	 */
+	double cost(double[] forecast, int nodes, int d) {
+		double j = 0;
+		for (int k = 0; k < horizon; k++) {
+			int i = lag + k;
+			int n = k < delay ? nodes : nodes + d;
+			u[i] = forecast[Math.min(k, forecast.length - 1)] / Math.max(n, 1);
+			y[i] = model.predict(y, u, i) + disturbance;
+			double e = (y[i] - inOp) / inOp;
+			j += (e > 0 ? sla : 1) * e * e + vm * Math.max(nodes, nodes + d);
+		}
+		return j;
+	}
+
+	/**
+	 * @return	The smoothed difference between the measured and predicted p99.
+	 */
+	public double getDisturbance() {
+		return disturbance;
+	}
+
+}
@@ -0,0 +1,415 @@
+/*
+ * This file is part of the ElastMan Elasticity Manager
+ *
+ * Copyright (C) 2013 Ahmad Al-Shishtawy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cloud.elasticity.elastman;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.math3.exception.MathIllegalArgumentException;
+import org.apache.commons.math3.stat.regression.OLSMultipleLinearRegression;
+
+/**
+ * Fits the controller settings to the data of an identification run (ident.dat).
+ * <p>
+ * ARX models ({@link PlantModel}) of the p99 read latency as a function of the throughput
+ * per server are fitted by ordinary least squares for all orders up to a maximum. Each
+ * model is cross-validated on contiguous blocks of the data, which keeps the time order
+ * of the samples, and the model with the lowest one-step prediction error wins. All fits
+ * run in parallel on a fork-join pool.
+ * <p>
+ * The PID gains place both closed-loop poles at the given pole for the first-order
+ * reduction y(k) = a*y(k-1) + b*u(k) of the model, where a and b are the sums of the
+ * coefficients. The {@link Decider} adds the PID output to the measured throughput, so
+ * control.kp acts as the integral and control.kd as the proportional gain of an
+ * incremental PI controller: control.kp = (1-p)^2/b and control.kd = (a-p^2)/b. A nearly
+ * static model (a &lt; p^2) gets control.kp = (1-p)/K, with K the static gain, and no
+ * derivative term.
+ * <p>
+ * The feedforward line is the SLA boundary of a linear fit of the latency to the read and
+ * mixed throughputs per server, using the samples near control.inOp if there are enough.
+ *
+ * @author Ahmad Al-Shishtawy <ahmadas@kth.se>
+ *
+ */
+public class ModelFitter {
+
+	/**
+	 * Samples needed near the SLA to fit the feedforward line on them only.
+	 */
+	private static final int MIN_NEAR_SLA = 20;
+
+	private final int n;
+	private final double[] u, y;		// throughput per server and p99
+	private final double[] rtps, mtps;
+	private final boolean[] valid;
+	private final int folds;
+
+	/**
+	 * Cross-validated fit of one model order.
+	 */
+	public static class Fit {
+		public final PlantModel model;	// fitted on all data
+		public final double rmse;		// cross-validated one-step prediction error
+		public final int rows;
+
+		Fit(PlantModel model, double rmse, int rows) {
+			this.model = model;
+			this.rmse = rmse;
+			this.rows = rows;
+		}
+	}
+
+	/**
+	 * @param data	The identification samples in time order.
+	 * @param folds	The number of cross-validation blocks. At least 2.
+	 */
+	public ModelFitter(List<DataRecorder.Sample> data, int folds) {
+		n = data.size();
+		u = new double[n];
+		y = new double[n];
+		rtps = new double[n];
+		mtps = new double[n];
+		valid = new boolean[n];
+		for (int k = 0; k < n; k++) {
+			DataRecorder.Sample s = data.get(k);
+			u[k] = s.tps;
+			y[k] = s.p99R;
+			rtps[k] = s.rtps;
+			mtps[k] = s.mtps;
+			valid[k] = s.tps > 0 && s.p99R > 0;	// no clients, no data
+		}
+		this.folds = Math.max(folds, 2);
+	}
+
+	/**
+	 * Fits and cross-validates all models with 0 to maxOrder past outputs and 1 to
+	 * maxOrder inputs.
+	 *
+	 * @param maxOrder	The max number of coefficients of each kind.
+	 * @param pool		Runs the fits.
+	 * @return	The models that could be fitted, best first.
+	 */
+	public List<Fit> fitAll(int maxOrder, ForkJoinPool pool) {
+		ArrayList<Callable<double[]>> tasks = new ArrayList<Callable<double[]>>();
+		for (int na = 0; na <= maxOrder; na++) {
+			for (int nb = 1; nb <= maxOrder; nb++) {
+				for (int f = -1; f < folds; f++) {	// -1 is the fit on all data
+					final int fna = na, fnb = nb, fold = f;
+					tasks.add(new Callable<double[]>() {
+						public double[] call() {
+							return fit(fna, fnb, fold);
+						}
+					});
+				}
+			}
+		}
+		List<Future<double[]>> results = pool.invokeAll(tasks);
+
+		ArrayList<Fit> fits = new ArrayList<Fit>();
+		try {
+			int t = 0;
+			for (int na = 0; na <= maxOrder; na++) {
+				for (int nb = 1; nb <= maxOrder; nb++) {
+					double[] all = results.get(t++).get();
+					double sse = 0, count = 0;
+					boolean ok = all != null;
+					for (int f = 0; f < folds; f++) {
+						double[] r = results.get(t++).get();
+						if(r == null) {
+							ok = false;
+						} else {
+							sse += r[0];
+							count += r[1];
+						}
+					}
+					if(ok && count > 0) {
+						double[] a = new double[na];
+						double[] b = new double[nb];
+						System.arraycopy(all, 1, a, 0, na);
+						System.arraycopy(all, 1 + na, b, 0, nb);
+						fits.add(new Fit(new PlantModel(all[0], a, b), Math.sqrt(sse/count), (int)all[all.length-1]));
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		}
+		Collections.sort(fits, new Comparator<Fit>() {
+			public int compare(Fit f1, Fit f2) {
+				return Double.compare(f1.rmse, f2.rmse);
+			}
+		});
+		return fits;
+	}
+
+	/**
+	 * Fits one model.
+	 *
+	 * @param fold	The block to leave out and test on, or -1 to fit on all data.
+	 * @return	For a fold the sum of squared errors and the number of test rows. Otherwise
+	 * 			the coefficients (c, a, b) followed by the number of rows. null if the model
+	 * 			can not be fitted.
+	 */
+	double[] fit(int na, int nb, int fold) {
+		int lag = Math.max(na, nb - 1);
+		ArrayList<Integer> train = new ArrayList<Integer>();
+		ArrayList<Integer> test = new ArrayList<Integer>();
+		for (int k = lag; k < n; k++) {
+			boolean ok = true;
+			for (int i = k - lag; i <= k && ok; i++) {
+				ok = valid[i];
+			}
+			if(!ok) {
+				continue;
+			}
+			if(fold >= 0 && (int)((long)k*folds/n) == fold) {
+				test.add(k);
+			} else {
+				train.add(k);
+			}
+		}
+		if(train.size() <= na + nb + 1 || (fold >= 0 && test.isEmpty())) {
+			return null;
+		}
+
+		double[] target = new double[train.size()];
+		double[][] x = new double[train.size()][];
+		for (int r = 0; r < train.size(); r++) {
+			int k = train.get(r);
+			target[r] = y[k];
+			x[r] = regressors(k, na, nb);
+		}
+		double[] beta;
+		try {
+			OLSMultipleLinearRegression ols = new OLSMultipleLinearRegression();
+			ols.newSampleData(target, x);
+			beta = ols.estimateRegressionParameters();	// intercept first
+		} catch (MathIllegalArgumentException e) {
+			return null;	// singular, e.g., the throughput never changed
+		}
+
+		if(fold < 0) {
+			double[] all = new double[beta.length + 1];
+			System.arraycopy(beta, 0, all, 0, beta.length);
+			all[beta.length] = train.size();
+			return all;
+		}
+		double sse = 0;
+		for (int r = 0; r < test.size(); r++) {
+			double[] xr = regressors(test.get(r), na, nb);
+			double p = beta[0];
+			for (int i = 0; i < xr.length; i++) {
+				p += beta[1 + i] * xr[i];
+			}
+			double e = y[test.get(r)] - p;
+			sse += e * e;
+		}
+		return new double[] {sse, test.size()};
+	}
+
+	private double[] regressors(int k, int na, int nb) {
+		double[] x = new double[na + nb];
+		for (int i = 0; i < na; i++) {
+			x[i] = y[k-1-i];
+		}
+		for (int j = 0; j < nb; j++) {
+			x[na + j] = u[k-j];
+		}
+		return x;
+	}
+
+	/**
+	 * Designs the PID gains for a model. See the class description.
+	 *
+	 * @param m		The model.
+	 * @param pole	The closed-loop pole in [0, 1). Smaller is faster.
+	 * @return	control.kp, control.ki and control.kd.
+	 */
+	public static double[] gains(PlantModel m, double pole) {
+		double a = m.getSumA();
+		double b = m.getSumB();
+		double kd = (a - pole*pole) / b;
+		double kp = (1 - pole)*(1 - pole) / b;
+		if(kd < 0) {
+			kd = 0;
+			kp = (1 - pole) / m.getStaticGain();
+		}
+		return new double[] {kp, 0, kd};
+	}
+
+	/**
+	 * Fits the feedforward line.
+	 *
+	 * @param inOp	The p99 set point.
+	 * @return	control.ff.r1, w1, r2 and w2: where the SLA boundary crosses the read and
+	 * 			the mixed throughput axis. null if the read and mixed costs can not be told
+	 * 			apart, e.g., because the mix never changed.
+	 */
+	public double[] fitFeedForward(double inOp) {
+		ArrayList<Integer> rows = new ArrayList<Integer>();
+		for (int k = 0; k < n; k++) {
+			if(valid[k] && Math.abs(y[k] - inOp) <= 0.5*inOp) {
+				rows.add(k);
+			}
+		}
+		if(rows.size() < MIN_NEAR_SLA) {	// not enough near the SLA. Use all
+			rows.clear();
+			for (int k = 0; k < n; k++) {
+				if(valid[k]) {
+					rows.add(k);
+				}
+			}
+		}
+		if(rows.size() < 4) {
+			return null;
+		}
+		double[] target = new double[rows.size()];
+		double[][] x = new double[rows.size()][];
+		for (int r = 0; r < rows.size(); r++) {
+			int k = rows.get(r);
+			target[r] = y[k];
+			x[r] = new double[] {rtps[k], mtps[k]};
+		}
+		double[] beta;
+		try {
+			OLSMultipleLinearRegression ols = new OLSMultipleLinearRegression();
+			ols.newSampleData(target, x);
+			beta = ols.estimateRegressionParameters();
+		} catch (MathIllegalArgumentException e) {
+			return null;
+		}
+		double r = (inOp - beta[0]) / beta[1];
+		double w = (inOp - beta[0]) / beta[2];
+		if(beta[1] <= 0 || beta[2] <= 0 || r <= 0 || w <= 0) {
+			return null;
+		}
+		return new double[] {r, 0, 0, w};
+	}
+
+	/**
+	 * Fits an identification run and prints the settings.
+	 *
+	 * @param args	See the help (-h).
+	 */
+	public static void main(String[] args) {
+		Options options = new Options();
+		options.addOption("o", "options", true, "Configuration file with control.inOp and control.adaptive.pole. Default control.prop");
+		options.addOption("w", "write", true, "Write the settings to this file instead of the console");
+		options.addOption("m", "order", true, "Max number of past outputs and of inputs. Default 3");
+		options.addOption("k", "folds", true, "Cross-validation blocks. Default 5");
+		options.addOption("p", "pole", true, "Closed-loop pole. Default control.adaptive.pole");
+		options.addOption("h", "help", false, "Print this help");
+
+		CommandLineParser parser = new GnuParser();
+		CommandLine cmd = null;
+		try {
+			cmd = parser.parse(options, args);
+		} catch (ParseException e) {
+			System.out.println(e.getMessage());
+			cmd = null;
+		}
+		if(cmd == null || cmd.hasOption("h") || cmd.getArgs().length != 1) {
+			HelpFormatter formatter = new HelpFormatter();
+			formatter.printHelp( "ModelFitter [options] <ident.dat | ident.hist>" , options);
+			System.exit(cmd == null ? 1 : 0);
+		}
+
+		Props.load(cmd.getOptionValue("o", "control.prop"), cmd);
+		int maxOrder = Integer.parseInt(cmd.getOptionValue("m", "3"));
+		int folds = Integer.parseInt(cmd.getOptionValue("k", "5"));
+		double pole = cmd.hasOption("p") ? Double.parseDouble(cmd.getOptionValue("p")) : Props.control_adaptive_pole;
+
+		try {
+			long start = System.nanoTime();
+			List<DataRecorder.Sample> data = TraceReplay.read(cmd.getArgs()[0]);
+			ModelFitter fitter = new ModelFitter(data, folds);
+			ForkJoinPool pool = new ForkJoinPool();
+			List<Fit> fits = fitter.fitAll(maxOrder, pool);
+			pool.shutdown();
+			if(fits.isEmpty()) {
+				System.err.println("No model could be fitted. Did the throughput change during the run?");
+				System.exit(1);
+			}
+			double[] ff = fitter.fitFeedForward(Props.control_inOp);
+			long ms = (System.nanoTime() - start) / 1000000;
+
+			Writer out;
+			if(cmd.hasOption("w")) {
+				out = new BufferedWriter(new FileWriter(cmd.getOptionValue("w")));
+			} else {
+				out = new BufferedWriter(new OutputStreamWriter(System.out));
+			}
+			write(out, cmd.getArgs()[0], data.size(), fits, pole, ff, ms);
+			out.close();
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	private static void write(Writer out, String file, int samples, List<Fit> fits, double pole, double[] ff, long ms) throws IOException {
+		out.write("# Fitted from " + file + " (" + samples + " samples) in " + ms + " ms\n");
+		out.write("# Cross-validated RMSE of the p99 in ns:\n");
+		for (Fit f : fits) {
+			out.write("#   " + f.model + "\t" + Math.round(f.rmse) + "\t(" + f.rows + " rows)\n");
+		}
+		PlantModel best = fits.get(0).model;
+		double[] g = gains(best, pole);
+		out.write("# Best " + best + ". Static gain " + best.getStaticGain() + " ns per op/s."
+				+ " p99 = control.inOp at " + Math.round(best.inverse(Props.control_inOp)) + " ops/s per server\n");
+		out.write("model.c=" + best.getC() + "\n");
+		out.write("model.a=" + Props.toString(best.getA()) + "\n");
+		out.write("model.b=" + Props.toString(best.getB()) + "\n");
+		out.write("# Closed-loop pole " + pole + "\n");
+		out.write("control.kp=" + g[0] + "\n");
+		out.write("control.ki=" + g[1] + "\n");
+		out.write("control.kd=" + g[2] + "\n");
+		out.write("# The decider adds the PID output to the measured throughput\n");
+		out.write("control.outOp=0\n");
+		if(ff == null) {
+			out.write("# The read and mixed costs can not be told apart. Keep control.ff.*\n");
+		} else {
+			out.write("control.ff.r1=" + ff[0] + "\n");
+			out.write("control.ff.w1=" + ff[1] + "\n");
+			out.write("control.ff.r2=" + ff[2] + "\n");
+			out.write("control.ff.w2=" + ff[3] + "\n");
+		}
+	}
+
+}
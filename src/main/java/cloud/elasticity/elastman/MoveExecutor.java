@@ -0,0 +1,51 @@
+/*
+ * This file is part of the ElastMan Elasticity Manager
+ * 
+ * Copyright (C) 2013 Ahmad Al-Shishtawy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cloud.elasticity.elastman;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Moves one partition of the Voldemort store between two servers for the
+ * {@link RebalancePlanner}. Must be thread safe, as the moves of a batch run in parallel.
+ *
+ * @author Ahmad Al-Shishtawy <ahmadas@kth.se>
+ *
+ */
+public interface MoveExecutor {
+
+	/**
+	 * Moves a partition and returns when it is done.
+	 *
+	 * @param move	The partition and the servers.
+	 * @return	The number of bytes moved, or 0 if not known.
+	 * @throws IOException	If the move failed.
+	 */
+	public long move(RebalancePlanner.Move move) throws IOException;
+
+	/**
+	 * Sets the servers to move between before a rebalance. The moves must not look the
+	 * servers up in the live {@link Cluster}, which is updated while they run.
+	 *
+	 * @param addrs	The address of each server ID.
+	 */
+	public void setAddrs(Map<Integer, String> addrs);
+
+}
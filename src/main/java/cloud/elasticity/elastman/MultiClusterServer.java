@@ -0,0 +1,114 @@
+/*
+ * This file is part of the ElastMan Elasticity Manager
+ * 
+ * Copyright (C) 2013 Ahmad Al-Shishtawy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cloud.elasticity.elastman;
+
+import java.util.HashSet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Controls many Voldemort clusters from one ElastMan process.
+ * <p>
+ * Each cluster has its own settings file, listed in the clusters setting. The file holds
+ * the settings that differ from the main settings file, e.g., server.port, voldPrefix,
+ * ycsbPrefix, webSyncServer and the controller settings. Each cluster gets its own
+ * {@link Cluster}, {@link Sensor}, {@link Decider} and {@link Actuator} and listens for
+ * its YCSB clients on its own port. The clusters share
+ * <ul>
+ * <li>one {@link Nova} object, i.e., one jclouds context. With nova.cache the clusters
+ * that decide at about the same time share one listing of the VMs.</li>
+ * <li>one decision stage. The decisions of all clusters are run by one thread, one after
+ * the other, so a cluster costs its collector thread and its state, not a JVM.</li>
+ * </ul>
+ *
+ * @author Ahmad Al-Shishtawy <ahmadas@kth.se>
+ *
+ */
+public class MultiClusterServer {
+
+	static Logger log = LoggerFactory.getLogger(MultiClusterServer.class);
+
+	private final Sensor.Decisions decisions;
+	private final ElastManServer[] servers;
+
+	/**
+	 * Creates the objects of each cluster. The main settings must be loaded first with
+	 * {@link Props#load(String, org.apache.commons.cli.CommandLine)}.
+	 *
+	 * @param nova	The opened Nova object shared by the clusters.
+	 * @param files	The settings file of each cluster.
+	 */
+	public MultiClusterServer(Nova nova, String[] files) {
+		nova.setCacheMillis(Props.nova_cache);
+		decisions = new Sensor.Decisions(Sensor.DECISION_QUEUE * files.length);
+		servers = new ElastManServer[files.length];
+
+		HashSet<Integer> ports = new HashSet<Integer>();
+		HashSet<String> names = new HashSet<String>();
+		String[] prefixes = new String[2 * files.length];
+		for (int i = 0; i < files.length; i++) {
+			Props.loadCluster(files[i]);
+			if(Props.cluster_name.length() == 0) {
+				Props.cluster_name = Props.voldPrefix;
+			}
+			if(!ports.add(Props.server_port)) {
+				throw new IllegalArgumentException("Cluster " + files[i] + " uses the port " + Props.server_port + " of another cluster");
+			}
+			if(!names.add(Props.cluster_name)) {
+				throw new IllegalArgumentException("Cluster " + files[i] + " uses the name " + Props.cluster_name + " of another cluster");
+			}
+			// the VMs of a cluster are found by the prefix of their names
+			prefixes[2*i] = Props.voldPrefix;
+			prefixes[2*i + 1] = Props.ycsbPrefix;
+			for (int j = 0; j < 2*i; j++) {
+				if(prefixes[j].startsWith(Props.voldPrefix) || Props.voldPrefix.startsWith(prefixes[j])
+						|| prefixes[j].startsWith(Props.ycsbPrefix) || Props.ycsbPrefix.startsWith(prefixes[j])) {
+					throw new IllegalArgumentException("The VM names of cluster " + files[i] + " overlap with the names of another cluster");
+				}
+			}
+
+			Cluster cluster = Cluster.fromProps(nova);
+			cluster.updateVMs();
+			servers[i] = new ElastManServer(true, cluster, decisions);
+			servers[i].setName(Props.cluster_name);
+			log.info("Cluster {} from {}: port {}, {} Voldemort VMs", new Object[] {Props.cluster_name, files[i], Props.server_port, cluster.getVoldVMsCount()});
+		}
+	}
+
+	/**
+	 * Controls the clusters until all their servers stop.
+	 */
+	public void run() {
+		decisions.start();
+		for (ElastManServer server : servers) {
+			server.start();
+		}
+		for (ElastManServer server : servers) {
+			try {
+				server.join();
+			} catch (InterruptedException e) {
+				log.warn("Interrupted while waiting for cluster {}", server.getName());
+			}
+		}
+		decisions.close();
+	}
+
+}
@@ -20,6 +20,7 @@
 package cloud.elasticity.elastman;
 
 import java.lang.Thread.UncaughtExceptionHandler;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.CyclicBarrier;
 
@@ -43,6 +44,7 @@ import org.jclouds.rest.RestContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.inject.Module;
 
@@ -72,6 +74,12 @@ public class Nova {
 	private RestContext<NovaApi, NovaAsyncApi> nova;
 	private Set<String> zones;
 
+	// the last list of VMs, shared by the clusters that use this object
+	// not this object's lock, createVMs holds that while it creates the VMs
+	private final Object cacheLock = new Object();
+	private volatile long cacheMillis = 0;
+	private List<Server> cachedVMs = null;
+	private long cachedAt;
 
 
 	/**
@@ -178,6 +186,9 @@ public class Nova {
 
 	 /**
 	  * Get a list of current user VMs in the cluster.
+	  * <p>
+	  * If the list is cached, see {@link #setCacheMillis(long)}, a list younger than the
+	  * cache time is returned without calling the API.
 	  * 
 	  * @return A list of user VMs
 	  */
@@ -187,7 +198,42 @@ public class Nova {
 			 return null;
 		 }
 		 ServerApi serverApi = nova.getApi().getServerApiForZone(zone);
-		 return serverApi.listInDetail().concat();
+		 if(cacheMillis <= 0) {
+			 return serverApi.listInDetail().concat();
+		 }
+		 synchronized (cacheLock) {
+			 long now = System.currentTimeMillis();
+			 if(cachedVMs == null || now - cachedAt >= cacheMillis) {
+				 cachedVMs = ImmutableList.<Server> copyOf(serverApi.listInDetail().concat());
+				 cachedAt = now;
+			 }
+			 return cachedVMs;
+		 }
+	 }
+
+	 /**
+	  * Sets how long a list of VMs is reused. When one process manages many clusters each
+	  * cluster lists all the VMs of the tenant every step. With a cache the clusters that
+	  * decide in the same batch share one call to the API.
+	  * 
+	  * @param cacheMillis	The age in ms of the list to reuse. 0 to always call the API.
+	  */
+	 public void setCacheMillis(long cacheMillis) {
+		 synchronized (cacheLock) {
+			 this.cacheMillis = cacheMillis;
+			 cachedVMs = null;
+		 }
+	 }
+
+
+	 /**
+	  * Drops the cached list of VMs after they were created or deleted, so the next call to
+	  * {@link #getVMs()} sees the change.
+	  */
+	 private void invalidateCache() {
+		 synchronized (cacheLock) {
+			 cachedVMs = null;
+		 }
 	 }
 
 
@@ -206,12 +252,21 @@ public class Nova {
 	 * @return	True if successful. False otherwise.
 	 */
 	public boolean deleteVM(String vmId) {
-		 return nova.getApi().getServerApiForZone(zone).delete(vmId);
+		 boolean deleted = nova.getApi().getServerApiForZone(zone).delete(vmId);
+		 invalidateCache();
+		 return deleted;
 	 }
 
-	 public synchronized void createVMs(int count, String prefix, int startID, String img, String flv, Runnable callback) {
+	 public synchronized void createVMs(int count, String prefix, int startID, String img, String flv, final Runnable callback) {
 
-		 final CyclicBarrier barrier = new CyclicBarrier(count, callback);
+		 final CyclicBarrier barrier = new CyclicBarrier(count, new Runnable() {
+			 public void run() {
+				 invalidateCache();	// the callback must see the new VMs
+				 if(callback != null) {
+					 callback.run();
+				 }
+			 }
+		 });
 		 
 		 for (int nextID = startID; nextID <startID+count; nextID++) {
 			 
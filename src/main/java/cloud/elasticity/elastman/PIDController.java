@@ -64,6 +64,7 @@ public class PIDController {
 	private double iTerm;
 	private double prevError;
 	private boolean firstStep;
+	private boolean warnings = true;
 
 
 
@@ -120,10 +121,14 @@ public class PIDController {
 		// TODO: chenge these constants to setters & getters
 		// limit the error
 		if(error > 20000000) { // 20 micro second
-			log.warn("WARNING!! Very large +ve error: {}", error);
+			if(warnings) {
+				log.warn("WARNING!! Very large +ve error: {}", error);
+			}
 			error=20000000;
 		} else if(error < -20000000) {
-			log.warn("WARNING!! Very large -ve error: {}", error);
+			if(warnings) {
+				log.warn("WARNING!! Very large -ve error: {}", error);
+			}
 			error=-20000000;
 		}
 		
@@ -140,10 +145,14 @@ public class PIDController {
 		//integrator windup
 		if(iTerm > 10000000) {
 			iTerm = 1500000;
-			log.warn("WARNING!! Integrator windup +");
+			if(warnings) {
+				log.warn("WARNING!! Integrator windup +");
+			}
 		} else if(iTerm < -10000000) {
 			iTerm= -1500000;
-			log.warn("WARNING!! Integrator windup -");
+			if(warnings) {
+				log.warn("WARNING!! Integrator windup -");
+			}
 		}	
 
 		// Calculate D term
@@ -162,7 +171,32 @@ public class PIDController {
 		//		   }
 
 		// TODO: check the two PID controllers types. One relative and one abslute. Make a flage for it
-		return outOp; // TODO: check if denormalize output
+		return outOp + output; // denormalize output
+	}
+	
+	/**
+	 * Changes the gains, e.g., when the model of the system is updated.
+	 * 
+	 * @param kp P controller gain.
+	 * @param ki I controller gain.
+	 * @param kd D controller gain.
+	 */
+	public void setGains(double kp, double ki, double kd) {
+		this.kp = kp;
+		this.ki = ki;
+		this.kd = kd;
+	}
+	
+	/**
+	 * Turns the warnings about large errors and integrator windup on or off, e.g., for
+	 * offline simulations of many controllers.
+	 */
+	public void setWarnings(boolean warnings) {
+		this.warnings = warnings;
+	}
+	
+	public double getKp() {
+		return kp;
 	}
 
 	
@@ -36,7 +36,13 @@ public class PartitionGenerator {
 	public static void main(String[] args) {
 		// TODO Auto-generated method stub
 		for (int i = 1; i <= 60; i++) {
-			calc(60, i);
+			int x = 0, c = 0;
+			for (ArrayList<Integer> arrayList : calc(60, i)) {
+				System.out.print(++c + ": " + arrayList.size() + ":\t");
+				System.out.println(arrayList);
+				x += arrayList.size();
+			}
+			System.out.println("Total: " + x );
 			System.out.println("\n############################################\n");
 		}
 	}
@@ -44,7 +50,7 @@ public class PartitionGenerator {
 	private static ArrayList<Integer> parts = null;
 	
 	@SuppressWarnings("unchecked")
-	public static ArrayList<ArrayList<Integer>> calc(int part, int vms) {// number of total partitions and required number of VMs
+	public static synchronized ArrayList<ArrayList<Integer>> calc(int part, int vms) {// number of total partitions and required number of VMs
 		if(parts==null || parts.size() != part) {
 //			System.out.println("Randomizing!!");
 			parts = new ArrayList<Integer>(part);
@@ -94,17 +100,44 @@ public class PartitionGenerator {
 
 		}
 
-
-		int x = 0, c = 0;
-		for (ArrayList<Integer> arrayList : current) {
-			System.out.print(++c + ": " + arrayList.size() + ":\t");
-			System.out.println(arrayList);
-			x += arrayList.size();
-		}
-		System.out.println("Total: " + x );
-
 		return current;
 	}
+	
+	/**
+	 * @param part	The number of partitions.
+	 * @param vms	The number of VMs.
+	 * @return	The ID of the VM that owns each partition.
+	 */
+	public static int[] owners(int part, int vms) {
+		int[] owner = new int[part];
+		ArrayList<ArrayList<Integer>> layout = calc(part, vms);
+		for (int i = 0; i < layout.size(); i++) {
+			for (Integer p : layout.get(i)) {
+				owner[p] = i;
+			}
+		}
+		return owner;
+	}
+	
+	/**
+	 * Counts the partitions that change owner when the cluster is resized.
+	 * 
+	 * @param part	The number of partitions.
+	 * @param from	The current number of VMs.
+	 * @param to	The new number of VMs.
+	 * @return	The number of partitions to move.
+	 */
+	public static int moved(int part, int from, int to) {
+		int[] before = owners(part, from);
+		int[] after = owners(part, to);
+		int moved = 0;
+		for (int p = 0; p < part; p++) {
+			if(before[p] != after[p]) {
+				moved++;
+			}
+		}
+		return moved;
+	}
 
 
 }
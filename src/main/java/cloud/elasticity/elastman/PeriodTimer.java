@@ -0,0 +1,123 @@
+/*
+ * This file is part of the ElastMan Elasticity Manager
+ *
+ * Copyright (C) 2013 Ahmad Al-Shishtawy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cloud.elasticity.elastman;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A fixed-rate timer for the sampling loop.
+ * <p>
+ * The timer fires at exact multiples of the period from {@link #start()} using the
+ * monotonic {@link System#nanoTime()} clock, so the time spent collecting data and
+ * deciding does not add up over the periods. {@link #awaitNext()} returns the true
+ * elapsed time since the previous tick to be used in the throughput calculations.
+ * <p>
+ * If the work of a period takes longer than the period, the next tick fires right away,
+ * the overrun is reported and the timer moves to the next boundary on its grid.
+ * <p>
+ * Another thread can end the current period early with {@link #wakeUp()}, e.g., when a
+ * load spike is detected. The grid then restarts from the early tick.
+ *
+ * @author Ahmad Al-Shishtawy <ahmadas@kth.se>
+ *
+ */
+public class PeriodTimer {
+
+	static Logger log = LoggerFactory.getLogger(PeriodTimer.class);
+
+	private final long periodNs;
+	private long last;	// time of the last tick
+	private long next;	// time of the next tick
+	private long overruns = 0;
+	private boolean woken = false;
+
+	/**
+	 * @param periodNs	The period in nano seconds.
+	 */
+	public PeriodTimer(long periodNs) {
+		this.periodNs = periodNs;
+		start();
+	}
+
+	/**
+	 * Starts the period grid from now.
+	 */
+	public synchronized void start() {
+		woken = false;
+		last = System.nanoTime();
+		next = last + periodNs;
+	}
+
+	/**
+	 * Waits for the next period boundary or a call to {@link #wakeUp()}.
+	 *
+	 * @return The time in nano seconds since the previous tick.
+	 */
+	public synchronized long awaitNext() {
+		long now = System.nanoTime();
+		if(now >= next && !woken) {
+			overruns++;
+			log.warn("Overrun! Collection and decision took {} ms longer than the period", (now - next) / 1000000);
+		}
+		while(now < next && !woken) {
+			long left = next - now;
+			try {
+				wait(left / 1000000, (int)(left % 1000000));
+			} catch (InterruptedException e) {
+				log.error(e.getMessage());
+			}
+			now = System.nanoTime();
+		}
+		long elapsed = now - last;
+		last = now;
+		if(woken) {	// early tick. Start a new grid from here
+			woken = false;
+			next = now + periodNs;
+			return elapsed;
+		}
+		// stay on the grid. After an overrun skip the boundaries that already passed
+		next += periodNs;
+		if(next <= now) {
+			next += ((now - next) / periodNs + 1) * periodNs;
+		}
+		return elapsed;
+	}
+
+	/**
+	 * Ends the current period now. If the period already ended the next one ends right away.
+	 */
+	public synchronized void wakeUp() {
+		woken = true;
+		notifyAll();
+	}
+
+	/**
+	 * @return The number of periods in which the work took longer than the period.
+	 */
+	public long getOverruns() {
+		return overruns;
+	}
+
+	public long getPeriodNs() {
+		return periodNs;
+	}
+
+}
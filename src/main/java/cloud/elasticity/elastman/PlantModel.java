@@ -0,0 +1,151 @@
+/*
+ * This file is part of the ElastMan Elasticity Manager
+ *
+ * Copyright (C) 2013 Ahmad Al-Shishtawy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cloud.elasticity.elastman;
+
+/**
+ * An identified ARX model of the store: the p99 latency y as a function of its past values
+ * and of the throughput per server u,
+ * <pre>
+ * y(k) = c + a[0]*y(k-1) + ... + a[na-1]*y(k-na) + b[0]*u(k) + ... + b[nb-1]*u(k-nb+1)
+ * </pre>
+ * The throughput of a period affects the latency of the same period, so b[0] has no delay.
+ * The model is fitted by {@link ModelFitter} and stored in the model.* settings.
+ *
+ * @author Ahmad Al-Shishtawy <ahmadas@kth.se>
+ *
+ */
+public class PlantModel {
+
+	private final double c;
+	private final double[] a, b;
+
+	/**
+	 * @param c	The constant term.
+	 * @param a	The coefficients of the past outputs.
+	 * @param b	The coefficients of the inputs. At least one.
+	 */
+	public PlantModel(double c, double[] a, double[] b) {
+		if(b.length == 0) {
+			throw new IllegalArgumentException("The model needs at least one input coefficient");
+		}
+		this.c = c;
+		this.a = a.clone();
+		this.b = b.clone();
+	}
+
+	/**
+	 * @return	The model in the model.* settings, or null if there is none.
+	 */
+	public static PlantModel fromProps() {
+		if(Props.model_b == null || Props.model_b.length == 0) {
+			return null;
+		}
+		return new PlantModel(Props.model_c, Props.model_a, Props.model_b);
+	}
+
+	/**
+	 * @return	The number of past samples the model needs.
+	 */
+	public int getLag() {
+		return Math.max(a.length, b.length - 1);
+	}
+
+	/**
+	 * Predicts one step.
+	 *
+	 * @param y	The past outputs. y[k-1] is the last one.
+	 * @param u	The inputs. u[k] is the input of the predicted step.
+	 * @param k	The step to predict. At least {@link #getLag()}.
+	 * @return	The predicted y[k].
+	 */
+	public double predict(double[] y, double[] u, int k) {
+		double p = c;
+		for (int i = 0; i < a.length; i++) {
+			p += a[i] * y[k-1-i];
+		}
+		for (int j = 0; j < b.length; j++) {
+			p += b[j] * u[k-j];
+		}
+		return p;
+	}
+
+	/**
+	 * @return	The sum of the coefficients of the past outputs.
+	 */
+	public double getSumA() {
+		double s = 0;
+		for (int i = 0; i < a.length; i++) {
+			s += a[i];
+		}
+		return s;
+	}
+
+	/**
+	 * @return	The sum of the coefficients of the inputs.
+	 */
+	public double getSumB() {
+		double s = 0;
+		for (int j = 0; j < b.length; j++) {
+			s += b[j];
+		}
+		return s;
+	}
+
+	/**
+	 * @return	The change of the steady-state latency per unit of throughput per server.
+	 */
+	public double getStaticGain() {
+		return getSumB() / (1 - getSumA());
+	}
+
+	/**
+	 * @param u	A constant throughput per server.
+	 * @return	The latency the model settles at.
+	 */
+	public double steadyState(double u) {
+		return (c + getSumB()*u) / (1 - getSumA());
+	}
+
+	/**
+	 * @param y	A latency.
+	 * @return	The constant throughput per server at which the model settles at y.
+	 */
+	public double inverse(double y) {
+		return (y*(1 - getSumA()) - c) / getSumB();
+	}
+
+	public double getC() {
+		return c;
+	}
+
+	public double[] getA() {
+		return a.clone();
+	}
+
+	public double[] getB() {
+		return b.clone();
+	}
+
+	@Override
+	public String toString() {
+		return "ARX(" + a.length + "," + b.length + ")";
+	}
+
+}
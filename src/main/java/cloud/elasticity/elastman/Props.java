@@ -58,11 +58,46 @@ public class Props {
 	public static int ident_sampling;
 	public static boolean ident_client_manual;
 	public static int control_interval;
+	public static int sensor_deadline;
+	public static boolean sensor_push;
+	public static boolean sensor_histogram;
+	public static int sensor_window;
+	public static int sensor_spike_slots;
+	public static int recorder_flush;
+	public static String recorder_format;
+	public static int sim_boot;
+	public static int sim_boot_jitter;
+	public static int sim_nova_parallel;
+	public static int sim_nova_rate;
+	public static double sim_node_read;
+	public static double sim_node_mixed;
+	public static double sim_client_ops;
+	public static double sim_client_read;
+	public static double sim_partition_time;
+	public static double sim_rebalance_load;
+	public static long sim_seed;
 	public static int voldCount;	// actual number of VoldVMs participating in the store according to the cluster.xml
 	public static boolean createVMs;
 	public static int voldMax;
 	public static int voldMin;
 	public static int voldDeltaMax;
+	public static int pool_min;
+	public static int pool_max;
+	public static int pool_window;
+	public static boolean probe_enabled;
+	public static int probe_interval;
+	public static int probe_timeout;
+	public static int settle_slots;
+	public static double settle_tolerance;
+	public static boolean rebalance_planner;
+	public static int rebalance_parallel;
+	public static String rebalance_move;
+	public static boolean rebalance_throttle;
+	public static int rebalance_parallel_min;
+	public static int rebalance_parallel_max;
+	public static double rebalance_throttle_high;
+	public static double rebalance_throttle_low;
+	public static double rebalance_throttle_decrease;
 
 	
 	public static double control_kp;
@@ -71,9 +106,33 @@ public class Props {
 	public static double control_inOp;
 	public static double control_outOp;
 	public static double filter_alpha;
+	public static String filter_type;
+	public static double filter_kalman_noise;
+	public static double filter_kalman_process;
+	public static double filter_z;
 	public static int control_warmup;
 	public static double control_dead;
 	public static double control_ff_throughputDelta;
+	public static boolean control_adaptive;
+	public static double control_adaptive_lambda;
+	public static double control_adaptive_pole;
+	public static String control_mode;
+	public static int control_mpc_horizon;
+	public static int control_mpc_delay;
+	public static double control_mpc_sla;
+	public static double control_mpc_vm;
+	public static boolean forecast_enabled;
+	public static int forecast_season;
+	public static double forecast_alpha;
+	public static double forecast_beta;
+	public static double forecast_gamma;
+	public static int forecast_lead;
+	public static double model_c;
+	public static double[] model_a;
+	public static double[] model_b;
+	public static double capacity_lambda;
+	public static double capacity_z;
+	public static double capacity_window;
 	public static double control_ffr1;
 	public static double control_ffw1;
 	public static double control_ffr2;
@@ -86,7 +145,12 @@ public class Props {
 	public static String ycsbPrefix;
 	public static String ycsbImage;
 	public static String ycsbFlavor;
+	public static String[] clusters;
+	public static String cluster_name;
+	public static int nova_cache;
 	
+	// the settings shared by all clusters, i.e., the file given to load() and the command line
+	private static Properties shared = null;
 	
 
 	public static void load(String filename, CommandLine cmd){
@@ -127,7 +191,37 @@ public class Props {
 		if(cmd.hasOption("s")) {
 			properties.setProperty("webSyncServer", cmd.getOptionValue("s"));
 		}
+		shared = properties;
 		
+		parse();
+	}
+	
+	/**
+	 * Loads the settings of one cluster of a multi-cluster setup. The settings in the file
+	 * override the ones loaded by {@link #load(String, CommandLine)}, which are used for
+	 * the settings missing from the file.
+	 * <p>
+	 * The static fields then hold the settings of this cluster until the next call, so
+	 * the objects of a cluster must be created right after loading its settings.
+	 * 
+	 * @param filename	The settings file of the cluster.
+	 */
+	public static void loadCluster(String filename) {
+		properties = new Properties(shared);
+		try {
+			FileInputStream propFile = new FileInputStream(filename);
+			properties.load(propFile);
+			propFile.close();
+		} catch (FileNotFoundException e1) {
+			log.warn("Cluster properties file {} not found!! Using the shared settings", filename);
+		} catch (IOException e) {
+			log.error("Cluster properties file {} I/O error!! Using the shared settings", filename);
+		}
+		
+		parse();
+	}
+	
+	private static void parse() {
 		username = properties.getProperty("username", "OpenstackDemo:user");
 		password = properties.getProperty("password");
 		keyname = properties.getProperty("keyname", "mykey");
@@ -146,12 +240,47 @@ public class Props {
 		ident_client_manual = Boolean.parseBoolean(properties.getProperty("ident.client.manual","false"));
 
 		control_interval = Integer.parseInt(properties.getProperty("control.interval","300"));
+		sensor_deadline = Integer.parseInt(properties.getProperty("sensor.deadline","40"));
+		sensor_push = Boolean.parseBoolean(properties.getProperty("sensor.push","false"));
+		sensor_histogram = Boolean.parseBoolean(properties.getProperty("sensor.histogram","false"));
+		sensor_window = Integer.parseInt(properties.getProperty("sensor.window","10"));
+		sensor_spike_slots = Integer.parseInt(properties.getProperty("sensor.spike.slots","2"));
+		recorder_flush = Integer.parseInt(properties.getProperty("recorder.flush","1000"));
+		recorder_format = properties.getProperty("recorder.format","tsv");
+		sim_boot = Integer.parseInt(properties.getProperty("sim.boot","90"));
+		sim_boot_jitter = Integer.parseInt(properties.getProperty("sim.boot.jitter","30"));
+		sim_nova_parallel = Integer.parseInt(properties.getProperty("sim.nova.parallel","4"));
+		sim_nova_rate = Integer.parseInt(properties.getProperty("sim.nova.rate","10"));
+		sim_node_read = Double.parseDouble(properties.getProperty("sim.node.read","3800"));
+		sim_node_mixed = Double.parseDouble(properties.getProperty("sim.node.mixed","1500"));
+		sim_client_ops = Double.parseDouble(properties.getProperty("sim.client.ops","1000"));
+		sim_client_read = Double.parseDouble(properties.getProperty("sim.client.read","0.9"));
+		sim_partition_time = Double.parseDouble(properties.getProperty("sim.partition.time","4"));
+		sim_rebalance_load = Double.parseDouble(properties.getProperty("sim.rebalance.load","0.25"));
+		sim_seed = Long.parseLong(properties.getProperty("sim.seed","1"));
 		
 		voldCount = Integer.parseInt(properties.getProperty("cloud.voldVMs","0"));
 		createVMs = Boolean.parseBoolean(properties.getProperty("act.createVMs","true"));
 		voldMax = Integer.parseInt(properties.getProperty("act.voldMax","27"));
 		voldMin = Integer.parseInt(properties.getProperty("act.voldMin","3"));
 		voldDeltaMax = Integer.parseInt(properties.getProperty("act.voldDeltaMax","7"));
+		pool_min = Integer.parseInt(properties.getProperty("pool.min","0"));
+		pool_max = Integer.parseInt(properties.getProperty("pool.max","0"));	// 0 for no warm pool
+		pool_window = Integer.parseInt(properties.getProperty("pool.window","3600"));	// in sec
+		probe_enabled = Boolean.parseBoolean(properties.getProperty("probe.enabled","true"));
+		probe_interval = Integer.parseInt(properties.getProperty("probe.interval","5"));	// in sec
+		probe_timeout = Integer.parseInt(properties.getProperty("probe.timeout","2000"));	// in ms
+		settle_slots = Integer.parseInt(properties.getProperty("settle.slots","3"));
+		settle_tolerance = Double.parseDouble(properties.getProperty("settle.tolerance","0.2"));
+		rebalance_planner = Boolean.parseBoolean(properties.getProperty("rebalance.planner","false"));	// false to run ./myrebalance
+		rebalance_parallel = Integer.parseInt(properties.getProperty("rebalance.parallel","3"));
+		rebalance_move = properties.getProperty("rebalance.move","./mymove");
+		rebalance_throttle = Boolean.parseBoolean(properties.getProperty("rebalance.throttle","true"));	// only with the planner
+		rebalance_parallel_min = Integer.parseInt(properties.getProperty("rebalance.parallel.min","1"));
+		rebalance_parallel_max = Integer.parseInt(properties.getProperty("rebalance.parallel.max","6"));
+		rebalance_throttle_high = Double.parseDouble(properties.getProperty("rebalance.throttle.high","0.9"));	// of control.inOp
+		rebalance_throttle_low = Double.parseDouble(properties.getProperty("rebalance.throttle.low","0.7"));	// of control.inOp
+		rebalance_throttle_decrease = Double.parseDouble(properties.getProperty("rebalance.throttle.decrease","0.5"));
 		
 		
 		control_kp=Double.parseDouble(properties.getProperty("control.kp","0"));
@@ -162,10 +291,38 @@ public class Props {
 		control_outOp = Double.parseDouble(properties.getProperty("control.outOp","1400"));
 
 		filter_alpha = Double.parseDouble(properties.getProperty("filter.alpha","0.4"));
+		filter_type = properties.getProperty("filter.type","ewma");
+		filter_kalman_noise = Double.parseDouble(properties.getProperty("filter.kalman.noise","500000"));
+		filter_kalman_process = Double.parseDouble(properties.getProperty("filter.kalman.process","100000"));
+		filter_z = Double.parseDouble(properties.getProperty("filter.z","1"));
 		control_warmup = Integer.parseInt(properties.getProperty("control.warmup","4"));
 		control_dead = Double.parseDouble(properties.getProperty("control.dead","500000"));
 		control_ff_throughputDelta = Double.parseDouble(properties.getProperty("control.ff.throughputDelta","1400"));
 		
+		control_adaptive = Boolean.parseBoolean(properties.getProperty("control.adaptive","false"));
+		control_adaptive_lambda = Double.parseDouble(properties.getProperty("control.adaptive.lambda","0.95"));
+		control_adaptive_pole = Double.parseDouble(properties.getProperty("control.adaptive.pole","0.5"));
+		
+		control_mode = properties.getProperty("control.mode","pid");
+		control_mpc_horizon = Integer.parseInt(properties.getProperty("control.mpc.horizon","6"));
+		control_mpc_delay = Integer.parseInt(properties.getProperty("control.mpc.delay","1"));
+		control_mpc_sla = Double.parseDouble(properties.getProperty("control.mpc.sla","10"));
+		control_mpc_vm = Double.parseDouble(properties.getProperty("control.mpc.vm","0.001"));
+		
+		forecast_enabled = Boolean.parseBoolean(properties.getProperty("forecast.enabled","false"));
+		forecast_season = Integer.parseInt(properties.getProperty("forecast.season","288"));	// a day of 5 min steps
+		forecast_alpha = Double.parseDouble(properties.getProperty("forecast.alpha","0.2"));
+		forecast_beta = Double.parseDouble(properties.getProperty("forecast.beta","0.01"));
+		forecast_gamma = Double.parseDouble(properties.getProperty("forecast.gamma","0.3"));
+		forecast_lead = Integer.parseInt(properties.getProperty("forecast.lead","600"));	// boot, start and rebalance in sec
+		
+		model_c = Double.parseDouble(properties.getProperty("model.c","0"));
+		model_a = parseDoubles(properties.getProperty("model.a",""));
+		model_b = parseDoubles(properties.getProperty("model.b",""));
+		
+		capacity_lambda = Double.parseDouble(properties.getProperty("capacity.lambda","0.99"));
+		capacity_z = Double.parseDouble(properties.getProperty("capacity.z","2"));
+		capacity_window = Double.parseDouble(properties.getProperty("capacity.window","0.5"));
 		control_ffr1 = Double.parseDouble(properties.getProperty("control.ff.r1","1980"));
 		control_ffw1 = Double.parseDouble(properties.getProperty("control.ff.w1","220"));
 		control_ffr2 = Double.parseDouble(properties.getProperty("control.ff.r2","0"));
@@ -179,6 +336,11 @@ public class Props {
 		ycsbPrefix = properties.getProperty("ycsbPrefix","ycsb");
 		ycsbImage = properties.getProperty("ycsbImage");
 		ycsbFlavor = properties.getProperty("ycsbFlavor","3");
+		
+		String list = properties.getProperty("clusters","").trim();
+		clusters = list.length() == 0 ? new String[0] : list.split("\\s*,\\s*");
+		cluster_name = properties.getProperty("cluster.name","");
+		nova_cache = Integer.parseInt(properties.getProperty("nova.cache","0"));
 				
 	}
 	
@@ -198,11 +360,46 @@ public class Props {
 		properties.setProperty("ident.sampling", ""+ident_sampling);
 		properties.setProperty("ident.client.manual", ""+ident_client_manual);
 		properties.setProperty("control.interval", ""+control_interval);
+		properties.setProperty("sensor.deadline", ""+sensor_deadline);
+		properties.setProperty("sensor.push", ""+sensor_push);
+		properties.setProperty("sensor.histogram", ""+sensor_histogram);
+		properties.setProperty("sensor.window", ""+sensor_window);
+		properties.setProperty("sensor.spike.slots", ""+sensor_spike_slots);
+		properties.setProperty("recorder.flush", ""+recorder_flush);
+		properties.setProperty("recorder.format", recorder_format);
+		properties.setProperty("sim.boot", ""+sim_boot);
+		properties.setProperty("sim.boot.jitter", ""+sim_boot_jitter);
+		properties.setProperty("sim.nova.parallel", ""+sim_nova_parallel);
+		properties.setProperty("sim.nova.rate", ""+sim_nova_rate);
+		properties.setProperty("sim.node.read", ""+sim_node_read);
+		properties.setProperty("sim.node.mixed", ""+sim_node_mixed);
+		properties.setProperty("sim.client.ops", ""+sim_client_ops);
+		properties.setProperty("sim.client.read", ""+sim_client_read);
+		properties.setProperty("sim.partition.time", ""+sim_partition_time);
+		properties.setProperty("sim.rebalance.load", ""+sim_rebalance_load);
+		properties.setProperty("sim.seed", ""+sim_seed);
 		properties.setProperty("cloud.voldVMs", ""+voldCount);
 		properties.setProperty("act.createVMs", ""+createVMs);
 		properties.setProperty("act.voldMax", ""+voldMax);
 		properties.setProperty("act.voldMin", ""+voldMin);
 		properties.setProperty("act.voldDeltaMax", ""+voldDeltaMax);
+		properties.setProperty("pool.min", ""+pool_min);
+		properties.setProperty("pool.max", ""+pool_max);
+		properties.setProperty("pool.window", ""+pool_window);
+		properties.setProperty("probe.enabled", ""+probe_enabled);
+		properties.setProperty("probe.interval", ""+probe_interval);
+		properties.setProperty("probe.timeout", ""+probe_timeout);
+		properties.setProperty("settle.slots", ""+settle_slots);
+		properties.setProperty("settle.tolerance", ""+settle_tolerance);
+		properties.setProperty("rebalance.planner", ""+rebalance_planner);
+		properties.setProperty("rebalance.parallel", ""+rebalance_parallel);
+		properties.setProperty("rebalance.move", rebalance_move);
+		properties.setProperty("rebalance.throttle", ""+rebalance_throttle);
+		properties.setProperty("rebalance.parallel.min", ""+rebalance_parallel_min);
+		properties.setProperty("rebalance.parallel.max", ""+rebalance_parallel_max);
+		properties.setProperty("rebalance.throttle.high", ""+rebalance_throttle_high);
+		properties.setProperty("rebalance.throttle.low", ""+rebalance_throttle_low);
+		properties.setProperty("rebalance.throttle.decrease", ""+rebalance_throttle_decrease);
 
 
 		properties.setProperty("control.kp", ""+control_kp);
@@ -213,10 +410,35 @@ public class Props {
 		properties.setProperty("control.outOp", ""+control_outOp);
 		
 		properties.setProperty("filter.alpha", ""+filter_alpha);
+		properties.setProperty("filter.type", filter_type);
+		properties.setProperty("filter.kalman.noise", ""+filter_kalman_noise);
+		properties.setProperty("filter.kalman.process", ""+filter_kalman_process);
+		properties.setProperty("filter.z", ""+filter_z);
 		properties.setProperty("control.warmup", ""+control_warmup);
 		properties.setProperty("control.dead", ""+control_dead);
 		properties.setProperty("control.ff.throughputDelta", ""+control_ff_throughputDelta);
 		
+		properties.setProperty("control.adaptive", ""+control_adaptive);
+		properties.setProperty("control.adaptive.lambda", ""+control_adaptive_lambda);
+		properties.setProperty("control.adaptive.pole", ""+control_adaptive_pole);
+		properties.setProperty("control.mode", control_mode);
+		properties.setProperty("control.mpc.horizon", ""+control_mpc_horizon);
+		properties.setProperty("control.mpc.delay", ""+control_mpc_delay);
+		properties.setProperty("control.mpc.sla", ""+control_mpc_sla);
+		properties.setProperty("control.mpc.vm", ""+control_mpc_vm);
+		properties.setProperty("forecast.enabled", ""+forecast_enabled);
+		properties.setProperty("forecast.season", ""+forecast_season);
+		properties.setProperty("forecast.alpha", ""+forecast_alpha);
+		properties.setProperty("forecast.beta", ""+forecast_beta);
+		properties.setProperty("forecast.gamma", ""+forecast_gamma);
+		properties.setProperty("forecast.lead", ""+forecast_lead);
+		properties.setProperty("model.c", ""+model_c);
+		properties.setProperty("model.a", toString(model_a));
+		properties.setProperty("model.b", toString(model_b));
+		
+		properties.setProperty("capacity.lambda", ""+capacity_lambda);
+		properties.setProperty("capacity.z", ""+capacity_z);
+		properties.setProperty("capacity.window", ""+capacity_window);
 		properties.setProperty("control.ff.r1", ""+control_ffr1);
 		properties.setProperty("control.ff.w1", ""+control_ffw1);
 		properties.setProperty("control.ff.r2", ""+control_ffr2);
@@ -231,6 +453,9 @@ public class Props {
 		properties.setProperty("ycsbPrefix", ycsbPrefix);
 		properties.setProperty("ycsbImage", ycsbImage);
 		properties.setProperty("ycsbFlavor", ycsbFlavor);
+		properties.setProperty("clusters", join(clusters));
+		properties.setProperty("cluster.name", cluster_name);
+		properties.setProperty("nova.cache", ""+nova_cache);
 
 //		properties.setProperty(, ""+);
 //		properties.setProperty(, ""+);
@@ -254,5 +479,51 @@ public class Props {
 		}
 		
 	}
+	
+	/**
+	 * @param s	Comma separated numbers, e.g., "0.5,0.2". Might be empty.
+	 * @return	The numbers.
+	 */
+	static double[] parseDoubles(String s) {
+		if(s.trim().length() == 0) {
+			return new double[0];
+		}
+		String[] parts = s.split(",");
+		double[] d = new double[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			d[i] = Double.parseDouble(parts[i].trim());
+		}
+		return d;
+	}
+	
+	/**
+	 * @param names	Names.
+	 * @return	The names separated by commas.
+	 */
+	static String join(String[] names) {
+		StringBuilder s = new StringBuilder();
+		for (int i = 0; i < names.length; i++) {
+			if(i > 0) {
+				s.append(',');
+			}
+			s.append(names[i]);
+		}
+		return s.toString();
+	}
+	
+	/**
+	 * @param d	Numbers.
+	 * @return	The numbers separated by commas.
+	 */
+	static String toString(double[] d) {
+		StringBuilder s = new StringBuilder();
+		for (int i = 0; i < d.length; i++) {
+			if(i > 0) {
+				s.append(',');
+			}
+			s.append(d[i]);
+		}
+		return s.toString();
+	}
 
 }
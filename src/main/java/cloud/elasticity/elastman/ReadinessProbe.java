@@ -0,0 +1,213 @@
+/*
+ * This file is part of the ElastMan Elasticity Manager
+ * 
+ * Copyright (C) 2013 Ahmad Al-Shishtawy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cloud.elasticity.elastman;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tells the {@link Actuator} when it is safe to go on, instead of sleeping a fixed time.
+ * <ul>
+ * <li>New Voldemort VMs are ready when their socket and admin ports accept connections.</li>
+ * <li>The store has settled after a rebalance when the p99 of the read latency of the
+ * last few slots of the {@link SlidingWindow} is stable, i.e., the difference of the
+ * largest and smallest is within a tolerance of their mean.</li>
+ * </ul>
+ * Both waits end at the latest after the max time, which is the fixed time waited before.
+ * Without a window, i.e., if the clients do not stream their data, the settle wait is
+ * always the max time.
+ *
+ * @author Ahmad Al-Shishtawy <ahmadas@kth.se>
+ *
+ */
+public class ReadinessProbe {
+
+	static Logger log = LoggerFactory.getLogger(ReadinessProbe.class);
+
+	// as in the cluster.xml generated by Cluster.genCluster
+	public static final int SOCKET_PORT = 6666;
+	public static final int ADMIN_PORT = 6667;
+
+	private final SlidingWindow window;	// null if none
+	private final long slotMs;
+	private final long intervalMs;
+	private final int timeoutMs;
+	private final double[] p99;	// of the last slots
+	private final double tolerance;
+
+	/**
+	 * @param window		The latency stream of the sensor, or null.
+	 * @param slotSec		The length of a slot of the window in seconds.
+	 * @param intervalSec	The time between two probes of the ports.
+	 * @param timeoutMs		The connect timeout of a probe.
+	 * @param slots			The number of stable slots needed to have settled.
+	 * @param tolerance		The allowed difference of the p99 of the slots relative to their mean.
+	 */
+	public ReadinessProbe(SlidingWindow window, int slotSec, int intervalSec, int timeoutMs, int slots, double tolerance) {
+		this.window = window;
+		this.slotMs = slotSec * 1000L;
+		this.intervalMs = intervalSec * 1000L;
+		this.timeoutMs = timeoutMs;
+		this.p99 = new double[slots];
+		this.tolerance = tolerance;
+	}
+
+	/**
+	 * Creates a probe using the probe.* and settle.* settings in {@link Props}.
+	 *
+	 * @param window	The latency stream of the sensor, or null.
+	 */
+	public static ReadinessProbe fromProps(SlidingWindow window) {
+		return new ReadinessProbe(window, Props.sensor_window, Props.probe_interval, Props.probe_timeout,
+				Props.settle_slots, Props.settle_tolerance);
+	}
+
+	/**
+	 * Finds the addresses of the new VMs, which might not all be known yet.
+	 */
+	public interface Hosts {
+		/**
+		 * @return	The addresses known now.
+		 */
+		public List<String> get();
+	}
+
+	/**
+	 * Waits till Voldemort accepts connections on all hosts. Asks for the hosts again while
+	 * fewer than expected are known, as a VM only has an address after it was scheduled.
+	 *
+	 * @param hosts		The addresses of the new VMs.
+	 * @param expected	The number of new VMs.
+	 * @param maxMs		The max time to wait.
+	 * @return	true if all are ready, false if the time is up.
+	 */
+	public boolean awaitReady(Hosts hosts, int expected, long maxMs) {
+		long start = System.currentTimeMillis();
+		List<String> known = hosts.get();
+		int next = 0;	// the hosts before it are ready
+		while(true) {
+			if(known.size() < expected) {
+				known = hosts.get();
+				next = 0;
+			}
+			while(next < known.size() && isOpen(known.get(next), SOCKET_PORT, timeoutMs)
+					&& isOpen(known.get(next), ADMIN_PORT, timeoutMs)) {
+				next++;
+			}
+			long waited = System.currentTimeMillis() - start;
+			if(next == known.size() && known.size() >= expected) {
+				log.info("Voldemort is up on {} new VMs after {} sec", known.size(), waited/1000);
+				return true;
+			}
+			if(waited + intervalMs > maxMs) {
+				sleep(maxMs - waited);
+				if(next < known.size()) {
+					log.warn("Voldemort is not up on {} after {} sec. Going on", known.get(next), maxMs/1000);
+				} else {
+					log.warn("Only {} of {} new VMs have an address after {} sec. Going on", new Object[] {known.size(), expected, maxMs/1000});
+				}
+				return false;
+			}
+			sleep(intervalMs);
+		}
+	}
+
+	/**
+	 * Waits till the latency is stable.
+	 *
+	 * @param maxMs	The max time to wait.
+	 * @return	true if settled, false if the time is up.
+	 */
+	public boolean awaitSettled(long maxMs) {
+		if(window == null || slotMs <= 0) {
+			sleep(maxMs);
+			return false;
+		}
+		long start = System.currentTimeMillis();
+		int n = 0;
+		while(System.currentTimeMillis() - start + slotMs <= maxMs) {
+			sleep(slotMs);	// a new slot is complete
+			p99[n % p99.length] = window.getReadP99(1);
+			n++;
+			if(n >= p99.length && isStable(p99, tolerance)) {
+				log.info("The store settled after {} sec", (System.currentTimeMillis() - start)/1000);
+				return true;
+			}
+		}
+		sleep(maxMs - (System.currentTimeMillis() - start));
+		log.info("The store did not settle in {} sec. Going on", maxMs/1000);
+		return false;
+	}
+
+	/**
+	 * @param values	The p99 of the last slots.
+	 * @param tolerance	The allowed difference relative to the mean.
+	 * @return	true if there is data in all slots and the largest minus the smallest is
+	 * 			within tolerance times the mean.
+	 */
+	static boolean isStable(double[] values, double tolerance) {
+		double min = Double.POSITIVE_INFINITY, max = 0, sum = 0;
+		for (int i = 0; i < values.length; i++) {
+			if(Double.isNaN(values[i])) {
+				return false;
+			}
+			min = Math.min(min, values[i]);
+			max = Math.max(max, values[i]);
+			sum += values[i];
+		}
+		return max - min <= tolerance * sum / values.length;
+	}
+
+	/**
+	 * @return	true if the port accepts a connection.
+	 */
+	static boolean isOpen(String host, int port, int timeoutMs) {
+		Socket s = new Socket();
+		try {
+			s.connect(new InetSocketAddress(host, port), timeoutMs);
+			return true;
+		} catch (IOException e) {
+			return false;
+		} finally {
+			try {
+				s.close();
+			} catch (IOException e) {
+				// ignore
+			}
+		}
+	}
+
+	private static void sleep(long ms) {
+		if(ms <= 0) {
+			return;
+		}
+		try {
+			Thread.sleep(ms);
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+
+}
@@ -0,0 +1,341 @@
+/*
+ * This file is part of the ElastMan Elasticity Manager
+ * 
+ * Copyright (C) 2013 Ahmad Al-Shishtawy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cloud.elasticity.elastman;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Rebalances the Voldemort store in process, instead of running the rebalance tool as one
+ * blocking command.
+ * <p>
+ * {@link #plan(int, int, int)} diffs the layouts of the {@link PartitionGenerator} before and
+ * after a resize into one move per partition that changes owner. {@link #run(List)} runs the
+ * moves in batches with a {@link MoveExecutor}. The moves of a batch run in parallel, at most
+ * {@link #getParallel()} at a time, and no server is the donor or stealer of two moves of the
+ * same batch, so each server streams one partition at a time. The progress can be read while
+ * running and the rebalance can be stopped between batches. The moves that succeeded are kept,
+ * so a failed or stopped rebalance can be undone with {@link #reverse(List)}.
+ *
+ * @author Ahmad Al-Shishtawy <ahmadas@kth.se>
+ *
+ */
+public class RebalancePlanner {
+
+	static Logger log = LoggerFactory.getLogger(RebalancePlanner.class);
+
+	/**
+	 * The move of one partition.
+	 */
+	public static class Move {
+		private final int partition;
+		private final int from, to;
+
+		public Move(int partition, int from, int to) {
+			this.partition = partition;
+			this.from = from;
+			this.to = to;
+		}
+
+		public int getPartition() {
+			return partition;
+		}
+
+		/**
+		 * @return	The ID of the donor server.
+		 */
+		public int getFrom() {
+			return from;
+		}
+
+		/**
+		 * @return	The ID of the stealer server.
+		 */
+		public int getTo() {
+			return to;
+		}
+
+		@Override
+		public String toString() {
+			return "partition " + partition + ": " + from + " -> " + to;
+		}
+	}
+
+	/**
+	 * Told about every finished move.
+	 */
+	public interface Listener {
+		/**
+		 * @param move	The move.
+		 * @param bytes	The bytes moved, or -1 if the move failed.
+		 * @param done	The number of finished moves of the rebalance, including failed ones.
+		 * @param total	The number of moves of the rebalance.
+		 */
+		public void moved(Move move, long bytes, int done, int total);
+	}
+
+	private final MoveExecutor executor;
+	private volatile int parallel;
+	private Listener listener = null;
+
+	private volatile boolean running = false;
+	private volatile boolean stopped = false;
+	private volatile int total = 0;
+	private final AtomicInteger done = new AtomicInteger();
+	private final AtomicInteger failed = new AtomicInteger();
+	private final AtomicLong bytes = new AtomicLong();
+	private final ArrayList<Move> completed = new ArrayList<Move>();
+
+	/**
+	 * @param executor	Moves the partitions.
+	 * @param parallel	The max number of moves at a time.
+	 */
+	public RebalancePlanner(MoveExecutor executor, int parallel) {
+		if(parallel < 1) {
+			throw new IllegalArgumentException("At least one move must run at a time");
+		}
+		this.executor = executor;
+		this.parallel = parallel;
+	}
+
+	/**
+	 * @param partitions	The number of partitions.
+	 * @param from			The current number of servers.
+	 * @param to			The new number of servers.
+	 * @return	The moves, in the order of the partitions.
+	 */
+	public static ArrayList<Move> plan(int partitions, int from, int to) {
+		int[] before = PartitionGenerator.owners(partitions, from);
+		int[] after = PartitionGenerator.owners(partitions, to);
+		ArrayList<Move> moves = new ArrayList<Move>();
+		for (int p = 0; p < partitions; p++) {
+			if(before[p] != after[p]) {
+				moves.add(new Move(p, before[p], after[p]));
+			}
+		}
+		return moves;
+	}
+
+	/**
+	 * @param moves	Moves that were done.
+	 * @return	The moves that undo them, last move first.
+	 */
+	public static ArrayList<Move> reverse(List<Move> moves) {
+		ArrayList<Move> back = new ArrayList<Move>(moves.size());
+		for (int i = moves.size() - 1; i >= 0; i--) {
+			Move m = moves.get(i);
+			back.add(new Move(m.partition, m.to, m.from));
+		}
+		return back;
+	}
+
+	/**
+	 * Takes the next batch out of the remaining moves. Each server is in at most one move of
+	 * the batch.
+	 *
+	 * @param remaining	The moves not run yet. The batch is removed from it.
+	 * @param parallel	The max size of the batch.
+	 * @return	The batch, empty only if there are no remaining moves.
+	 */
+	public static ArrayList<Move> nextBatch(List<Move> remaining, int parallel) {
+		ArrayList<Move> batch = new ArrayList<Move>();
+		HashSet<Integer> busy = new HashSet<Integer>();
+		for (Move m : remaining) {
+			if(batch.size() >= parallel) {
+				break;
+			}
+			if(busy.contains(m.from) || busy.contains(m.to)) {
+				continue;
+			}
+			busy.add(m.from);
+			busy.add(m.to);
+			batch.add(m);
+		}
+		remaining.removeAll(batch);
+		return batch;
+	}
+
+	/**
+	 * Runs the moves between the given servers, see {@link #run(List)}.
+	 *
+	 * @param moves	The moves, e.g., from {@link #plan(int, int, int)}.
+	 * @param addrs	The address of each server ID, which must not change during the run.
+	 * @return	true if all moves succeeded.
+	 */
+	public boolean run(List<Move> moves, Map<Integer, String> addrs) {
+		executor.setAddrs(addrs);
+		return run(moves);
+	}
+
+	/**
+	 * Runs the moves and returns when all are done or the rebalance was stopped. Must not be
+	 * called again before it returns.
+	 *
+	 * @param moves	The moves, e.g., from {@link #plan(int, int, int)}.
+	 * @return	true if all moves succeeded.
+	 */
+	public boolean run(List<Move> moves) {
+		LinkedList<Move> remaining = new LinkedList<Move>(moves);
+		total = moves.size();
+		done.set(0);
+		failed.set(0);
+		bytes.set(0);
+		synchronized (completed) {
+			completed.clear();
+		}
+		stopped = false;
+		running = true;
+		try {
+			while(!remaining.isEmpty() && !stopped) {
+				ArrayList<Move> batch = nextBatch(remaining, parallel);
+				log.debug("Moving a batch of {} partitions", batch.size());
+				runBatch(batch);
+			}
+		} catch (InterruptedException e) {
+			log.error("Rebalance interrupted");
+			stopped = true;
+		} finally {
+			running = false;
+		}
+		if(!remaining.isEmpty()) {
+			log.warn("Rebalance stopped with {} of {} moves left", remaining.size(), total);
+			return false;
+		}
+		return failed.get() == 0;
+	}
+
+	/**
+	 * Runs the moves of a batch in parallel, one thread each.
+	 */
+	private void runBatch(ArrayList<Move> batch) throws InterruptedException {
+		ArrayList<Thread> threads = new ArrayList<Thread>(batch.size());
+		for (final Move m : batch) {
+			Thread t = new Thread("Move-" + m.partition) {
+				public void run() {
+					move(m);
+				}
+			};
+			t.setDaemon(true);
+			threads.add(t);
+			t.start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+	}
+
+	private void move(Move m) {
+		long b;
+		try {
+			b = executor.move(m);
+			bytes.addAndGet(b);
+			synchronized (completed) {
+				completed.add(m);
+			}
+		} catch (Exception e) {
+			log.error("Failed to move {}: {}", m, e.getMessage());
+			failed.incrementAndGet();
+			b = -1;
+		}
+		int d = done.incrementAndGet();
+		Listener l = listener;
+		if(l != null) {
+			l.moved(m, b, d, total);
+		}
+	}
+
+	/**
+	 * Stops the running rebalance after the current batch.
+	 */
+	public void stop() {
+		stopped = true;
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * @return	The number of finished moves of the last rebalance, including failed ones.
+	 */
+	public int getDone() {
+		return done.get();
+	}
+
+	/**
+	 * @return	The moves of the last rebalance that succeeded, in the order they finished.
+	 */
+	public List<Move> getCompleted() {
+		synchronized (completed) {
+			return new ArrayList<Move>(completed);
+		}
+	}
+
+	/**
+	 * @return	The number of failed moves of the last rebalance.
+	 */
+	public int getFailed() {
+		return failed.get();
+	}
+
+	/**
+	 * @return	The number of moves of the last rebalance.
+	 */
+	public int getTotal() {
+		return total;
+	}
+
+	/**
+	 * @return	The bytes moved by the last rebalance.
+	 */
+	public long getBytes() {
+		return bytes.get();
+	}
+
+	public int getParallel() {
+		return parallel;
+	}
+
+	/**
+	 * @param parallel	The max number of moves at a time, from the next batch on.
+	 */
+	public void setParallel(int parallel) {
+		if(parallel < 1) {
+			throw new IllegalArgumentException("At least one move must run at a time");
+		}
+		this.parallel = parallel;
+	}
+
+	/**
+	 * @param listener	Told about every finished move, from the thread of the move.
+	 */
+	public void setListener(Listener listener) {
+		this.listener = listener;
+	}
+
+}
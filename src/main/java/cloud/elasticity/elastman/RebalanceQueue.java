@@ -0,0 +1,152 @@
+/*
+ * This file is part of the ElastMan Elasticity Manager
+ * 
+ * Copyright (C) 2013 Ahmad Al-Shishtawy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cloud.elasticity.elastman;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The queue of the scaling steps that wait for the {@link Actuator}.
+ * <p>
+ * Every rebalance moves data across the cluster, so the queued steps are merged into one
+ * net step: +3 followed by -2 is one step of +1, and steps that cancel each other are
+ * dropped. A step that is already running but has not moved data yet, e.g., a scale-out
+ * waiting for its VMs to boot, can be pre-empted by a queued step in the other direction,
+ * see {@link #preempt(int)}.
+ *
+ * @author Ahmad Al-Shishtawy <ahmadas@kth.se>
+ *
+ */
+public class RebalanceQueue {
+
+	static Logger log = LoggerFactory.getLogger(RebalanceQueue.class);
+
+	/**
+	 * A scaling step.
+	 */
+	public static class Task {
+		private final int nVMs;
+		private final boolean limit;
+
+		public Task(int nVMs, boolean limit) {
+			this.nVMs = nVMs;
+			this.limit = limit;
+		}
+
+		/**
+		 * @return	true if the step should be limited to act.voldDeltaMax VMs.
+		 */
+		public boolean getLimit() {
+			return limit;
+		}
+
+		/**
+		 * @return	The number of VMs to add (positive) or remove (negative).
+		 */
+		public int getnVMs() {
+			return nVMs;
+		}
+	}
+
+	private boolean queued = false;
+	private int nVMs = 0;
+	private boolean limit = true;
+	private int merged = 0, cancelled = 0;
+
+	/**
+	 * Queues a step, merging it with the queued one.
+	 *
+	 * @param nVMs	The number of VMs to add (positive) or remove (negative).
+	 * @param limit	true if the change should be limited to act.voldDeltaMax VMs. A merged
+	 * 				step is only limited if all its steps are.
+	 */
+	public synchronized void add(int nVMs, boolean limit) {
+		if(nVMs == 0) {
+			return;
+		}
+		if(!queued) {
+			queued = true;
+			this.nVMs = nVMs;
+			this.limit = limit;
+			return;
+		}
+		merged++;
+		this.nVMs += nVMs;
+		this.limit &= limit;
+		log.info("Merged a step of {} VMs with the queued one. Net step {} VMs", nVMs, this.nVMs);
+		if(this.nVMs == 0) {
+			queued = false;
+			cancelled++;
+			log.info("The queued steps cancel each other");
+		}
+	}
+
+	/**
+	 * @return	The queued step, or null if none.
+	 */
+	public synchronized Task take() {
+		if(!queued) {
+			return null;
+		}
+		queued = false;
+		return new Task(nVMs, limit);
+	}
+
+	public synchronized boolean isEmpty() {
+		return !queued;
+	}
+
+	/**
+	 * Cancels a running step that has not moved data yet against the queued step, if that
+	 * goes in the other direction.
+	 *
+	 * @param running	The VMs added (positive) or removed (negative) by the running step.
+	 * @return	The number of VMs of the running step to cancel, with its sign. 0 if none.
+	 */
+	public synchronized int preempt(int running) {
+		if(!queued || running == 0 || (running > 0) == (nVMs > 0)) {
+			return 0;
+		}
+		int n = Math.min(Math.abs(running), Math.abs(nVMs));
+		int cancel = running > 0 ? n : -n;
+		nVMs += cancel;
+		if(nVMs == 0) {
+			queued = false;
+			cancelled++;
+		}
+		log.info("The controller reversed. Cancelled {} VMs of the running step", cancel);
+		return cancel;
+	}
+
+	/**
+	 * @return	The number of steps merged with a queued step.
+	 */
+	public synchronized int getMerged() {
+		return merged;
+	}
+
+	/**
+	 * @return	The number of times the queued steps cancelled each other.
+	 */
+	public synchronized int getCancelled() {
+		return cancelled;
+	}
+
+}
@@ -0,0 +1,93 @@
+/*
+ * This file is part of the ElastMan Elasticity Manager
+ * 
+ * Copyright (C) 2013 Ahmad Al-Shishtawy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cloud.elasticity.elastman;
+
+/**
+ * Adapts the number of partitions the {@link RebalancePlanner} moves at a time to the
+ * latency of the clients, so a rebalance is as fast as the SLA allows.
+ * <p>
+ * The data transfer competes with the client traffic for the servers. Once per control
+ * period the filtered p99 is compared with control.inOp. Above high*inOp the parallelism is
+ * cut multiplicatively, below low*inOp it is raised by one, in between it is held
+ * (AIMD). The latency is measured also while idle, so a rebalance that starts under heavy
+ * load starts slow.
+ *
+ * @author Ahmad Al-Shishtawy <ahmadas@kth.se>
+ *
+ */
+public class RebalanceThrottle {
+
+	private final int min, max;
+	private final double high, low;
+	private final double decrease;
+	private int parallel;
+
+	/**
+	 * @param parallel	The initial number of moves at a time.
+	 * @param min		The min number of moves at a time.
+	 * @param max		The max number of moves at a time.
+	 * @param inOp		The desired p99 latency.
+	 * @param high		Cut above this fraction of inOp.
+	 * @param low		Raise below this fraction of inOp.
+	 * @param decrease	The factor of a cut, between 0 and 1.
+	 */
+	public RebalanceThrottle(int parallel, int min, int max, double inOp, double high, double low, double decrease) {
+		if(min < 1 || max < min) {
+			throw new IllegalArgumentException("Need 1 <= min <= max moves at a time");
+		}
+		if(low > high) {
+			throw new IllegalArgumentException("The low mark must not be above the high mark");
+		}
+		this.min = min;
+		this.max = max;
+		this.high = high*inOp;
+		this.low = low*inOp;
+		this.decrease = decrease;
+		this.parallel = Math.max(min, Math.min(max, parallel));
+	}
+
+	/**
+	 * Creates a throttle using the rebalance.* and control.inOp settings in {@link Props}.
+	 */
+	public static RebalanceThrottle fromProps() {
+		return new RebalanceThrottle(Props.rebalance_parallel, Props.rebalance_parallel_min, Props.rebalance_parallel_max,
+				Props.control_inOp, Props.rebalance_throttle_high, Props.rebalance_throttle_low, Props.rebalance_throttle_decrease);
+	}
+
+	/**
+	 * Adapts to the latency of the last period.
+	 *
+	 * @param p99	The filtered p99 of the read latency. NaN holds the parallelism.
+	 * @return	The new number of moves at a time.
+	 */
+	public int update(double p99) {
+		if(p99 > high) {
+			parallel = Math.max(min, (int)(parallel*decrease));
+		} else if(p99 < low) {
+			parallel = Math.min(max, parallel + 1);
+		}
+		return parallel;
+	}
+
+	public int getParallel() {
+		return parallel;
+	}
+
+}
@@ -0,0 +1,139 @@
+/*
+ * This file is part of the ElastMan Elasticity Manager
+ *
+ * Copyright (C) 2013 Ahmad Al-Shishtawy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cloud.elasticity.elastman;
+
+/**
+ * An online linear model of the p99 latency as a function of the throughput per server,
+ * y = a + b*u, fitted by recursive least squares with a forgetting factor.
+ * <p>
+ * Each {@link #update(double, double)} costs a few multiplications and allocates nothing.
+ * Old samples are forgotten with the factor lambda, so the model follows the local slope of
+ * the latency curve as the workload mix drifts. The covariance is not inflated any further
+ * once its trace reaches the initial value, which prevents windup while the throughput is
+ * constant and the data carries no information about the slope.
+ *
+ * @author Ahmad Al-Shishtawy <ahmadas@kth.se>
+ *
+ */
+public class RlsModel {
+
+	/**
+	 * Updates needed before the model is used.
+	 */
+	public static final int MIN_SAMPLES = 6;
+
+	private final double lambda;
+	private final double delta;	// initial covariance
+
+	private double a, b;
+	private double p00, p01, p11;	// the symmetric covariance matrix
+	private double noise;	// smoothed squared prediction error
+	private int count;
+
+	/**
+	 * @param lambda	The forgetting factor in (0, 1]. 1 never forgets.
+	 * @param delta		The initial covariance. Large values trust the first samples.
+	 */
+	public RlsModel(double lambda, double delta) {
+		this.lambda = lambda;
+		this.delta = delta;
+		reset();
+	}
+
+	/**
+	 * Forgets everything learned.
+	 */
+	public void reset() {
+		a = b = 0;
+		p00 = p11 = delta;
+		p01 = 0;
+		noise = 0;
+		count = 0;
+	}
+
+	/**
+	 * Adds a sample.
+	 *
+	 * @param u	The throughput per server.
+	 * @param y	The p99 latency.
+	 */
+	public void update(double u, double y) {
+		double px0 = p00 + p01*u;
+		double px1 = p01 + p11*u;
+		double d = lambda + px0 + u*px1;
+		double k0 = px0 / d;
+		double k1 = px1 / d;
+		double e = y - (a + b*u);
+		a += k0 * e;
+		b += k1 * e;
+
+		double f = p00 + p11 < delta ? lambda : 1;	// forget only while the covariance is bounded
+		p00 = (p00 - k0*px0) / f;
+		p01 = (p01 - k0*px1) / f;
+		p11 = (p11 - k1*px1) / f;
+
+		noise = count == 0 ? e*e : lambda*noise + (1 - lambda)*e*e;
+		count++;
+	}
+
+	/**
+	 * @param u	The throughput per server.
+	 * @return	The p99 latency predicted by the model.
+	 */
+	public double predict(double u) {
+		return a + b*u;
+	}
+
+	/**
+	 * @param y	The p99 latency.
+	 * @return	The throughput per server at which the model predicts y.
+	 */
+	public double inverse(double y) {
+		return (y - a) / b;
+	}
+
+	/**
+	 * @return true if the model has seen enough samples and the latency grows with the
+	 * 			throughput by more than twice the standard deviation of the slope.
+	 */
+	public boolean isValid() {
+		return count >= MIN_SAMPLES && b > 2*getSlopeStdDev();
+	}
+
+	/**
+	 * @return The standard deviation of the slope estimate.
+	 */
+	public double getSlopeStdDev() {
+		return Math.sqrt(Math.max(p11 * noise, 0));
+	}
+
+	public double getA() {
+		return a;
+	}
+
+	public double getB() {
+		return b;
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+}
@@ -19,22 +19,28 @@
 
 package cloud.elasticity.elastman;
 
-import java.io.BufferedWriter;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.net.Socket;
-import java.net.SocketException;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
 
-import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * 
- * 
+ * The control loop, as a pipeline of stages.
+ * <p>
+ * The Sensor thread is the collector. Every period it gathers the reports of the YCSB
+ * clients, computes the throughput and latency percentiles and hands them to the decision
+ * stage. The decision stage has its own thread. It smooths the p99 and runs the
+ * {@link Decider}, which may call Nova. It then steps the {@link Actuator}, which
+ * rebalances in a thread of its own, and hands the sample to the {@link DataRecorder}.
+ * The stages are connected by bounded queues that never block, so a slow decision does
+ * not delay the collection of the next period.
+ * <p>
+ * When one process manages many clusters, each cluster has its own Sensor, Decider and
+ * Actuator but the clusters share one {@link Decisions} stage, so a single thread runs
+ * the decisions of all of them, see {@link MultiClusterServer}.
+ *
  * @author Ahmad Al-Shishtawy <ahmadas@kth.se>
  *
  */
@@ -44,108 +50,159 @@ public class Sensor extends Thread {
 	
 	boolean controlMode;
 
-	ArrayList<MyIO> clientSockets;
-	ArrayList<MyIO> deadSockets;
+	ClientPoller poller;
+	private long deadline; // max time in ms to wait for all clients to reply
+	private boolean push; // if true clients stream their data and we never ping them
+	private TelemetryAccumulator telemetry;
+	private SlidingWindow window; // short sub-windows of the pushed data. null if not used
+	private volatile boolean spike = false; // set by the window to end the period early
 	
-	SummaryStatistics read_op, read_mean, read_stddiv, read_min, read_p95, read_p99, read_max;
-	SummaryStatistics mixed_op, mixed_mean, mixed_stddiv, mixed_min, mixed_p95, mixed_p99, mixed_max;
-	SummaryStatistics total_op;
+	// the client reports of the current period
+	Aggregator stats;
+	// merged latency histograms. Empty unless the clients send histograms
+	LatencyHistogram read_hist, mixed_hist;
 	public boolean identifying = true;
-	private int warmup = 2;	// iterations to wait before controller
 //	private long rebalancing = 0;
 	private Actuator actuator=null;
-	private double ffThroughputDelta; // larger delta will indicate a spike thus we use FF
-	
-	final long period; // in seconds
-	long timeStep=0;
-//	SimpleBinaryClassifier ff = new SimpleBinaryClassifier(1800, 200, 0, 1000); // FF model
-	SimpleBinaryClassifier ff; // FF model
+	private RebalanceThrottle throttle = null;	// only with a planner
+	private Decider decider;
+	private final Decisions decisions;	// the decision stage
+	private final boolean ownDecisions;	// false if the stage is shared with other clusters
+	private DataRecorder recorder;
 	
-	private long nextFF=0;
+	// the settings are read when created, so each cluster keeps its own
+	private final int spikeSlots;
+	private final double ffThroughputDelta;
+	private final String recorderFormat;
+	private final int recorderFlush;
+	private final String name;	// prefix of the data files, empty for a single cluster
 	
-	private double inOp;
-	private double outOp;
+	static final int DECISION_QUEUE = 4;	// periods of each cluster
 	
-	private PIDController pid;
-	private Filter filter;
+	final long period; // in seconds
+	private PeriodTimer timer;
+	long timeStep=0;
 	
 	
 	private Cluster cluster;
 	
 	public Sensor(int sleepSec, boolean controlMode, Cluster cluster) { // if controlMode=false will do identification
-		clientSockets = new ArrayList<MyIO>();
-		deadSockets = new ArrayList<MyIO>();
+		this(sleepSec, controlMode, cluster, null);
+	}
+	
+	/**
+	 * @param sleepSec		The control period in seconds.
+	 * @param controlMode	false for identification.
+	 * @param cluster		The cluster.
+	 * @param decisions		The decision stage shared with other clusters, or null to use
+	 * 						a stage of its own.
+	 */
+	public Sensor(int sleepSec, boolean controlMode, Cluster cluster, Decisions decisions) {
+		if(decisions == null) {
+			this.decisions = new Decisions(DECISION_QUEUE);
+			ownDecisions = true;
+		} else {
+			this.decisions = decisions;
+			ownDecisions = false;
+		}
+		spikeSlots = Props.sensor_spike_slots;
+		ffThroughputDelta = Props.control_ff_throughputDelta;
+		recorderFormat = Props.recorder_format;
+		recorderFlush = Props.recorder_flush;
+		name = Props.cluster_name;
+		try {
+			poller = new ClientPoller(Props.sensor_histogram);
+		} catch (IOException e) {
+			log.error("Could not open the client selector: {}", e.getMessage());
+			System.exit(1);
+		}
+		deadline = Props.sensor_deadline * 1000L;
+		push = Props.sensor_push;
+		telemetry = new TelemetryAccumulator();
 		
-		read_op = new SummaryStatistics();
-		read_mean = new SummaryStatistics();
-		read_stddiv = new SummaryStatistics();
-		read_min = new SummaryStatistics();
-		read_p95 = new SummaryStatistics();
-		read_p99 = new SummaryStatistics();
-		read_max = new SummaryStatistics();
+		stats = new Aggregator();
 		
-		mixed_op = new SummaryStatistics();
-		mixed_mean = new SummaryStatistics();
-		mixed_stddiv = new SummaryStatistics();
-		mixed_min = new SummaryStatistics();
-		mixed_p95 = new SummaryStatistics();
-		mixed_p99 = new SummaryStatistics();
-		mixed_max = new SummaryStatistics();
-			
-		total_op = new SummaryStatistics();
+		read_hist = new LatencyHistogram();
+		mixed_hist = new LatencyHistogram();
 		
 		period = sleepSec;
+		timer = new PeriodTimer(period * 1000000000L);
 		this.controlMode = controlMode;
 		this.cluster=cluster;
 		
-		
-		
-		
-		// TODO: change normalized setPoint to real setPoint
-		pid = new PIDController(Props.control_inOp, Props.control_outOp, 0, Props.control_kp, Props.control_ki, Props.control_kd);
-		
-		this.inOp = Props.control_inOp;
-		this.outOp = Props.control_outOp;
+		// spikes can only be seen early if the clients stream their data
+		if(push && Props.sensor_window > 0 && Props.sensor_window < period) {
+			window = new SlidingWindow(Props.sensor_window, period, Props.sensor_spike_slots);
+			window.setSpikeListener(new SlidingWindow.SpikeListener() {
+				public void spike(double throughput, double baseline) {
+					log.info("Spike! Throughput {} ops/sec, was {}. Ending the period early", (long)throughput, (long)baseline);
+					spike = true;
+					timer.wakeUp();
+				}
+			});
+		}
 		
 		actuator = new Actuator(cluster, Props.voldMin, Props.voldMax, Props.voldDeltaMax, Props.createVMs);
+		if(Props.probe_enabled) {
+			actuator.setProbe(ReadinessProbe.fromProps(window));
+		}
+		if(Props.rebalance_planner) {
+			RebalancePlanner planner = new RebalancePlanner(new CommandMoveExecutor(Props.rebalance_move), Props.rebalance_parallel);
+			planner.setListener(new RebalancePlanner.Listener() {
+				public void moved(RebalancePlanner.Move move, long bytes, int done, int total) {
+					log.debug("Moved {}, {} bytes ({} of {})", new Object[] {move, bytes, done, total});
+				}
+			});
+			actuator.setPlanner(planner);
+			if(Props.rebalance_throttle) {
+				throttle = RebalanceThrottle.fromProps();
+				planner.setParallel(throttle.getParallel());
+			}
+		}
+		if(Props.createVMs && Props.pool_max > 0) {
+			actuator.setPool(new WarmPool(Props.pool_min, Props.pool_max, Props.pool_window*1000L, Props.voldMax));
+		}
 		
-		
-		filter = new Filter(Props.filter_alpha);
-		warmup = Props.control_warmup;
-		dead = Props.control_dead;
-		ffThroughputDelta = Props.control_ff_throughputDelta;
-		
-		
-		ff = new SimpleBinaryClassifier(Props.control_ffr1, Props.control_ffw1, Props.control_ffr2, Props.control_ffw2);
-		
+		// the decision logic sees the real cluster through the actuator
+		decider = new Decider(controlMode, new Decider.Plant() {
+			public void update() {
+				Sensor.this.cluster.updateVMs();
+			}
+			public int getActiveVoldVMsCount() {
+				return Sensor.this.cluster.getActiveVoldVMsCount();
+			}
+			public int getVoldVMsCount() {
+				// the spares of the warm pool are not part of the store
+				return Sensor.this.cluster.getVoldVMsCount() - actuator.getSpareVMs();
+			}
+			public boolean isCreateVMs() {
+				return actuator.isCreateVMs();
+			}
+			public boolean isRebalancing() {
+				return Sensor.this.isRebalancing();
+			}
+			public boolean isBooting() {
+				return actuator.isBooting();
+			}
+			public void scheduleRebalance(int nVMs, boolean limit) {
+				actuator.scheduleRebalance(nVMs, limit);
+			}
+		});
 	}
 
-	public synchronized void addClient(Socket cs) {
+	public void addClient(SocketChannel cs) {
 		try {
-			cs.setSoTimeout(40000); // wait max 40 seconds;
-		} catch (SocketException e) {
-			log.error("Error: Can't set socket time out!");
-			log.error(e.getMessage());
-		} 
-		clientSockets.add(new MyIO(cs));
-		log.info("Client added: {}", cs.getInetAddress());
-	}
-	
-	public synchronized void remLastClient() {
-		if(clientSockets.size()==0){
-			log.error("No More Clients!!");
-			return;
-		}
-		
-		MyIO cs = clientSockets.get(clientSockets.size()-1);
-		log.info("Removing Client: " + cs.s.getInetAddress());
-		try {
-			cs.s.close();
+			poller.add(cs);
 		} catch (IOException e) {
+			log.error("Error: Can't add client {}", cs.socket().getInetAddress());
 			log.error(e.getMessage());
+			return;
 		}
-		clientSockets.remove(clientSockets.size()-1);
-		
+		log.info("Client added: {}", cs.socket().getInetAddress());
+	}
+	
+	public void remLastClient() {
+		poller.removeLast();
 	}
 	
 	
@@ -154,448 +211,250 @@ public class Sensor extends Thread {
 		
 		String filename;
 		if(controlMode) {
-			filename = "control.dat";
+			filename = "control";
 		} else {
-			filename = "ident.dat";
+			filename = "ident";
 		}
-		
-		// Open the data file
-		FileWriter fstream;
-		BufferedWriter out=null;
-		try {
-			fstream = new FileWriter(filename);
-			out = new BufferedWriter(fstream);
-		} catch (IOException e1) {
-			// TODO Auto-generated catch block
-			e1.printStackTrace();
+		if(name.length() > 0) {
+			filename = name + "-" + filename;
 		}
-		  
-		// Write a header  
+		
+		// Open the data files. Rows are written by the recorder thread so the disk never delays a decision
 		try {
-			out.write("T \t" +
-					"PeriodSec \t" +
-					"Clients \t" +
-					"Servers \t" +
-					"TotalOps \t" +
-					"Throughput \t" +
-					"ThroPerServ \t" +
-					
-					"tpsR \t" +
-					"meanR \t" +
-					"stddivR \t" +
-					"minR \t" +
-					"p95R \t" +
-					"p99R \t" +
-					"fp99R \t" +
-					"maxR \t" +
-					
-					"tpSM \t" +
-					"meanM \t" +
-					"stddivM \t" +
-					"minM \t" +
-					"p95M \t" +
-					"p99M \t" +
-					"maxM \t" +
-					"ntp \t" + 
-					"nfp99 \t" +
-					"opID \t" +
-					"log\n");
-			
-			out.flush();
+			recorder = new DataRecorder(filename, recorderFormat, recorderFlush);
 		} catch (IOException e) {
-			log.error(e.getMessage());
+			log.error("Can't open the data files of {}: {}", filename, e.getMessage());
+			System.exit(1);
+		}
+		recorder.start();
+		if(ownDecisions) {
+			decisions.start();
 		}
 		
-		boolean firstInput = true;
-		double lastTps = 0;
-		boolean bigTPChange=false;
+		if(push) {
+			// clients stream their data from now on. We just take a snapshot every period
+			poller.startListening(new ClientPoller.Listener() {
+				public void report(ClientReport report) {
+					telemetry.add(report);
+					if(window != null) {
+						window.add(report);
+					}
+				}
+			});
+		}
 		
+		timer.start();
 		while(identifying) {
-			if(warmup > 0){
-				warmup--;
-			} else if (warmup==0) {
-				warmup--;
-//				lastTimeSec = System.nanoTime() / 1000000000; // for the controller  // NOT USED 
-			}
-				
-				
-			long start = System.nanoTime();
-			
-			//// sleep for sampling time then collect data
-			try {
-				Thread.sleep(period * 1000);
-			} catch (InterruptedException e) {
-				log.error(e.getMessage());
-			}
+			//// wait for the next period boundary then collect data
+			// the true length of the period is used as the time spent collecting and deciding can vary
+			final long elapsed = timer.awaitNext();
 			timeStep++;
 			// loop and fetch data from each YCSB client
 			updateMonitoringData();
-			long end = System.nanoTime();
-			long pInSec = (end-start)/1000000000;	// sampling period in seconds
-			
+			final double pInSec = elapsed / 1e9;	// sampling period in seconds
+			final boolean spiked = spike;
+			spike = false;
 			
 			
 			
-			final double throughput = total_op.getSum()/pInSec;
+			final double throughput, rtps, mtps;
+			if(spiked) {
+				// the period is cut short and mixes the old and new load. Use the slots after the spike
+				throughput = window.getThroughput(spikeSlots);
+				rtps = window.getReadThroughput(spikeSlots)/cluster.getActiveVoldVMsCount();
+				mtps = window.getMixedThroughput(spikeSlots)/cluster.getActiveVoldVMsCount();
+			} else {
+				throughput = stats.getSum(Aggregator.TOTAL_OPS)/pInSec;
+				// Read Throughput per server
+				rtps = stats.getSum(Aggregator.READ_OPS)/pInSec/cluster.getActiveVoldVMsCount();
+				// Write Throughput per server
+				mtps = stats.getSum(Aggregator.MIXED_OPS)/pInSec/cluster.getActiveVoldVMsCount();
+			}
 			
 			// Throughput per server
 			final double tps = throughput/cluster.getActiveVoldVMsCount();
-			// Read Throughput per server
-			final double rtps = read_op.getSum()/pInSec/cluster.getActiveVoldVMsCount();
-			// Write Throughput per server
-			final double mtps = mixed_op.getSum()/pInSec/cluster.getActiveVoldVMsCount();
-			
-			// calculate a smoothed value of the p99 as well
-			filter.step(read_p99.getMean());
 			
-			if(firstInput) {
-				lastTps = tps;
-				firstInput=false;
+			// true cluster-wide percentiles if the clients send histograms.
+			// Otherwise, the mean of the percentiles of the clients
+			final double p95R, p99R, maxR, p95M, p99M, maxM;
+			if(read_hist.getCount() > 0) {
+				p95R = read_hist.percentile(0.95);
+				p99R = read_hist.percentile(0.99);
+				maxR = read_hist.getMax();
+			} else {
+				p95R = stats.getMean(Aggregator.READ_P95);
+				p99R = stats.getMean(Aggregator.READ_P99);
+				maxR = stats.getMean(Aggregator.READ_MAX);
 			}
-			
-
-			log.debug("Summary: " +timeStep + " \t" + pInSec + " \t" + (clientSockets.size() - deadSockets.size()) + " \t" + cluster.getActiveVoldVMsCount() + " \t" + total_op.getSum() + " \t" + (long)(throughput) + " \t" + (long)(throughput/cluster.getActiveVoldVMsCount())
-					+ " \t" + rtps+ " \t" + (long)read_mean.getMean() + " \t" + (long)read_stddiv.getMean() + " \t" + (long)read_min.getMean() 
-					+ " \t" + (long)read_p95.getMean()+ " \t" +(long)read_p99.getMean()+ " \t" + (long)filter.getValue() + " \t" + (long)read_max.getMean()
-					+ " \t" + mtps+ " \t" + (long)mixed_mean.getMean() + " \t" + (long)mixed_stddiv.getMean() + " \t" + (long)mixed_min.getMean()
-					+ " \t" + (long)mixed_p95.getMean()+ " \t" +(long)mixed_p99.getMean()+ " \t" + (long)mixed_max.getMean()
-					+ " \t" +  (long)((throughput/cluster.getActiveVoldVMsCount())-outOp) + " \t" + (long)(filter.getValue() - inOp) );
-			
-			try {
-				out.write("" +timeStep + " \t" + pInSec + " \t" + (clientSockets.size() - deadSockets.size()) + " \t" + cluster.getActiveVoldVMsCount() + " \t" + total_op.getSum() + " \t" + (long)(throughput) + " \t" + (long)(throughput/cluster.getActiveVoldVMsCount())
-						+ " \t" + (long)rtps+ " \t" + (long)read_mean.getMean() + " \t" + (long)read_stddiv.getMean() + " \t" + (long)read_min.getMean() 
-						+ " \t" + (long)read_p95.getMean()+ " \t" +(long)read_p99.getMean()+ " \t" + (long)filter.getValue() + " \t" + (long)read_max.getMean()
-						+ " \t" + (long)mtps+ " \t" + (long)mixed_mean.getMean() + " \t" + (long)mixed_stddiv.getMean() + " \t" + (long)mixed_min.getMean()
-						+ " \t" + (long)mixed_p95.getMean()+ " \t" +(long)mixed_p99.getMean()+ " \t" + (long)mixed_max.getMean()
-						+ " \t" +  (long)((throughput/cluster.getActiveVoldVMsCount())-outOp) + " \t" + (long)(filter.getValue() - inOp)
-						+ " \t"); 
-				if(!controlMode) {
-					out.write( "-1 \tIdent\n");
-					out.flush();
-				} // else -> later append control log and flush
-						
-			} catch (IOException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+			if(mixed_hist.getCount() > 0) {
+				p95M = mixed_hist.percentile(0.95);
+				p99M = mixed_hist.percentile(0.99);
+				maxM = mixed_hist.getMax();
+			} else {
+				p95M = stats.getMean(Aggregator.MIXED_P95);
+				p99M = stats.getMean(Aggregator.MIXED_P99);
+				maxM = stats.getMean(Aggregator.MIXED_MAX);
 			}
 			
+			final DataRecorder.Sample sample = new DataRecorder.Sample();
+			sample.step = timeStep;
+			sample.periodSec = pInSec;
+			sample.clients = poller.getLiveCount();
+			sample.servers = cluster.getActiveVoldVMsCount();
+			sample.totalOps = stats.getSum(Aggregator.TOTAL_OPS);
+			sample.throughput = (long)throughput;
+			sample.tps = (long)tps;
+			sample.rtps = (long)rtps;
+			sample.meanR = (long)stats.getMean(Aggregator.READ_MEAN);
+			sample.stddevR = (long)stats.getMean(Aggregator.READ_STDDEV);
+			sample.minR = (long)stats.getMean(Aggregator.READ_MIN);
+			sample.p95R = (long)p95R;
+			sample.p99R = (long)p99R;
+			sample.maxR = (long)maxR;
+			sample.mtps = (long)mtps;
+			sample.meanM = (long)stats.getMean(Aggregator.MIXED_MEAN);
+			sample.stddevM = (long)stats.getMean(Aggregator.MIXED_STDDEV);
+			sample.minM = (long)stats.getMean(Aggregator.MIXED_MIN);
+			sample.p95M = (long)p95M;
+			sample.p99M = (long)p99M;
+			sample.maxM = (long)maxM;
+			
 			System.out.println("======================");
 			
 			//clear stats
-			read_op.clear();
-			read_mean.clear();
-			read_stddiv.clear();
-			read_min.clear();
-			read_p95.clear();
-			read_p99.clear();
-			read_max.clear();
+			stats.reset();
+			read_hist.reset();
+			mixed_hist.reset();
 			
-			mixed_op.clear();
-			mixed_mean.clear();
-			mixed_stddiv.clear();
-			mixed_min.clear();
-			mixed_p95.clear();
-			mixed_p99.clear();
-			mixed_max.clear();
-				
-			total_op.clear();
-			
-			// remove dead clients
-			if(deadSockets.size()>0) {
-				clientSockets.removeAll(deadSockets);
-				deadSockets.clear();
-				System.out.println("Removind Dead Sockets!");
-			}
-			if(!controlMode && clientSockets.size()==0) {
+			if(!controlMode && poller.size()==0) {
 				identifying = false; // finished the identification
 				System.out.println("Identification completed" );
 			}
-			if(warmup == 0) {  // next time the controller will be started!! so initialize;
-				pid.reset();
-				filter.reset();	// to remove any noise in startup
-			}
-			
-			
-			
-			
-			if(controlMode && warmup >= 0) {
-				try {
-					out.write("0 \tWarmup\n");
-					out.flush();
-				} catch (IOException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				}
-			} else if(controlMode && warmup < 0) {
-				
-				
-				if( !isRebalancing() && Math.abs(lastTps-tps)>ffThroughputDelta) {
-					bigTPChange=true;
-					System.out.println("Big Throughput Change: " + (lastTps-tps));
-				}
-				
-				
-				// 0 - check
-				cluster.updateVMs();
-				if(actuator.isCreateVMs() && cluster.getActiveVoldVMsCount() != cluster.getVoldVMsCount()) { // then there is something wrong (e.g., didn't finish removing nodes)
-					System.out.println("Vold Count Error!!");	// Should never happen unless someone adds VoldVMs externally
-					pid.reset();
-					filter.reset();
-					try {
-						out.write("3 \tRebalanceNotComplete!\n");
-						out.flush();
-					} catch (IOException e) {
-						// TODO Auto-generated catch block
-						e.printStackTrace();
-					}
-				}
-				// TODO: 1 - Error is very large for first time then do nothing
-//				else if (firstLargeValue && !(Math.abs(lastTps-tps)>ffThroughputDelta))  {	// this is probably noise, Ignore it
-//					// do nothing
-////					pidReset(filter);
-//					System.out.println("Controller: Very large value for first time! Do nothing!");
-//					try {
-//						out.write("4 \tFirstLarge\n");
-//						out.flush();
-//					} catch (IOException e) {
-//						// TODO Auto-generated catch block
-//						e.printStackTrace();
-//					}
-//				}
-				// 2 - if in dead zone then do nothing
-				else if(inOp-2*dead <= filter.getValue()  && filter.getValue() <= inOp+dead){
-					System.out.println("Controller: in dead zone! Do nothing!");
-					pid.reset();
-					filter.reset();
-					try {
-						out.write("0 \tDeadZone\n");
-						out.flush();
-					} catch (IOException e) {
-						// TODO Auto-generated catch block
-						e.printStackTrace();
-					}
-				}
-				// 3 - Rebalancing
-				else if(isRebalancing()) {
-					System.out.println("Controller: Rebalancing! Do nothing!");
-//					pidReset(filter);
-					try {
-						out.write("3 \tRebalancing\n");
-						out.flush();
-					} catch (IOException e) {
-						// TODO Auto-generated catch block
-						e.printStackTrace();
-					}
-					  // FIXME: now I give rebalance 2 period to finish.
-										// Should check the real status and update rebalance accordingly
-				}
-				// 3.5 - if current latency is less than desired and min servers if 3 then do nothing.
-				else if (cluster.getActiveVoldVMsCount()<=3 && filter.getValue() <= inOp+dead){ // should never be < 3
-					System.out.println("Controller: Having min=3 Vold VMs and the response time is OK! Not running controller");
-					pid.reset();
-					filter.reset();
-					try {
-						out.write("0 \tMinVMs\n");
-						out.flush();
-					} catch (IOException e) {
-						// TODO Auto-generated catch block
-						e.printStackTrace();
-					}
-				} // 4 - 
-				else {
-					boolean usePID=true, ffFail=false;
-					
-					if (timeStep>nextFF && (  bigTPChange ||  (filter.getValue()>(inOp + (inOp*0.5)) || filter.getValue()<(inOp - (inOp*0.5)))    ) /*Big change in load use ff*/){//(filter>(inOp + (inOp*0.5)) || filter<(inOp - (inOp*0.5)))) {
-						usePID=false;
-						bigTPChange=false;
-						//	use binary classifier
-						nextFF = timeStep+4;	// TODO: Fix nextFF
-						System.out.println("Controller: Using FF");
-						double output= ff.classify(rtps, mtps);
-						// calculate number of servers needed to handle current throughput
-						double n = (throughput/output) - cluster.getActiveVoldVMsCount();
-
-						// TODO: Now I get ceil. Check if there is a better solution
-						int nn =0;
-//						if(n>0) {
-							nn=(int)Math.ceil(n);
-//						} else {
-//							nn=(int)Math.floor(n);
-//						}
-						
-						//int nn = (int)Math.round(n);
-						
-						System.out.println("Controller: FF output = " + output + " that is "+ n + " -> " + nn + " servers");
-
-						if((filter.getValue()>(inOp+inOp*0.5) && nn<3) || (filter.getValue()<(inOp-inOp*0.5) && nn>-3) ) {//Math.abs(nn)<3) {
-							// Very large error & add/rem few VMs! Must be outside of op region
-							// Fall back to FB
-							usePID=true;
-							ffFail=true;
-						} else {
-
-							try {
-								out.write("2 \tFF#"+output+"#"+n+"#"+nn+"\n");
-								out.flush();
-								pid.reset();
-								filter.reset();
-							} catch (IOException e) {
-								// TODO Auto-generated catch block
-								e.printStackTrace();
-							}
-							if(nn > 0 || (nn < 0 && cluster.getActiveVoldVMsCount() > 3)) {
-								actuator.scheduleRebalance(nn,false);
-								
-							}
-						}
-					}
-					if(usePID){ // 4 - use PID
-						System.out.println("Controller: Using FB");
-						double delta = pid.step(filter.getValue());  // pid gives throughput per server
-						
-						double output = tps+delta;	// this is the new throughput per server
-						if(output < 50) {
-							output=50;
-							System.err.println("WARNING!!! pid gave negative/small output!!");
-						}
-
-						// calculate number of servers needed to handle new throughput
-						double n = (throughput/output) - cluster.getActiveVoldVMsCount();
-
-						// TODO: Now I ceil. Check if there is a better solution
-						int nn =0;
-//						if(n>0) {
-							nn=(int)Math.ceil(n);
-//						} else {
-//							nn=(int)Math.floor(n);
-//						}// int nn = (int)Math.round(n);
-
-						System.out.println("Controller: PID output = " + output + " that is "+ n + " -> " + nn + " servers");
-
-						try {
-							out.write("1 \tFB#"+output+"#"+n+"#"+nn);
-							if(ffFail) {
-								out.write("#FFFail");
-							}
-							out.write("\n");
-							out.flush();
-						} catch (IOException e) {
-							// TODO Auto-generated catch block
-							e.printStackTrace();
-						}
-						if(nn > 0 || (nn < 0 && cluster.getActiveVoldVMsCount() > 3)) {
-							actuator.scheduleRebalance(nn,true);
-						}
-					}
-				}
-			}
-			
-			lastTps = tps;
+			decisions.submit(new Period(this, sample, throughput, tps, rtps, mtps, p99R, spiked));
 		}
-		try {
-			out.close();
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+		if(ownDecisions) {
+			decisions.close();
 		}
+		recorder.close();
 	}
 
-	private synchronized void updateMonitoringData() { // sync not to allow adding clients while in the loop
-		for (MyIO io : clientSockets) {
-			// Read operations
-			long NR=0;
-			double meanR=0, stddivR=0, minR=0, p95R=0, p99R=0, maxR=0;
-			// Mixed operations (read/write transactions) 
-			long NM=0;
-			double meanM=0, stddivM=0, minM=0, p95M=0, p99M=0, maxM=0;
+	/**
+	 * The measurements of a period, handed from the collector to the decision stage.
+	 */
+	static class Period {
+		final Sensor sensor;
+		final DataRecorder.Sample sample;
+		final double throughput, tps, rtps, mtps, p99R;
+		final boolean spiked;
 
-			try {
-				io.out.writeInt(0);	//ping the client to send data. client is waiting for any int from us
-				NR = io.in.readLong();
-				meanR = io.in.readDouble();
-				stddivR = io.in.readDouble();
-				minR = io.in.readDouble();
-				p95R = io.in.readDouble();
-				p99R = io.in.readDouble();
-				maxR = io.in.readDouble();
+		Period(Sensor sensor, DataRecorder.Sample sample, double throughput, double tps, double rtps, double mtps, double p99R, boolean spiked) {
+			this.sensor = sensor;
+			this.sample = sample;
+			this.throughput = throughput;
+			this.tps = tps;
+			this.rtps = rtps;
+			this.mtps = mtps;
+			this.p99R = p99R;
+			this.spiked = spiked;
+		}
+	}
 
-				NM = io.in.readLong();
-				meanM = io.in.readDouble();
-				stddivM = io.in.readDouble();
-				minM = io.in.readDouble();
-				p95M = io.in.readDouble();
-				p99M = io.in.readDouble();
-				maxM = io.in.readDouble();
-				
-				if(NR==0) {  // This is a new client that did not start yet! Don't add this time
-					return;
-				}
+	/**
+	 * The decision stage. Runs {@link Sensor#decide(Period)} for the periods of one or more
+	 * sensors in the order they are submitted.
+	 */
+	public static class Decisions extends Stage<Period> {
+
+		/**
+		 * @param capacity	The max number of queued periods.
+		 */
+		public Decisions(int capacity) {
+			super("Decision", capacity);
+		}
 
-				// if everything went fine with no exceptions then add to stats, otherwise the socket will be removed after the loop
-				read_op.addValue(NR);
-				read_mean.addValue(meanR);
-				read_stddiv.addValue(stddivR);
-				read_min.addValue(minR);
-				read_p95.addValue(p95R);
-				read_p99.addValue(p99R);
-				read_max.addValue(maxR);
+		@Override
+		protected void process(Period p) {
+			p.sensor.decide(p);
+		}
+	}
 
-				mixed_op.addValue(NM);
-				mixed_mean.addValue(meanM);
-				mixed_stddiv.addValue(stddivM);
-				mixed_min.addValue(minM);
-				mixed_p95.addValue(p95M);
-				mixed_p99.addValue(p99M);
-				mixed_max.addValue(maxM);
+	/**
+	 * Smooths the p99, decides, steps the actuator and records the sample of a period.
+	 */
+	private void decide(Period p) {
+		final DataRecorder.Sample sample = p.sample;
 
-				total_op.addValue(NR+NM);
+		// new step of the decision logic. Also smooths the p99
+		decider.observe(p.tps, p.p99R);
+		sample.fp99R = (long)decider.getFilteredP99();
+		sample.ntp = (long)(p.tps-decider.getOutOp());
+		sample.nfp99 = (long)(decider.getFilteredP99() - decider.getInOp());
+		if(log.isDebugEnabled()) {
+			StringBuilder row = new StringBuilder(256);
+			DataRecorder.appendRow(sample, row);
+			log.debug("Summary: {}", row);
+			log.debug("Estimated p99 {} +- {}", (long)decider.getFilteredP99(), (long)decider.getP99StdDev());
+		}
 
-				log.debug((NR+NM)+" \t"+NR+" \t"+meanR+" \t"+stddivR+" \t"+minR+" \t"+p95R+" \t"+p99R+" \t"+maxR+" \t"+NM+" \t"+meanM+" \t"+stddivM+" \t"+minM+" \t"+p95M+" \t"+p99M+" \t"+maxM);
-			} catch (IOException e) {
-				
-				// TODO: I'm not removing dead clients since the workload generator removes them in remLastClient()
-				//System.out.println("Error: Dead Client NOT added to deadlist for removal.");	// Should not happen in normal system
-				//deadSockets.add(io);	// to remove dead clients later. The workload generator just stops the VM running the client
-				
-				log.error(e.getMessage());
+		decider.decide(sample.step, p.throughput, p.tps, p.rtps, p.mtps, p.spiked, sample);
+		RebalancePlanner planner = actuator.getPlanner();
+		if(throttle != null) {	// also while idle, so the next rebalance starts at the right pace
+			int parallel = throttle.update(decider.getFilteredP99());
+			if(parallel != planner.getParallel()) {
+				log.info("Rebalance throttle: {} moves at a time", parallel);
+				planner.setParallel(parallel);
 			}
-
 		}
+		if(planner != null && planner.isRunning()) {
+			log.info("Rebalancing: {} of {} partitions moved, {} MB", new Object[] {planner.getDone(), planner.getTotal(), planner.getBytes()/(1024*1024)});
+		}
+		actuator.step();	// starts the scheduled rebalance, if any
+		recorder.submit(sample);
 
+		if(window != null) {
+			// watch for spikes during the next period. Not while warming up or rebalancing
+			if(decider.isActive() && !isRebalancing()) {
+				window.setBaseline(p.throughput, ffThroughputDelta*cluster.getActiveVoldVMsCount());
+			} else {
+				window.setBaseline(Double.NaN, 0);
+			}
+		}
 	}
 
-//	private long lastTimeSec = 0;
-//	private double lastInput = 0;
-//	private double lastError=0; 
-//	private double outMin=-4000, outMax=4000; 	// TODO: check values of outMax and inMax
-
-//	private double mySetpoint = 0; // in nano // TODO: set the setpoint?
-//	private double kp, ki, kd, iTerm=0; // TODO: set the real gains
-
-	
-	private double dead; 
-	
-
-	
+	private void updateMonitoringData() {
+		if(push) {
+			takeSnapshot();
+			return;
+		}
+		// ping all clients at once and wait for the replies till the deadline
+		// late clients are not waited for. Their data is counted when it arrives in a later round
+		poller.poll(deadline, collector);
+	}
 
+	/**
+	 * Moves the data pushed by the clients during the last period to the stats.
+	 */
+	private void takeSnapshot() {
+		long n = telemetry.drain(stats, read_hist, mixed_hist);
+		log.debug("Snapshot of {} pushed records", n);
+	}
 
-	
-	class MyIO {
-		public DataInputStream in=null;
-		public DataOutputStream out=null;
-		public Socket s=null;
-		public MyIO(Socket s) {
-			this.s = s;
-			try {
-				in = new DataInputStream(s.getInputStream());
-				out = new DataOutputStream(s.getOutputStream());
-			} catch (IOException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+	private final ClientPoller.Listener collector = new ClientPoller.Listener() {
+		public void report(ClientReport r) {
+			if(!stats.add(r)) {
+				return;
+			}
+			ByteBuffer in = r.histograms();
+			if(in != null) {	// merge the histograms of the client
+				read_hist.merge(in);
+				mixed_hist.merge(in);
+			}
+			if(log.isTraceEnabled()) {
+				log.trace("Client {} report: {} read ops, {} mixed ops", new Object[] {r.getClientId(), r.get(Aggregator.READ_OPS), r.get(Aggregator.MIXED_OPS)});
 			}
 		}
-	}
-	
+	};
+
 	private boolean isRebalancing() {
 		if(actuator==null) {
 			return false;
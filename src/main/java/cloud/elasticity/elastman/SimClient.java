@@ -0,0 +1,149 @@
+/*
+ * This file is part of the ElastMan Elasticity Manager
+ *
+ * Copyright (C) 2013 Ahmad Al-Shishtawy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cloud.elasticity.elastman;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * A simulated YCSB client for the {@link Simulator}.
+ * <p>
+ * The client offers a fixed number of ops/sec, split into read-only and mixed operations.
+ * The {@link Simulator} advances it over each stretch of time in which the store does not
+ * change, and the client sums the operations and the latency statistics of the
+ * exponential latency given by the {@link SimStore}. A report is encoded with the
+ * {@link WireProtocol} exactly as a real client sends it, with some noise on the latencies.
+ *
+ * @author Ahmad Al-Shishtawy <ahmadas@kth.se>
+ *
+ */
+public class SimClient {
+
+	/**
+	 * Standard deviation of the log-normal noise on the latencies of a report.
+	 */
+	public static final double NOISE = 0.1;
+
+	private static final int READ = 0, MIXED = 1;
+	private static final double P95 = -Math.log(0.05), P99 = -Math.log(0.01);
+
+	private final int id;
+	private final double ops;
+	private final double readFraction;
+	private final Random random;
+	private long seq = 0;
+
+	// per kind of operation
+	private final double[] count = new double[2];
+	private final double[] sumMean = new double[2];
+	private final double[] sumSquares = new double[2];
+	private final double[] sumP95 = new double[2];
+	private final double[] sumP99 = new double[2];
+	private final double[] max = new double[2];
+
+	private final double[] values = new double[Aggregator.METRICS];
+
+	/**
+	 * @param id			The client id sent in the reports.
+	 * @param ops			The offered ops/sec.
+	 * @param readFraction	The fraction of the operations that are read-only.
+	 * @param random		The random source of the noise.
+	 */
+	public SimClient(int id, double ops, double readFraction, Random random) {
+		this.id = id;
+		this.ops = ops;
+		this.readFraction = readFraction;
+		this.random = random;
+	}
+
+	public double getReadOps() {
+		return ops * readFraction;
+	}
+
+	public double getMixedOps() {
+		return ops * (1 - readFraction);
+	}
+
+	/**
+	 * Runs the client for a while under a constant load.
+	 *
+	 * @param sec		The time in seconds.
+	 * @param scale		The fraction of the offered load that the store serves.
+	 * @param readRt	The mean queueing latency of read-only operations in ns.
+	 * @param mixedRt	The mean queueing latency of mixed operations in ns.
+	 */
+	public void advance(double sec, double scale, double readRt, double mixedRt) {
+		advance(READ, getReadOps() * scale * sec, readRt);
+		advance(MIXED, getMixedOps() * scale * sec, mixedRt);
+	}
+
+	private void advance(int k, double n, double rt) {
+		if(n <= 0) {
+			return;
+		}
+		double mean = SimStore.BASE_LATENCY + rt;
+		count[k] += n;
+		sumMean[k] += n * mean;
+		sumSquares[k] += n * (rt*rt + mean*mean);
+		sumP95[k] += n * (SimStore.BASE_LATENCY + rt*P95);
+		sumP99[k] += n * (SimStore.BASE_LATENCY + rt*P99);
+		// the expected max of n exponential samples
+		max[k] = Math.max(max[k], SimStore.BASE_LATENCY + rt*Math.log(Math.max(n, 1)));
+	}
+
+	/**
+	 * Encodes the report of the operations since the last report and starts a new one.
+	 *
+	 * @param out	Receives the frame.
+	 */
+	public void report(ByteBuffer out) {
+		fill(READ, Aggregator.READ_OPS);
+		fill(MIXED, Aggregator.MIXED_OPS);
+		WireProtocol.encode(out, id, ++seq, values, null, null);
+		for (int k = READ; k <= MIXED; k++) {
+			count[k] = sumMean[k] = sumSquares[k] = sumP95[k] = sumP99[k] = max[k] = 0;
+		}
+	}
+
+	// the metrics of a kind follow its ops in the report: ops, mean, stddev, min, p95, p99, max
+	private void fill(int k, int first) {
+		double n = count[k];
+		values[first] = Math.round(n);
+		if(n == 0) {
+			for (int i = 1; i <= 6; i++) {
+				values[first + i] = Double.NaN;	// not sent
+			}
+			return;
+		}
+		double mean = sumMean[k] / n;
+		double noise = Math.exp(random.nextGaussian() * NOISE);
+		values[first + 1] = noisy(mean, noise);
+		values[first + 2] = Math.sqrt(Math.max(sumSquares[k]/n - mean*mean, 0)) * noise;
+		values[first + 3] = SimStore.BASE_LATENCY;
+		values[first + 4] = noisy(sumP95[k] / n, noise);
+		values[first + 5] = noisy(sumP99[k] / n, noise);
+		values[first + 6] = noisy(max[k], noise);
+	}
+
+	private static double noisy(double latency, double noise) {
+		return SimStore.BASE_LATENCY + (latency - SimStore.BASE_LATENCY) * noise;
+	}
+
+}
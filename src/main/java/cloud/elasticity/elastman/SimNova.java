@@ -0,0 +1,149 @@
+/*
+ * This file is part of the ElastMan Elasticity Manager
+ *
+ * Copyright (C) 2013 Ahmad Al-Shishtawy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cloud.elasticity.elastman;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Random;
+
+/**
+ * A simulated OpenStack Compute (Nova) for the {@link Simulator}.
+ * <p>
+ * Create requests are rate limited to a number of API calls per minute, at most a number
+ * of VMs are built in parallel and each VM takes a random boot time. As with
+ * {@link Nova#createVMs(int, String, int, String, String, Runnable)} the callback runs when
+ * all VMs of a request are active. VMs are counted per name prefix from the moment they
+ * are requested until they are deleted, as the real VM list would show them.
+ *
+ * @author Ahmad Al-Shishtawy <ahmadas@kth.se>
+ *
+ */
+public class SimNova {
+
+	private final Simulator sim;
+	private final long bootMs, jitterMs;
+	private final int parallel;
+	private final long apiIntervalMs;
+	private final Random random;
+
+	private final HashMap<String, Integer> vms = new HashMap<String, Integer>();
+	private final LinkedList<Batch> waiting = new LinkedList<Batch>();	// one entry per requested VM
+	private int building = 0;
+	private long nextApi = 0;	// time of the next allowed API call
+
+	/**
+	 * @param sim		The simulator.
+	 * @param bootMs	The mean boot time of a VM in ms.
+	 * @param jitterMs	The boot time varies uniformly by up to this much.
+	 * @param parallel	The max number of VMs in build at the same time.
+	 * @param ratePerMin	The max number of create calls per minute.
+	 * @param random	The random source.
+	 */
+	public SimNova(Simulator sim, long bootMs, long jitterMs, int parallel, int ratePerMin, Random random) {
+		this.sim = sim;
+		this.bootMs = bootMs;
+		this.jitterMs = jitterMs;
+		this.parallel = Math.max(parallel, 1);
+		this.apiIntervalMs = 60000L / Math.max(ratePerMin, 1);
+		this.random = random;
+	}
+
+	/**
+	 * Adds VMs that exist from the start.
+	 */
+	public void addVMs(int count, String prefix) {
+		vms.put(prefix, getVMsCount(prefix) + count);
+	}
+
+	/**
+	 * Requests new VMs.
+	 *
+	 * @param count		The number of VMs.
+	 * @param prefix	The name prefix, e.g., vold or ycsb.
+	 * @param callback	Runs when all VMs are active.
+	 */
+	public void createVMs(int count, String prefix, Runnable callback) {
+		if(count <= 0) {
+			if(callback != null) {
+				callback.run();
+			}
+			return;
+		}
+		addVMs(count, prefix);
+		final Batch batch = new Batch(count, callback);
+		for (int i = 0; i < count; i++) {
+			long at = Math.max(sim.now(), nextApi);
+			nextApi = at + apiIntervalMs;
+			sim.schedule(at - sim.now(), new Runnable() {
+				public void run() {
+					waiting.add(batch);
+					startBuilds();
+				}
+			});
+		}
+	}
+
+	private void startBuilds() {
+		while(building < parallel && !waiting.isEmpty()) {
+			final Batch batch = waiting.remove();
+			building++;
+			long boot = bootMs;
+			if(jitterMs > 0) {
+				boot += (long)((random.nextDouble()*2 - 1) * jitterMs);
+			}
+			sim.schedule(Math.max(boot, 1), new Runnable() {
+				public void run() {
+					building--;
+					batch.left--;
+					if(batch.left == 0 && batch.callback != null) {
+						batch.callback.run();
+					}
+					startBuilds();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Deletes VMs right away.
+	 */
+	public void deleteVMs(int count, String prefix) {
+		vms.put(prefix, Math.max(getVMsCount(prefix) - count, 0));
+	}
+
+	/**
+	 * @return The number of VMs with the prefix, including those still building.
+	 */
+	public int getVMsCount(String prefix) {
+		Integer n = vms.get(prefix);
+		return n == null ? 0 : n;
+	}
+
+	private static class Batch {
+		int left;
+		final Runnable callback;
+
+		Batch(int left, Runnable callback) {
+			this.left = left;
+			this.callback = callback;
+		}
+	}
+
+}
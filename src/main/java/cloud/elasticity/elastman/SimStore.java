@@ -0,0 +1,135 @@
+/*
+ * This file is part of the ElastMan Elasticity Manager
+ *
+ * Copyright (C) 2013 Ahmad Al-Shishtawy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cloud.elasticity.elastman;
+
+/**
+ * A simulated Voldemort store for the {@link Simulator}.
+ * <p>
+ * Each node serves a fixed number of read-only or mixed operations per second. A node is
+ * modelled as an M/M/1 queue: with utilization rho the response time is exponential with
+ * mean s/(1-rho) on top of a fixed network and client latency, where s is the service time
+ * of the operation. Clients are closed-loop, so they slow down instead of pushing the
+ * utilization above {@link #MAX_UTILIZATION}.
+ * <p>
+ * A rebalance moves the partitions that change owner between the {@link PartitionGenerator}
+ * layouts of the old and new cluster size and takes a fixed time per moved partition.
+ * While it runs the nodes lose part of their capacity to the data transfer. The new nodes
+ * serve only when the rebalance is over.
+ *
+ * @author Ahmad Al-Shishtawy <ahmadas@kth.se>
+ *
+ */
+public class SimStore {
+
+	/**
+	 * Latency added to every operation in ns (network and client).
+	 */
+	public static final double BASE_LATENCY = 2000000;
+
+	/**
+	 * The utilization at which the clients are slowed down.
+	 */
+	public static final double MAX_UTILIZATION = 0.95;
+
+	private final Simulator sim;
+	private final int partitions;
+	private final double readCapacity, mixedCapacity;	// ops/sec per node
+	private final long partitionMs;
+	private final double rebalanceLoad;
+
+	private int nodes;
+	private boolean rebalancing = false;
+	private int moved = 0;	// partitions moved so far
+
+	/**
+	 * @param sim			The simulator.
+	 * @param nodes			The initial number of nodes.
+	 * @param partitions	The number of partitions.
+	 * @param readCapacity	The read-only ops/sec a node serves at full utilization.
+	 * @param mixedCapacity	The mixed ops/sec a node serves at full utilization.
+	 * @param partitionMs	The time to move one partition in ms.
+	 * @param rebalanceLoad	The fraction of the capacity taken by a rebalance.
+	 */
+	public SimStore(Simulator sim, int nodes, int partitions, double readCapacity, double mixedCapacity,
+			long partitionMs, double rebalanceLoad) {
+		this.sim = sim;
+		this.nodes = nodes;
+		this.partitions = partitions;
+		this.readCapacity = readCapacity;
+		this.mixedCapacity = mixedCapacity;
+		this.partitionMs = partitionMs;
+		this.rebalanceLoad = rebalanceLoad;
+	}
+
+	/**
+	 * Moves the store to a new number of nodes.
+	 *
+	 * @param target	The new number of nodes.
+	 * @param done		Runs when the rebalance is over.
+	 */
+	public void rebalance(final int target, final Runnable done) {
+		final int n = PartitionGenerator.moved(partitions, nodes, target);
+		rebalancing = true;
+		sim.schedule(n * partitionMs, new Runnable() {
+			public void run() {
+				nodes = target;
+				rebalancing = false;
+				moved += n;
+				done.run();
+			}
+		});
+	}
+
+	/**
+	 * @param readOps	The offered read-only ops/sec.
+	 * @param mixedOps	The offered mixed ops/sec.
+	 * @return	The utilization of the nodes. Might be above 1 if overloaded.
+	 */
+	public double utilization(double readOps, double mixedOps) {
+		double capacity = rebalancing ? nodes * (1 - rebalanceLoad) : nodes;
+		return (readOps/readCapacity + mixedOps/mixedCapacity) / capacity;
+	}
+
+	/**
+	 * @param rho	The utilization. At most {@link #MAX_UTILIZATION}.
+	 * @param mixed	true for mixed operations.
+	 * @return	The mean of the queueing part of the latency in ns.
+	 */
+	public double responseTime(double rho, boolean mixed) {
+		double s = 1e9 / (mixed ? mixedCapacity : readCapacity);
+		return s / (1 - Math.min(rho, MAX_UTILIZATION));
+	}
+
+	public int getNodes() {
+		return nodes;
+	}
+
+	public boolean isRebalancing() {
+		return rebalancing;
+	}
+
+	/**
+	 * @return The number of partitions moved by all finished rebalances.
+	 */
+	public int getMoved() {
+		return moved;
+	}
+
+}
@@ -0,0 +1,583 @@
+/*
+ * This file is part of the ElastMan Elasticity Manager
+ *
+ * Copyright (C) 2013 Ahmad Al-Shishtawy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cloud.elasticity.elastman;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A discrete-event simulation of ElastMan controlling a Voldemort store on OpenStack,
+ * loaded by YCSB clients. It replaces OpenStack with {@link SimNova}, Voldemort with
+ * {@link SimStore} and YCSB with {@link SimClient}s, and runs the real {@link Decider} on a
+ * virtual clock, so a whole {@link ControlWorkLoad} scenario of a day takes seconds.
+ * <p>
+ * Each control interval the clients encode their reports with the {@link WireProtocol}, the
+ * reports are decoded and summed by an {@link Aggregator} as the {@link Sensor} does when it
+ * polls the clients, and the decider runs on the result. Its decisions go through the same
+ * steps as in the {@link Actuator}: bound the change, create the VMs and wait for them to
+ * boot, wait 2 minutes for the OS and Voldemort, cancel the new VMs not needed anymore if
+ * the controller reversed meanwhile, rebalance, delete the removed VMs and wait 2 minutes
+ * for the store to settle. The {@link WarmPool} is kept as by the Actuator.
+ * <p>
+ * All times are in ms of simulated time. The simulator is single threaded and deterministic
+ * for a given seed.
+ *
+ * @author Ahmad Al-Shishtawy <ahmadas@kth.se>
+ *
+ */
+public class Simulator implements Decider.Plant {
+
+	static Logger log = LoggerFactory.getLogger(Simulator.class);
+
+	/**
+	 * The number of partitions of the store, as in {@link Cluster#PARTITIONS}.
+	 */
+	public static final int PARTITIONS = Cluster.PARTITIONS;
+
+	// waits of the Actuator
+	private static final long START_MS = 2*60*1000;
+	private static final long SETTLE_MS = 120*1000;
+
+	private final PriorityQueue<Event> events = new PriorityQueue<Event>();
+	private long now = 0;
+	private long eventCount = 0;
+
+	// the simulated system
+	private final Random random;
+	private final SimNova nova;
+	private final SimStore store;
+	private final ArrayList<SimClient> clients = new ArrayList<SimClient>();
+	private int ycsbCount = 0;
+	private int nextClientId = 0;
+
+	// the sensor
+	private final long periodMs;
+	private final Aggregator stats = new Aggregator();
+	private final ClientReport report = new ClientReport();
+	private final ByteBuffer frame = ByteBuffer.allocate(WireProtocol.MAX_FRAME_SIZE);
+	private final Decider decider;
+	private long timeStep = 0;
+	private long lastSense = -1;	// -1 till the first client starts
+	private Writer out;
+	private final StringBuilder row = new StringBuilder(512);
+
+	// the actuator
+	private final RebalanceQueue tasks = new RebalanceQueue();
+	private boolean rebalancing = false;
+	private boolean booting = false;	// a scale-out waits for its VMs
+	private int active;
+	private final WarmPool pool;	// null if none
+	private boolean waiting = false;	// a task waits for the pool to stop changing
+
+	// summary
+	private int violations = 0, ffActions = 0, fbActions = 0, mpcActions = 0, forecastActions = 0;
+	private int added = 0, removed = 0, cancelled = 0;
+	private double vmMinutes = 0;
+
+	/**
+	 * Creates a simulated system using the settings in {@link Props}.
+	 *
+	 * @param nodes	The initial number of Voldemort VMs.
+	 */
+	public Simulator(int nodes) {
+		random = new Random(Props.sim_seed);
+		nova = new SimNova(this, Props.sim_boot*1000L, Props.sim_boot_jitter*1000L, Props.sim_nova_parallel,
+				Props.sim_nova_rate, random);
+		nova.addVMs(nodes, Props.voldPrefix);
+		store = new SimStore(this, nodes, PARTITIONS, Props.sim_node_read, Props.sim_node_mixed,
+				(long)(Props.sim_partition_time*1000), Props.sim_rebalance_load);
+		active = nodes;
+		if(Props.createVMs && Props.pool_max > 0) {
+			pool = new WarmPool(Props.pool_min, Props.pool_max, Props.pool_window*1000L, Props.voldMax);
+		} else {
+			pool = null;
+		}
+		periodMs = Props.control_interval * 1000L;
+		decider = new Decider(true, this);
+	}
+
+	/**
+	 * @return The current simulated time in ms.
+	 */
+	public long now() {
+		return now;
+	}
+
+	/**
+	 * Runs an action later in simulated time.
+	 *
+	 * @param delayMs	The delay in ms.
+	 * @param action	The action.
+	 */
+	public void schedule(long delayMs, Runnable action) {
+		events.add(new Event(now + Math.max(delayMs, 0), eventCount++, action));
+	}
+
+	/**
+	 * Runs a workload scenario till its last change plus a tail.
+	 *
+	 * @param scenario	The number of YCSB clients to have after each delay.
+	 * @param tailMs	How long to run after the last change.
+	 * @param out		Receives the samples in the format of control.dat, or null.
+	 * @throws IOException
+	 */
+	public void run(List<ControlWorkLoad.work> scenario, long tailMs, Writer out) throws IOException {
+		this.out = out;
+		if(out != null) {
+			out.write(DataRecorder.HEADER);
+		}
+		long at = 0;
+		for (final ControlWorkLoad.work w : scenario) {
+			at += w.getDelayMs();
+			schedule(at, new Runnable() {
+				public void run() {
+					setClients(w.getVms());
+				}
+			});
+		}
+		long end = at + tailMs;
+		while(!events.isEmpty() && events.peek().time <= end) {
+			Event e = events.remove();
+			advance(e.time);
+			e.action.run();
+		}
+		advance(end);
+		if(out != null) {
+			out.flush();
+		}
+	}
+
+	/**
+	 * Moves the clock, running the clients under the current state of the store.
+	 */
+	private void advance(long to) {
+		if(to <= now) {
+			return;
+		}
+		double sec = (to - now) / 1000.0;
+		double readOps = 0, mixedOps = 0;
+		for (int i = 0; i < clients.size(); i++) {
+			readOps += clients.get(i).getReadOps();
+			mixedOps += clients.get(i).getMixedOps();
+		}
+		double rho = store.utilization(readOps, mixedOps);
+		double scale = rho > SimStore.MAX_UTILIZATION ? SimStore.MAX_UTILIZATION/rho : 1;
+		double readRt = store.responseTime(rho, false);
+		double mixedRt = store.responseTime(rho, true);
+		for (int i = 0; i < clients.size(); i++) {
+			clients.get(i).advance(sec, scale, readRt, mixedRt);
+		}
+		vmMinutes += nova.getVMsCount(Props.voldPrefix) * sec / 60;
+		now = to;
+	}
+
+	//// the workload generator
+
+	private void setClients(int n) {
+		final int delta = n - ycsbCount;
+		ycsbCount = n;
+		if(delta > 0) {
+			nova.createVMs(delta, Props.ycsbPrefix, new Runnable() {
+				public void run() {
+					// some of them might have been removed while booting
+					int start = Math.min(delta, ycsbCount - clients.size());
+					for (int i = 0; i < start; i++) {
+						clients.add(new SimClient(nextClientId++, Props.sim_client_ops, Props.sim_client_read, random));
+					}
+					if(lastSense < 0 && !clients.isEmpty()) {	// the sensor starts with the first client
+						lastSense = now;
+						schedule(periodMs, sensor);
+					}
+				}
+			});
+		} else if(delta < 0) {
+			for (int i = 0; i < -delta && !clients.isEmpty(); i++) {
+				clients.remove(clients.size() - 1);
+			}
+			nova.deleteVMs(-delta, Props.ycsbPrefix);
+		}
+		log.debug("{} min: {} clients", now/60000, n);
+	}
+
+	//// the sensor
+
+	private final Runnable sensor = new Runnable() {
+		public void run() {
+			try {
+				sense();
+			} catch (IOException e) {
+				log.error("Can't write the samples: {}", e.getMessage());
+				out = null;
+			}
+			schedule(periodMs, this);
+		}
+	};
+
+	private void sense() throws IOException {
+		timeStep++;
+		final double pInSec = (now - lastSense) / 1000.0;
+		lastSense = now;
+		for (int i = 0; i < clients.size(); i++) {
+			frame.clear();
+			clients.get(i).report(frame);
+			if(WireProtocol.frameSize(frame, false) != frame.position()) {
+				log.warn("Bad frame from simulated client {}", i);
+				continue;
+			}
+			frame.flip();
+			if(WireProtocol.decode(frame, report)) {
+				stats.add(report);
+			}
+		}
+
+		final double throughput = stats.getSum(Aggregator.TOTAL_OPS)/pInSec;
+		final double rtps = stats.getSum(Aggregator.READ_OPS)/pInSec/active;
+		final double mtps = stats.getSum(Aggregator.MIXED_OPS)/pInSec/active;
+		final double tps = throughput/active;
+		final double p99R = stats.getMean(Aggregator.READ_P99);
+
+		decider.observe(tps, p99R);
+
+		DataRecorder.Sample sample = new DataRecorder.Sample();
+		sample.step = timeStep;
+		sample.periodSec = pInSec;
+		sample.clients = clients.size();
+		sample.servers = active;
+		sample.totalOps = stats.getSum(Aggregator.TOTAL_OPS);
+		sample.throughput = (long)throughput;
+		sample.tps = (long)tps;
+		sample.rtps = (long)rtps;
+		sample.meanR = (long)stats.getMean(Aggregator.READ_MEAN);
+		sample.stddevR = (long)stats.getMean(Aggregator.READ_STDDEV);
+		sample.minR = (long)stats.getMean(Aggregator.READ_MIN);
+		sample.p95R = (long)stats.getMean(Aggregator.READ_P95);
+		sample.p99R = (long)p99R;
+		sample.fp99R = (long)decider.getFilteredP99();
+		sample.maxR = (long)stats.getMean(Aggregator.READ_MAX);
+		sample.mtps = (long)mtps;
+		sample.meanM = (long)stats.getMean(Aggregator.MIXED_MEAN);
+		sample.stddevM = (long)stats.getMean(Aggregator.MIXED_STDDEV);
+		sample.minM = (long)stats.getMean(Aggregator.MIXED_MIN);
+		sample.p95M = (long)stats.getMean(Aggregator.MIXED_P95);
+		sample.p99M = (long)stats.getMean(Aggregator.MIXED_P99);
+		sample.maxM = (long)stats.getMean(Aggregator.MIXED_MAX);
+		sample.ntp = (long)(tps-decider.getOutOp());
+		sample.nfp99 = (long)(decider.getFilteredP99() - decider.getInOp());
+		stats.reset();
+
+		decider.decide(timeStep, throughput, tps, rtps, mtps, false, sample);
+		if(sample.opId == 2) {
+			ffActions++;
+		} else if(sample.opId == 1) {
+			fbActions++;
+		} else if(sample.opId == 4) {
+			mpcActions++;
+		} else if(sample.opId == 5) {
+			forecastActions++;
+		}
+		if(p99R > decider.getInOp()) {
+			violations++;
+		}
+		if(!rebalancing) {
+			maintainPool();
+		}
+
+		if(out != null) {
+			row.setLength(0);
+			DataRecorder.appendRow(sample, row);
+			DataRecorder.appendDecision(sample, row);
+			out.append(row);
+		}
+	}
+
+	//// the actuator
+
+	public void update() {
+		// the counts are always up to date
+	}
+
+	public int getActiveVoldVMsCount() {
+		return active;
+	}
+
+	public int getVoldVMsCount() {
+		return nova.getVMsCount(Props.voldPrefix) - (pool == null ? 0 : pool.getSpares());
+	}
+
+	public boolean isCreateVMs() {
+		return Props.createVMs;
+	}
+
+	public boolean isRebalancing() {
+		return rebalancing;
+	}
+
+	public boolean isBooting() {
+		return booting;
+	}
+
+	public void scheduleRebalance(int nVMs, boolean limit) {
+		tasks.add(nVMs, limit);
+		if(!rebalancing) {
+			rebalancing = true;
+			nextTask();
+		}
+	}
+
+	private final Runnable settled = new Runnable() {
+		public void run() {
+			schedule(SETTLE_MS, new Runnable() {
+				public void run() {
+					nextTask();
+				}
+			});
+		}
+	};
+
+	private void nextTask() {
+		if(tasks.isEmpty()) {
+			rebalancing = false;
+			return;
+		}
+		if(pool != null && pool.isChanging()) {
+			waiting = true;	// see maintainPool
+			return;
+		}
+		RebalanceQueue.Task t = tasks.take();
+		int nVMs = t.getnVMs();
+		boolean limit = t.getLimit();
+		if(nVMs > 0) {
+			nVMs = Actuator.bound(active, nVMs, limit, Props.voldMin, Props.voldMax, Props.voldDeltaMax);
+			if(nVMs <= 0) {
+				nextTask();
+				return;
+			}
+			int spares = 0;
+			if(pool != null) {
+				spares = pool.take(nVMs);
+				pool.recordScaleOut(now, nVMs);
+			}
+			active += nVMs;
+			added += nVMs;
+			final int step = nVMs;
+			final Runnable rebalance = new Runnable() {
+				public void run() {
+					// no data was moved yet. If the controller reversed meanwhile, add fewer VMs
+					booting = false;
+					int cancel = tasks.preempt(step);
+					if(cancel > 0) {
+						active -= cancel;
+						cancelled += cancel;
+						int kept = pool == null ? 0 : pool.keep(now, active, cancel);
+						if(Props.createVMs) {
+							nova.deleteVMs(cancel - kept, Props.voldPrefix);
+						}
+						if(cancel == step) {
+							nextTask();	// nothing to move
+							return;
+						}
+					}
+					store.rebalance(active, settled);
+				}
+			};
+			if(Props.createVMs && nVMs > spares) {
+				booting = true;
+				nova.createVMs(nVMs - spares, Props.voldPrefix, new Runnable() {
+					public void run() {
+						schedule(START_MS, rebalance);	// wait for voldemort & os
+					}
+				});
+			} else {
+				rebalance.run();
+			}
+		} else if(nVMs < 0 && active > Props.voldMin) {
+			nVMs = Actuator.bound(active, nVMs, limit, Props.voldMin, Props.voldMax, Props.voldDeltaMax);
+			if(nVMs >= 0) {
+				nextTask();
+				return;
+			}
+			active += nVMs;
+			removed -= nVMs;
+			final int n = -nVMs - (pool == null ? 0 : pool.keep(now, active, -nVMs));
+			store.rebalance(active, new Runnable() {
+				public void run() {
+					if(Props.createVMs) {
+						nova.deleteVMs(n, Props.voldPrefix);
+					}
+					settled.run();
+				}
+			});
+		} else {
+			nextTask();
+		}
+	}
+
+	/**
+	 * Refills or trims the warm pool, as the Actuator does while idle.
+	 */
+	private void maintainPool() {
+		if(pool == null) {
+			return;
+		}
+		final int create = pool.refill(now, active);
+		if(create > 0) {
+			nova.createVMs(create, Props.voldPrefix, new Runnable() {
+				public void run() {
+					schedule(START_MS, new Runnable() {	// wait for voldemort & os
+						public void run() {
+							pool.booted(create);
+							poolChanged();
+						}
+					});
+				}
+			});
+			return;
+		}
+		int delete = pool.trim(now, active);
+		if(delete > 0) {
+			nova.deleteVMs(delete, Props.voldPrefix);
+			pool.deleted();
+		}
+	}
+
+	private void poolChanged() {
+		if(waiting) {
+			waiting = false;
+			nextTask();
+		}
+	}
+
+	/**
+	 * @return The number of new VMs cancelled while booting, as the controller reversed.
+	 */
+	public int getCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * @return A one line summary of the run.
+	 */
+	public String getSummary() {
+		return "Steps: " + timeStep + "\tp99 > inOp: " + violations
+				+ "\tFF actions: " + ffActions + "\tFB actions: " + fbActions + "\tMPC actions: " + mpcActions
+				+ "\tForecast actions: " + forecastActions
+				+ "\tVMs added: " + added + "\tremoved: " + removed + "\tcancelled: " + cancelled
+				+ "\tpartitions moved: " + store.getMoved()
+				+ "\tVM-minutes: " + Math.round(vmMinutes)
+				+ "\tfinal VMs: " + active;
+	}
+
+	private static class Event implements Comparable<Event> {
+		final long time;
+		final long order;	// events at the same time run in the order they were scheduled
+		final Runnable action;
+
+		Event(long time, long order, Runnable action) {
+			this.time = time;
+			this.order = order;
+			this.action = action;
+		}
+
+		public int compareTo(Event o) {
+			if(time != o.time) {
+				return time < o.time ? -1 : 1;
+			}
+			return order < o.order ? -1 : (order == o.order ? 0 : 1);
+		}
+	}
+
+	/**
+	 * Runs the {@link ControlWorkLoad} scenario in simulation.
+	 *
+	 * @param args	See the help (-h).
+	 */
+	public static void main(String[] args) {
+		Options options = new Options();
+		options.addOption("o", "options", true, "Configuration file with the control and sim.* settings. Default control.prop");
+		options.addOption("w", "write", true, "Write the samples to this file instead of the console");
+		options.addOption("n", "nodes", true, "Initial number of Voldemort VMs. Default cloud.voldVMs or act.voldMin");
+		options.addOption("d", "days", true, "Number of times to run the scenario back to back. Default 1");
+		options.addOption("h", "help", false, "Print this help");
+
+		CommandLineParser parser = new GnuParser();
+		CommandLine cmd = null;
+		try {
+			cmd = parser.parse(options, args);
+		} catch (ParseException e) {
+			System.out.println(e.getMessage());
+			cmd = null;
+		}
+		if(cmd == null || cmd.hasOption("h") || cmd.getArgs().length != 0) {
+			HelpFormatter formatter = new HelpFormatter();
+			formatter.printHelp( "Simulator [options]" , options);
+			System.exit(cmd == null ? 1 : 0);
+		}
+
+		Props.load(cmd.getOptionValue("o", "control.prop"), cmd);
+		int nodes = Props.voldCount > 0 ? Props.voldCount : Props.voldMin;
+		if(cmd.hasOption("n")) {
+			nodes = Integer.parseInt(cmd.getOptionValue("n"));
+		}
+
+		try {
+			long start = System.nanoTime();
+			Writer out;
+			if(cmd.hasOption("w")) {
+				out = new BufferedWriter(new FileWriter(cmd.getOptionValue("w")));
+			} else {
+				out = new BufferedWriter(new OutputStreamWriter(System.out));
+			}
+			Simulator sim = new Simulator(nodes);
+			ArrayList<ControlWorkLoad.work> work = new ArrayList<ControlWorkLoad.work>();
+			int days = Integer.parseInt(cmd.getOptionValue("d", "1"));
+			for (int d = 0; d < days; d++) {
+				work.addAll(ControlWorkLoad.scenario());
+			}
+			sim.run(work, 60*60*1000L, out);
+			if(cmd.hasOption("w")) {
+				out.close();
+			}
+			long ms = (System.nanoTime() - start) / 1000000;
+			System.out.println("Simulated " + sim.now()/60000 + " minutes in " + ms + " ms");
+			System.out.println(sim.getSummary());
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+	}
+
+}
@@ -0,0 +1,268 @@
+/*
+ * This file is part of the ElastMan Elasticity Manager
+ *
+ * Copyright (C) 2013 Ahmad Al-Shishtawy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cloud.elasticity.elastman;
+
+import java.nio.ByteBuffer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A ring of short sub-windows (slots) fed by the records streamed by the clients.
+ * <p>
+ * The control period is long (minutes) so a load spike is only seen by the controller
+ * at the end of the period. The window keeps the operations and read latencies of the
+ * last few slots so the throughput and p99 over any number of recent slots can be read
+ * at any time.
+ * <p>
+ * When a slot is closed its throughput is compared to a baseline set by the controller.
+ * If the throughput differs from the baseline by more than the allowed delta in
+ * consecutive slots the {@link SpikeListener} is called, so the controller can react
+ * without waiting for the end of the period. The window is disarmed after a spike
+ * until a new baseline is set.
+ *
+ * @author Ahmad Al-Shishtawy <ahmadas@kth.se>
+ *
+ */
+public class SlidingWindow {
+
+	static Logger log = LoggerFactory.getLogger(SlidingWindow.class);
+
+	/**
+	 * Notified when the throughput leaves the band around the baseline.
+	 */
+	public interface SpikeListener {
+		/**
+		 * Called from the thread that adds the records.
+		 *
+		 * @param throughput	The throughput (ops/sec) of the last closed slot.
+		 * @param baseline		The baseline throughput (ops/sec).
+		 */
+		public void spike(double throughput, double baseline);
+	}
+
+	private final long slotNs;
+	private final int slots;
+
+	// per slot data. A slot belongs to the epoch ((time - origin) / slotNs) stored in epochs
+	private final long[] epochs;
+	private final double[] readOps;
+	private final double[] mixedOps;
+	private final double[] p99Sum;
+	private final long[] p99Count;
+	private final LatencyHistogram[] readHist;
+	private final LatencyHistogram view = new LatencyHistogram();	// reused to merge slots
+
+	private long origin;		// time of epoch 0
+	private long current = -1;	// epoch of the slot being filled
+
+	private double baseline = Double.NaN;
+	private double delta = 0;
+	private final int spikeSlots;
+	private int outside = 0;	// consecutive closed slots outside the band
+	private SpikeListener spikeListener;
+
+	/**
+	 * @param slotSec		The length of a slot in seconds.
+	 * @param historySec	The time covered by the complete slots, normally one control period.
+	 * @param spikeSlots	The number of consecutive slots that must be outside the band to raise a spike.
+	 */
+	public SlidingWindow(int slotSec, long historySec, int spikeSlots) {
+		this.slotNs = slotSec * 1000000000L;
+		this.slots = (int)Math.max(spikeSlots, (historySec + slotSec - 1) / slotSec) + 1;	// + the slot being filled
+		this.spikeSlots = spikeSlots;
+		epochs = new long[slots];
+		readOps = new double[slots];
+		mixedOps = new double[slots];
+		p99Sum = new double[slots];
+		p99Count = new long[slots];
+		readHist = new LatencyHistogram[slots];
+		for (int i = 0; i < slots; i++) {
+			epochs[i] = -1;
+			readHist[i] = new LatencyHistogram();
+		}
+	}
+
+	public void setSpikeListener(SpikeListener spikeListener) {
+		this.spikeListener = spikeListener;
+	}
+
+	/**
+	 * Arms the spike detection.
+	 *
+	 * @param throughput	The expected throughput (ops/sec) or NaN to disarm.
+	 * @param delta			The allowed difference from the expected throughput (ops/sec).
+	 */
+	public synchronized void setBaseline(double throughput, double delta) {
+		this.baseline = throughput;
+		this.delta = delta;
+		outside = 0;
+	}
+
+	/**
+	 * Adds one client record to the current slot.
+	 *
+	 * @param r	A decoded record.
+	 */
+	public void add(ClientReport r) {
+		add(r, System.nanoTime());
+	}
+
+	synchronized void add(ClientReport r, long now) {
+		int i = advance(now);
+		readOps[i] += r.get(Aggregator.READ_OPS);
+		mixedOps[i] += r.get(Aggregator.MIXED_OPS);
+		if(r.get(Aggregator.READ_OPS) > 0 && r.has(Aggregator.READ_P99)) {
+			p99Sum[i] += r.get(Aggregator.READ_P99);
+			p99Count[i]++;
+		}
+		ByteBuffer in = r.histograms();
+		if(in != null) {
+			readHist[i].merge(in);
+		}
+	}
+
+	/**
+	 * Moves to the slot of the given time, closing the slots that ended.
+	 *
+	 * @return The index of the current slot.
+	 */
+	private int advance(long now) {
+		if(current < 0) {	// the slots start with the first call
+			origin = now;
+			current = 0;
+			clear(0);
+		}
+		long e = (now - origin) / slotNs;
+		if(e - current > slots) {	// a long gap. Only the last slots matter
+			current = e - slots;
+		}
+		while(current < e) {
+			close(current);
+			current++;
+			clear(current);
+		}
+		return (int)(current % slots);
+	}
+
+	private void clear(long epoch) {
+		int i = (int)(epoch % slots);
+		epochs[i] = epoch;
+		readOps[i] = 0;
+		mixedOps[i] = 0;
+		p99Sum[i] = 0;
+		p99Count[i] = 0;
+		readHist[i].reset();
+	}
+
+	private void close(long epoch) {
+		if(Double.isNaN(baseline)) {
+			return;
+		}
+		int i = (int)(epoch % slots);
+		if(epochs[i] != epoch || readOps[i] + mixedOps[i] == 0) {
+			return;	// no data. The clients may be late, don't take it as a drop in load
+		}
+		double tp = (readOps[i] + mixedOps[i]) / (slotNs / 1e9);
+		if(Math.abs(tp - baseline) <= delta) {
+			outside = 0;
+			return;
+		}
+		outside++;
+		log.debug("Slot {} throughput {} is outside {} +/- {}", new Object[] {epoch, (long)tp, (long)baseline, (long)delta});
+		if(outside >= spikeSlots) {
+			double b = baseline;
+			baseline = Double.NaN;	// disarm till the controller sets a new baseline
+			outside = 0;
+			if(spikeListener != null) {
+				spikeListener.spike(tp, b);
+			}
+		}
+	}
+
+	/**
+	 * @param n	The number of complete slots to look at.
+	 * @return	The throughput (ops/sec) over the last n complete slots.
+	 */
+	public double getThroughput(int n) {
+		return getThroughput(n, true, true, System.nanoTime());
+	}
+
+	/**
+	 * @param n	The number of complete slots to look at.
+	 * @return	The read throughput (ops/sec) over the last n complete slots.
+	 */
+	public double getReadThroughput(int n) {
+		return getThroughput(n, true, false, System.nanoTime());
+	}
+
+	/**
+	 * @param n	The number of complete slots to look at.
+	 * @return	The mixed throughput (ops/sec) over the last n complete slots.
+	 */
+	public double getMixedThroughput(int n) {
+		return getThroughput(n, false, true, System.nanoTime());
+	}
+
+	synchronized double getThroughput(int n, boolean read, boolean mixed, long now) {
+		advance(now);
+		n = Math.min(n, slots - 1);
+		double ops = 0;
+		for (long e = current - n; e < current; e++) {
+			int i = (int)(e % slots);
+			if(e >= 0 && epochs[i] == e) {
+				ops += (read ? readOps[i] : 0) + (mixed ? mixedOps[i] : 0);
+			}
+		}
+		return ops / (n * slotNs / 1e9);
+	}
+
+	/**
+	 * The p99 of the read latency over the last n complete slots. Uses the histograms if the
+	 * clients send them, otherwise the mean of the p99 of the clients.
+	 *
+	 * @param n	The number of complete slots to look at.
+	 * @return	The p99 in ns or NaN if there is no data.
+	 */
+	public double getReadP99(int n) {
+		return getReadP99(n, System.nanoTime());
+	}
+
+	synchronized double getReadP99(int n, long now) {
+		advance(now);
+		n = Math.min(n, slots - 1);
+		view.reset();
+		double sum = 0;
+		long count = 0;
+		for (long e = current - n; e < current; e++) {
+			int i = (int)(e % slots);
+			if(e >= 0 && epochs[i] == e) {
+				view.add(readHist[i]);
+				sum += p99Sum[i];
+				count += p99Count[i];
+			}
+		}
+		if(view.getCount() > 0) {
+			return view.percentile(0.99);
+		}
+		return count == 0 ? Double.NaN : sum / count;
+	}
+
+}
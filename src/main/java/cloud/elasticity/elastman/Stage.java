@@ -0,0 +1,162 @@
+/*
+ * This file is part of the ElastMan Elasticity Manager
+ * 
+ * Copyright (C) 2013 Ahmad Al-Shishtawy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cloud.elasticity.elastman;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A stage of the control pipeline with its own thread and a bounded input queue.
+ * <p>
+ * The previous stage hands over items with {@link #submit(Object)}, which never blocks. If
+ * the queue is full the item is dropped and counted, as in the {@link DataRecorder}. The
+ * stage thread processes the items in order. {@link #step()} processes one queued item in
+ * the calling thread instead, so a stage can also be driven without its thread, e.g., to
+ * benchmark it.
+ * <p>
+ * The time spent processing is counted so that each stage can be measured on its own.
+ *
+ * @author Ahmad Al-Shishtawy <ahmadas@kth.se>
+ *
+ * @param <I>	The type of the items.
+ */
+public abstract class Stage<I> extends Thread implements Steppable {
+
+	static Logger log = LoggerFactory.getLogger(Stage.class);
+
+	private static final long POLL_MS = 100;
+
+	private final ArrayBlockingQueue<I> queue;
+	private volatile boolean closing = false;
+	private long dropped = 0;
+	private long processed = 0;
+	private long busyNanos = 0;
+
+	/**
+	 * @param name		The name of the stage and its thread.
+	 * @param capacity	The max number of queued items.
+	 */
+	protected Stage(String name, int capacity) {
+		super(name);
+		setDaemon(true);
+		queue = new ArrayBlockingQueue<I>(capacity);
+	}
+
+	/**
+	 * Processes one item.
+	 *
+	 * @param item	The item.
+	 */
+	protected abstract void process(I item);
+
+	/**
+	 * Queues an item. Never blocks.
+	 *
+	 * @param item	The item.
+	 * @return	false if the item was dropped because the queue is full.
+	 */
+	public boolean submit(I item) {
+		if(queue.offer(item)) {
+			return true;
+		}
+		synchronized (this) {
+			dropped++;
+		}
+		log.warn("Stage {} is too slow! Dropped an item ({} dropped so far)", getName(), getDropped());
+		return false;
+	}
+
+	/**
+	 * Processes the next queued item, if any, in the calling thread.
+	 */
+	public void step() {
+		I item = queue.poll();
+		if(item != null) {
+			handle(item);
+		}
+	}
+
+	private void handle(I item) {
+		long start = System.nanoTime();
+		try {
+			process(item);
+		} catch (RuntimeException e) {
+			log.error("Stage " + getName() + " failed", e);
+		}
+		long time = System.nanoTime() - start;
+		synchronized (this) {
+			processed++;
+			busyNanos += time;
+		}
+	}
+
+	@Override
+	public void run() {
+		while(!closing) {
+			I item;
+			try {
+				item = queue.poll(POLL_MS, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				continue;	// closing
+			}
+			if(item != null) {
+				handle(item);
+			}
+		}
+		I item;
+		while((item = queue.poll()) != null) {
+			handle(item);
+		}
+	}
+
+	/**
+	 * Processes all queued items and stops the stage thread.
+	 */
+	public void close() {
+		closing = true;
+		interrupt();
+		try {
+			join();
+		} catch (InterruptedException e) {
+			log.error(e.getMessage());
+		}
+		log.info("Stage {} processed {} items in {} ms, dropped {}",
+				new Object[] {getName(), getProcessed(), getBusyNanos() / 1000000, getDropped()});
+	}
+
+	public synchronized long getProcessed() {
+		return processed;
+	}
+
+	public synchronized long getDropped() {
+		return dropped;
+	}
+
+	/**
+	 * @return	The total time spent processing items in ns.
+	 */
+	public synchronized long getBusyNanos() {
+		return busyNanos;
+	}
+
+}
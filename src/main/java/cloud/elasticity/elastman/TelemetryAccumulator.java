@@ -0,0 +1,173 @@
+/*
+ * This file is part of the ElastMan Elasticity Manager
+ *
+ * Copyright (C) 2013 Ahmad Al-Shishtawy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cloud.elasticity.elastman;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free accumulation of the records streamed by the YCSB clients in push mode.
+ * <p>
+ * Every metric has its own striped adder so any number of threads can add records
+ * without a lock. Latency histograms that follow a record are merged into atomic bucket
+ * arrays. The control loop takes a snapshot at each period boundary with
+ * {@link #drain(Aggregator, LatencyHistogram, LatencyHistogram)}.
+ * <p>
+ * The adders of a period are swapped for new ones at the boundary, and the old ones are
+ * read once the records that were being added to them are complete. So each record,
+ * with its histograms, falls in exactly one period.
+ *
+ * @author Ahmad Al-Shishtawy <ahmadas@kth.se>
+ *
+ */
+public class TelemetryAccumulator {
+
+	/**
+	 * The sums of one period.
+	 */
+	private static class Period {
+		final DoubleAdder[] sums = new DoubleAdder[Aggregator.METRICS];
+		final LongAdder records = new LongAdder();
+		final AtomicInteger writers = new AtomicInteger();	// adding a record now
+
+		// merged latency histograms of read and mixed operations
+		final AtomicLongArray readHist = new AtomicLongArray(LatencyHistogram.BUCKETS);
+		final AtomicLongArray mixedHist = new AtomicLongArray(LatencyHistogram.BUCKETS);
+		final AtomicLong readMax = new AtomicLong();
+		final AtomicLong mixedMax = new AtomicLong();
+
+		Period() {
+			for (int i = 0; i < Aggregator.METRICS; i++) {
+				sums[i] = new DoubleAdder();
+			}
+		}
+	}
+
+	private final AtomicReference<Period> current = new AtomicReference<Period>(new Period());
+
+	/**
+	 * Adds one client record.
+	 *
+	 * @param r	A decoded record, optionally with the read and mixed latency histograms.
+	 * @return	false if the record was ignored because the client did not start yet.
+	 */
+	public boolean add(ClientReport r) {
+		if(r.get(Aggregator.READ_OPS) == 0) {	// A new client that did not start yet! Don't add this time
+			return false;
+		}
+		Period p;
+		while(true) {
+			p = current.get();
+			p.writers.incrementAndGet();
+			if(current.get() == p) {	// the drain will wait for this record
+				break;
+			}
+			p.writers.decrementAndGet();	// swapped meanwhile. Add to the new period
+		}
+		try {
+			for (int i = Aggregator.READ_OPS; i <= Aggregator.MIXED_MAX; i++) {
+				p.sums[i].add(r.get(i));
+			}
+			p.records.increment();
+			ByteBuffer in = r.histograms();
+			if(in != null) {
+				merge(in, p.readHist, p.readMax);
+				merge(in, p.mixedHist, p.mixedMax);
+			}
+		} finally {
+			p.writers.decrementAndGet();
+		}
+		return true;
+	}
+
+	private static void merge(ByteBuffer in, AtomicLongArray hist, AtomicLong max) {
+		int n = in.getInt();
+		long m = in.getLong();
+		long old;
+		while(m > (old = max.get()) && !max.compareAndSet(old, m)) {
+			// retry
+		}
+		for (int i = 0; i < n; i++) {
+			int index = in.getInt();
+			long c = in.getLong();
+			if(index >= 0 && index < LatencyHistogram.BUCKETS) {
+				hist.addAndGet(index, c);
+			}
+		}
+	}
+
+	/**
+	 * Takes a snapshot of the sums and histograms and resets the accumulator.
+	 *
+	 * @param to	Receives the sum of every metric since the last call.
+	 * @param read	Receives the read latencies, or null to drop them.
+	 * @param mixed	Receives the mixed latencies, or null to drop them.
+	 * @return	The number of records added since the last call.
+	 */
+	public long drain(Aggregator to, LatencyHistogram read, LatencyHistogram mixed) {
+		Period p = current.getAndSet(new Period());
+		while(p.writers.get() != 0) {	// only records that already started, so not for long
+			Thread.yield();
+		}
+		long n = p.records.sum();
+		double total = 0;
+		for (int i = 0; i < Aggregator.METRICS; i++) {
+			double sum = p.sums[i].sum();
+			if(i == Aggregator.READ_OPS || i == Aggregator.MIXED_OPS) {
+				total += sum;
+			}
+			to.addSum(i, sum, n);
+		}
+		to.addSum(Aggregator.TOTAL_OPS, total, n);
+		if(read != null) {
+			drain(p.readHist, p.readMax, read);
+		}
+		if(mixed != null) {
+			drain(p.mixedHist, p.mixedMax, mixed);
+		}
+		return n;
+	}
+
+	/**
+	 * Takes a snapshot of the sums and resets the accumulator, dropping the histograms.
+	 *
+	 * @param to	Receives the sum of every metric since the last call.
+	 * @return	The number of records added since the last call.
+	 */
+	public long drain(Aggregator to) {
+		return drain(to, null, null);
+	}
+
+	private static void drain(AtomicLongArray hist, AtomicLong max, LatencyHistogram to) {
+		for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+			long c = hist.get(i);
+			if(c != 0) {
+				to.add(i, c);
+			}
+		}
+		to.addMax(max.get());
+	}
+
+}
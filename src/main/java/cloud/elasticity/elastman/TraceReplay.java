@@ -0,0 +1,328 @@
+/*
+ * This file is part of the ElastMan Elasticity Manager
+ *
+ * Copyright (C) 2013 Ahmad Al-Shishtawy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cloud.elasticity.elastman;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+/**
+ * Replays recorded measurements (ident.dat, control.dat or a binary history file) through
+ * the {@link Decider} offline, as fast as the CPU allows.
+ * <p>
+ * The cluster is simulated: a decision changes the number of VMs right away, bounded like
+ * the {@link Actuator} does, and the cluster is rebalancing for a configurable number of
+ * steps. The recorded total throughput is taken as the workload, so the throughput per
+ * server follows the simulated number of VMs. The recorded latencies are used as they are,
+ * so the replay shows what the controller would have decided on the same measurements.
+ * Use it to try gains, dead zones and operating points in seconds.
+ * <p>
+ * The output has the format of control.dat with the simulated number of servers.
+ *
+ * @author Ahmad Al-Shishtawy <ahmadas@kth.se>
+ *
+ */
+public class TraceReplay implements Decider.Plant {
+
+	private final int voldMin, voldMax, voldDeltaMax;
+	private final int rebalanceSteps;
+
+	private int active;
+	private int rebalanceLeft = 0;
+
+	// summary
+	private int ffActions = 0, fbActions = 0, mpcActions = 0, forecastActions = 0;
+	private int added = 0, removed = 0;
+	private long vmSteps = 0;
+
+	/**
+	 * @param voldMin			The min cluster size.
+	 * @param voldMax			The max cluster size.
+	 * @param voldDeltaMax		The max number of VMs to add or remove at one time.
+	 * @param rebalanceSteps	The number of steps a change of the cluster takes.
+	 */
+	public TraceReplay(int voldMin, int voldMax, int voldDeltaMax, int rebalanceSteps) {
+		this.voldMin = voldMin;
+		this.voldMax = voldMax;
+		this.voldDeltaMax = voldDeltaMax;
+		this.rebalanceSteps = rebalanceSteps;
+	}
+
+	/**
+	 * Reads a recorded trace.
+	 *
+	 * @param filename	A history file (.hist) or a tab separated data file.
+	 * @return	The recorded samples.
+	 * @throws IOException
+	 */
+	public static List<DataRecorder.Sample> read(String filename) throws IOException {
+		ArrayList<DataRecorder.Sample> trace = new ArrayList<DataRecorder.Sample>();
+		if(filename.endsWith(".hist")) {
+			HistoryReader in = new HistoryReader(filename);
+			for (int i = 0; i < in.getRowCount(); i++) {
+				trace.add(in.get(i, new DataRecorder.Sample()));
+			}
+			return trace;
+		}
+		BufferedReader in = new BufferedReader(new FileReader(filename));
+		try {
+			String line = in.readLine();	// the header
+			int n = 1;
+			while((line = in.readLine()) != null) {
+				n++;
+				String[] c = line.split("\t");
+				if(c.length < 24) {
+					continue;
+				}
+				try {
+					trace.add(parse(c));
+				} catch (NumberFormatException e) {
+					throw new IOException("Bad number in line " + n + " of " + filename);
+				}
+			}
+		} finally {
+			in.close();
+		}
+		return trace;
+	}
+
+	private static DataRecorder.Sample parse(String[] c) {
+		DataRecorder.Sample s = new DataRecorder.Sample();
+		s.step = (long)num(c[0]);
+		s.periodSec = num(c[1]);
+		s.clients = (int)num(c[2]);
+		s.servers = (int)num(c[3]);
+		s.totalOps = num(c[4]);
+		s.throughput = (long)num(c[5]);
+		s.tps = (long)num(c[6]);
+		s.rtps = (long)num(c[7]);
+		s.meanR = (long)num(c[8]);
+		s.stddevR = (long)num(c[9]);
+		s.minR = (long)num(c[10]);
+		s.p95R = (long)num(c[11]);
+		s.p99R = (long)num(c[12]);
+		s.fp99R = (long)num(c[13]);
+		s.maxR = (long)num(c[14]);
+		s.mtps = (long)num(c[15]);
+		s.meanM = (long)num(c[16]);
+		s.stddevM = (long)num(c[17]);
+		s.minM = (long)num(c[18]);
+		s.p95M = (long)num(c[19]);
+		s.p99M = (long)num(c[20]);
+		s.maxM = (long)num(c[21]);
+		s.ntp = (long)num(c[22]);
+		s.nfp99 = (long)num(c[23]);
+		return s;
+	}
+
+	private static double num(String s) {
+		return Double.parseDouble(s.trim());
+	}
+
+	/**
+	 * Replays a trace through a new {@link Decider} using the control settings in {@link Props}.
+	 *
+	 * @param trace	The recorded samples.
+	 * @param out	Receives the replayed samples with the decisions, or null.
+	 * @throws IOException
+	 */
+	public void replay(List<DataRecorder.Sample> trace, Writer out) throws IOException {
+		if(trace.isEmpty()) {
+			return;
+		}
+		active = Math.max(trace.get(0).servers, voldMin);
+		Decider decider = new Decider(true, this);
+		StringBuilder row = new StringBuilder(512);
+		if(out != null) {
+			out.write(DataRecorder.HEADER);
+		}
+		for (DataRecorder.Sample r : trace) {
+			if(rebalanceLeft > 0) {
+				rebalanceLeft--;
+			}
+			int recorded = Math.max(r.servers, 1);
+			double throughput = r.throughput;
+			double tps = throughput/active;
+			double rtps = (double)r.rtps*recorded/active;
+			double mtps = (double)r.mtps*recorded/active;
+
+			decider.observe(tps, r.p99R);
+
+			DataRecorder.Sample s = new DataRecorder.Sample();
+			s.step = r.step;
+			s.periodSec = r.periodSec;
+			s.clients = r.clients;
+			s.servers = active;
+			s.totalOps = r.totalOps;
+			s.throughput = r.throughput;
+			s.tps = (long)tps;
+			s.rtps = (long)rtps;
+			s.meanR = r.meanR;
+			s.stddevR = r.stddevR;
+			s.minR = r.minR;
+			s.p95R = r.p95R;
+			s.p99R = r.p99R;
+			s.fp99R = (long)decider.getFilteredP99();
+			s.maxR = r.maxR;
+			s.mtps = (long)mtps;
+			s.meanM = r.meanM;
+			s.stddevM = r.stddevM;
+			s.minM = r.minM;
+			s.p95M = r.p95M;
+			s.p99M = r.p99M;
+			s.maxM = r.maxM;
+			s.ntp = (long)(tps-decider.getOutOp());
+			s.nfp99 = (long)(decider.getFilteredP99() - decider.getInOp());
+
+			decider.decide(r.step, throughput, tps, rtps, mtps, false, s);
+			if(s.opId == 2) {
+				ffActions++;
+			} else if(s.opId == 1) {
+				fbActions++;
+			} else if(s.opId == 4) {
+				mpcActions++;
+			} else if(s.opId == 5) {
+				forecastActions++;
+			}
+			vmSteps += active;
+
+			if(out != null) {
+				row.setLength(0);
+				DataRecorder.appendRow(s, row);
+				DataRecorder.appendDecision(s, row);
+				out.append(row);
+			}
+		}
+		if(out != null) {
+			out.flush();
+		}
+	}
+
+	public void update() {
+		// nothing to refresh
+	}
+
+	public int getActiveVoldVMsCount() {
+		return active;
+	}
+
+	public int getVoldVMsCount() {
+		return active;
+	}
+
+	public boolean isCreateVMs() {
+		return false;
+	}
+
+	public boolean isRebalancing() {
+		return rebalanceLeft > 0;
+	}
+
+	public boolean isBooting() {
+		return false;	// the VMs are added at once
+	}
+
+	public void scheduleRebalance(int nVMs, boolean limit) {
+		int n = Actuator.bound(active, nVMs, limit, voldMin, voldMax, voldDeltaMax);
+		if(nVMs > 0 && n > 0) {
+			added += n;
+		} else if(nVMs < 0 && n < 0) {
+			removed -= n;
+		} else {
+			return;	// nothing to do, as in the Actuator
+		}
+		active += n;
+		rebalanceLeft = rebalanceSteps + 1;	// counted down before each of the next steps
+	}
+
+	public String getSummary(int steps) {
+		return "FF actions: " + ffActions + "\tFB actions: " + fbActions + "\tMPC actions: " + mpcActions
+				+ "\tForecast actions: " + forecastActions
+				+ "\tVMs added: " + added + "\tremoved: " + removed
+				+ "\tmean VMs: " + (steps == 0 ? 0 : Math.round(100.0*vmSteps/steps)/100.0)
+				+ "\tfinal VMs: " + active;
+	}
+
+	/**
+	 * Replays a trace and prints the decisions.
+	 *
+	 * @param args	See the help (-h).
+	 */
+	public static void main(String[] args) {
+		Options options = new Options();
+		options.addOption("o", "options", true, "Configuration file with the control settings. Default control.prop");
+		options.addOption("w", "write", true, "Write the replayed samples to this file instead of the console");
+		options.addOption("r", "rebalance", true, "Steps a rebalance takes. Default 1");
+		options.addOption("h", "help", false, "Print this help");
+
+		CommandLineParser parser = new GnuParser();
+		CommandLine cmd = null;
+		try {
+			cmd = parser.parse(options, args);
+		} catch (ParseException e) {
+			System.out.println(e.getMessage());
+			cmd = null;
+		}
+		if(cmd == null || cmd.hasOption("h") || cmd.getArgs().length != 1) {
+			HelpFormatter formatter = new HelpFormatter();
+			formatter.printHelp( "TraceReplay [options] <control.dat | ident.dat | control.hist>" , options);
+			System.exit(cmd == null ? 1 : 0);
+		}
+
+		Props.load(cmd.getOptionValue("o", "control.prop"), cmd);
+		int rebalanceSteps = Integer.parseInt(cmd.getOptionValue("r", "1"));
+
+		try {
+			long start = System.nanoTime();
+			List<DataRecorder.Sample> trace = read(cmd.getArgs()[0]);
+			Writer out;
+			if(cmd.hasOption("w")) {
+				out = new BufferedWriter(new FileWriter(cmd.getOptionValue("w")));
+			} else {
+				out = new BufferedWriter(new OutputStreamWriter(System.out));
+			}
+			TraceReplay replay = new TraceReplay(Props.voldMin, Props.voldMax, Props.voldDeltaMax, rebalanceSteps);
+			replay.replay(trace, out);
+			if(cmd.hasOption("w")) {
+				out.close();
+			}
+			long ms = (System.nanoTime() - start) / 1000000;
+			System.out.println("Replayed " + trace.size() + " steps in " + ms + " ms");
+			System.out.println(replay.getSummary(trace.size()));
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+	}
+
+}
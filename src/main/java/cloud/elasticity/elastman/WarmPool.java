@@ -0,0 +1,199 @@
+/*
+ * This file is part of the ElastMan Elasticity Manager
+ * 
+ * Copyright (C) 2013 Ahmad Al-Shishtawy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cloud.elasticity.elastman;
+
+import java.util.LinkedList;
+
+/**
+ * Keeps count of a pool of warm Voldemort VMs: booted and configured spare VMs that are
+ * listed in the cluster.xml without partitions, so they are not part of the store. A
+ * scale-out takes the spares first and only has to generate the cluster.xml and
+ * rebalance, instead of creating the VMs, waiting for them to boot and for the OS and
+ * Voldemort to start.
+ * <p>
+ * The size of the pool follows the recent scale-outs. The target is the number of VMs
+ * added during the last window, between min and max, and never more than the cluster can
+ * grow. So a pool is only kept while the load is changing. The VMs are created and
+ * deleted by the caller, the {@link Actuator} or the {@link Simulator}. The pool only
+ * tells how many and counts them.
+ * <p>
+ * The spares are the Voldemort VMs with the IDs right after the ones in the store. The
+ * booting spares come after the ready ones.
+ *
+ * @author Ahmad Al-Shishtawy <ahmadas@kth.se>
+ *
+ */
+public class WarmPool {
+
+	private final int min, max, voldMax;
+	private final long windowMs;
+	private final LinkedList<long[]> scaleOuts = new LinkedList<long[]>();	// time and VMs added
+	private int added = 0;	// in the window
+	private int ready = 0;
+	private int booting = 0;
+	private int leaving = 0;
+
+	/**
+	 * @param min		The min number of spares.
+	 * @param max		The max number of spares.
+	 * @param windowMs	How long a scale-out counts for the size of the pool.
+	 * @param voldMax	The max cluster size.
+	 */
+	public WarmPool(int min, int max, long windowMs, int voldMax) {
+		if(min < 0 || max < min) {
+			throw new IllegalArgumentException("The pool size must be 0 <= min <= max");
+		}
+		this.min = min;
+		this.max = max;
+		this.windowMs = windowMs;
+		this.voldMax = voldMax;
+	}
+
+	/**
+	 * Counts a scale-out for the size of the pool.
+	 *
+	 * @param now	The time in ms.
+	 * @param nVMs	The number of VMs added.
+	 */
+	public synchronized void recordScaleOut(long now, int nVMs) {
+		scaleOuts.add(new long[] {now, nVMs});
+		added += nVMs;
+	}
+
+	/**
+	 * @param now		The time in ms.
+	 * @param active	The number of VMs in the store.
+	 * @return	The number of spares to keep.
+	 */
+	public synchronized int getTarget(long now, int active) {
+		while(!scaleOuts.isEmpty() && now - scaleOuts.getFirst()[0] > windowMs) {
+			added -= scaleOuts.removeFirst()[1];
+		}
+		int target = Math.max(min, Math.min(max, added));
+		return Math.max(0, Math.min(target, voldMax - active));
+	}
+
+	/**
+	 * Starts refilling the pool. The returned number of VMs are counted as booting until
+	 * {@link #booted(int)}.
+	 *
+	 * @param now		The time in ms.
+	 * @param active	The number of VMs in the store.
+	 * @return	The number of VMs to create. 0 if the pool is full or being refilled.
+	 */
+	public synchronized int refill(long now, int active) {
+		if(isChanging()) {
+			return 0;
+		}
+		int n = getTarget(now, active) - ready;
+		if(n <= 0) {
+			return 0;
+		}
+		booting = n;
+		return n;
+	}
+
+	/**
+	 * The VMs of the last refill are ready, or failed and were not created.
+	 *
+	 * @param n	The number of VMs that are ready.
+	 */
+	public synchronized void booted(int n) {
+		ready += n;
+		booting = 0;
+	}
+
+	/**
+	 * Removes the extra spares if the target went down. The caller deletes the spares with
+	 * the highest IDs, which are counted as leaving until {@link #deleted()}.
+	 *
+	 * @param now		The time in ms.
+	 * @param active	The number of VMs in the store.
+	 * @return	The number of spares to delete. 0 if the pool is not too large or changing.
+	 */
+	public synchronized int trim(long now, int active) {
+		if(isChanging()) {
+			return 0;
+		}
+		int n = ready - getTarget(now, active);
+		if(n <= 0) {
+			return 0;
+		}
+		ready -= n;
+		leaving = n;
+		return n;
+	}
+
+	/**
+	 * The spares of the last trim are deleted.
+	 */
+	public synchronized void deleted() {
+		leaving = 0;
+	}
+
+	/**
+	 * Takes spares for a scale-out. Must not be called while the pool is changing, as the
+	 * new VMs would come after the booting ones.
+	 *
+	 * @param nVMs	The number of VMs to add.
+	 * @return	The number of spares taken. The rest must be created.
+	 */
+	public synchronized int take(int nVMs) {
+		int n = Math.min(nVMs, ready);
+		ready -= n;
+		return n;
+	}
+
+	/**
+	 * Keeps VMs removed from the store as spares.
+	 *
+	 * @param now		The time in ms.
+	 * @param active	The number of VMs in the store after the scale-in.
+	 * @param nVMs		The number of VMs removed from the store.
+	 * @return	The number of removed VMs kept. The rest must be deleted.
+	 */
+	public synchronized int keep(long now, int active, int nVMs) {
+		int n = Math.max(0, Math.min(nVMs, getTarget(now, active) - getSpares()));
+		ready += n;
+		return n;
+	}
+
+	/**
+	 * @return	The number of ready spares.
+	 */
+	public synchronized int getReady() {
+		return ready;
+	}
+
+	/**
+	 * @return	The number of spares that exist: ready, booting or being deleted.
+	 */
+	public synchronized int getSpares() {
+		return ready + booting + leaving;
+	}
+
+	/**
+	 * @return	true while VMs are being added to or deleted from the pool.
+	 */
+	public synchronized boolean isChanging() {
+		return booting > 0 || leaving > 0;
+	}
+
+}
@@ -0,0 +1,246 @@
+/*
+ * This file is part of the ElastMan Elasticity Manager
+ *
+ * Copyright (C) 2013 Ahmad Al-Shishtawy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package cloud.elasticity.elastman;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The protocol used by the YCSB clients to send their reports to the {@link Sensor}.
+ * <p>
+ * Version 1 is the original unframed layout: a long with the number of read operations,
+ * six doubles with the read latencies (mean, stddev, min, p95, p99, max), then the same
+ * for the mixed operations. If histograms are enabled two encoded {@link LatencyHistogram}s
+ * follow.
+ * <p>
+ * Version 2 is a length-prefixed frame so a client can send any number of metrics and
+ * a broken frame can be detected:
+ * <pre>
+ * int   magic      {@link #MAGIC}
+ * short version    2
+ * short flags      {@link #FLAG_HISTOGRAMS}
+ * int   length     bytes after this header
+ * int   client id
+ * long  sequence number
+ * short metric count
+ *       (short id, double value) for each metric
+ *       read and mixed histograms if FLAG_HISTOGRAMS is set
+ * </pre>
+ * All numbers are big-endian. The first int of a version 1 report is the high half of the
+ * number of read operations, which is never equal to the magic, so both versions can be
+ * used on the same port.
+ *
+ * @author Ahmad Al-Shishtawy <ahmadas@kth.se>
+ *
+ */
+public class WireProtocol {
+
+	/**
+	 * "EMAN"
+	 */
+	public static final int MAGIC = 0x454D414E;
+
+	public static final int VERSION = 2;
+
+	public static final int FLAG_HISTOGRAMS = 1;
+
+	/**
+	 * Size of the version 2 header: magic, version, flags and length.
+	 */
+	public static final int HEADER_SIZE = 4 + 2 + 2 + 4;
+
+	/**
+	 * Size of a version 1 report without histograms.
+	 */
+	public static final int V1_SIZE = 2*8 + 12*8;
+
+	/**
+	 * Metrics with a larger id are ignored.
+	 */
+	public static final int MAX_METRICS = 64;
+
+	/**
+	 * Largest frame accepted. A version 1 report with two full histograms also fits.
+	 */
+	public static final int MAX_FRAME_SIZE = 32 * 1024;
+
+	/**
+	 * Calculates the size of a frame from the bytes received so far.
+	 *
+	 * @param in	The bytes received so far, from 0 to the current position.
+	 * @param v1Histograms	true if version 1 clients send histograms.
+	 * @return	The total size of the frame, the size needed to find it out,
+	 * 			or -1 if the frame is invalid.
+	 */
+	public static int frameSize(ByteBuffer in, boolean v1Histograms) {
+		if(in.position() < HEADER_SIZE) {
+			return HEADER_SIZE;
+		}
+		if(in.getInt(0) == MAGIC) {
+			int length = in.getInt(8);
+			if(length < 0 || length > MAX_FRAME_SIZE - HEADER_SIZE) {
+				return -1;
+			}
+			return HEADER_SIZE + length;
+		}
+
+		int need = V1_SIZE;
+		if(!v1Histograms) {
+			return need;
+		}
+		for (int h = 0; h < 2; h++) {
+			if(in.position() < need + LatencyHistogram.HEADER_SIZE) {
+				return need + LatencyHistogram.HEADER_SIZE;
+			}
+			int n = in.getInt(need);
+			if(n < 0 || n > LatencyHistogram.BUCKETS) {
+				return -1;
+			}
+			need += LatencyHistogram.HEADER_SIZE + n*LatencyHistogram.ENTRY_SIZE;
+		}
+		return need;
+	}
+
+	/**
+	 * Decodes a complete frame.
+	 *
+	 * @param frame	The frame from 0 to its limit.
+	 * @param r		Receives the decoded report.
+	 * @return	false if the frame is invalid or of an unknown version.
+	 */
+	public static boolean decode(ByteBuffer frame, ClientReport r) {
+		r.clear(frame);
+		if(frame.limit() >= HEADER_SIZE && frame.getInt(0) == MAGIC) {
+			return decodeV2(frame, r);
+		}
+		if(frame.limit() < V1_SIZE) {
+			return false;
+		}
+		r.version = 1;
+		for (int i = 0; i < Aggregator.METRICS; i++) {
+			if(i == Aggregator.READ_OPS || i == Aggregator.MIXED_OPS) {
+				r.set(i, frame.getLong(8*i));
+			} else {
+				r.set(i, frame.getDouble(8*i));
+			}
+		}
+		if(frame.limit() > V1_SIZE) {
+			if(!hasHistograms(frame, V1_SIZE)) {
+				return false;
+			}
+			r.setHistograms(V1_SIZE);
+		}
+		return true;
+	}
+
+	private static boolean decodeV2(ByteBuffer frame, ClientReport r) {
+		int version = frame.getShort(4);
+		if(version != VERSION) {
+			return false;
+		}
+		r.version = version;
+		int flags = frame.getShort(6);
+		int p = HEADER_SIZE;
+		if(frame.limit() < p + 4 + 8 + 2) {
+			return false;
+		}
+		r.clientId = frame.getInt(p);
+		r.seq = frame.getLong(p + 4);
+		int n = frame.getShort(p + 12);
+		p += 14;
+		if(n < 0 || frame.limit() < p + n*10) {
+			return false;
+		}
+		for (int i = 0; i < n; i++, p += 10) {
+			int id = frame.getShort(p);
+			if(id >= 0 && id < MAX_METRICS) {	// skip metrics we don't know
+				r.set(id, frame.getDouble(p + 2));
+			}
+		}
+		if((flags & FLAG_HISTOGRAMS) != 0) {
+			if(!hasHistograms(frame, p)) {
+				return false;
+			}
+			r.setHistograms(p);
+		}
+		return true;
+	}
+
+	/**
+	 * Checks that the read and mixed histograms fit in the frame, so merging them can
+	 * not read past its end.
+	 *
+	 * @param frame	The frame from 0 to its limit.
+	 * @param p		The start of the histograms.
+	 * @return	false if a histogram is invalid or truncated.
+	 */
+	private static boolean hasHistograms(ByteBuffer frame, int p) {
+		for (int h = 0; h < 2; h++) {
+			if(frame.limit() < p + LatencyHistogram.HEADER_SIZE) {
+				return false;
+			}
+			int n = frame.getInt(p);
+			if(n < 0 || n > LatencyHistogram.BUCKETS) {
+				return false;
+			}
+			p += LatencyHistogram.HEADER_SIZE + n*LatencyHistogram.ENTRY_SIZE;
+		}
+		return frame.limit() >= p;
+	}
+
+	/**
+	 * Encodes a version 2 frame. Used by clients and tests.
+	 *
+	 * @param out		The buffer to write to.
+	 * @param clientId	The id of the client.
+	 * @param seq		The sequence number of the report.
+	 * @param values	The metrics indexed by id. NaN values are not sent.
+	 * @param read		The read latency histogram or null.
+	 * @param mixed		The mixed latency histogram or null.
+	 */
+	public static void encode(ByteBuffer out, int clientId, long seq, double[] values, LatencyHistogram read, LatencyHistogram mixed) {
+		int start = out.position();
+		boolean histograms = read != null && mixed != null;
+		out.putInt(MAGIC);
+		out.putShort((short)VERSION);
+		out.putShort((short)(histograms ? FLAG_HISTOGRAMS : 0));
+		out.putInt(0);	// length, filled in below
+		out.putInt(clientId);
+		out.putLong(seq);
+		int n = 0;
+		for (int i = 0; i < values.length; i++) {
+			if(!Double.isNaN(values[i])) {
+				n++;
+			}
+		}
+		out.putShort((short)n);
+		for (int i = 0; i < values.length; i++) {
+			if(!Double.isNaN(values[i])) {
+				out.putShort((short)i);
+				out.putDouble(values[i]);
+			}
+		}
+		if(histograms) {
+			read.encode(out);
+			mixed.encode(out);
+		}
+		out.putInt(start + 8, out.position() - start - HEADER_SIZE);
+	}
+
+}
@@ -0,0 +1,105 @@
+package cloud.elasticity.elastman;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmark of the cost of adding one client report to the period stats.
+ * Compares the old fifteen SummaryStatistics with the {@link Aggregator}.
+ * <p>
+ * Run the main method (e.g., from Eclipse) with the test classpath.
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class AggregatorBenchmark
+{
+    private ByteBuffer report;
+
+    private SummaryStatistics[] summaries;
+
+    private ClientReport decoded;
+
+    private Aggregator aggregator;
+
+    @Setup
+    public void setup()
+    {
+        report = ByteBuffer.allocate( WireProtocol.V1_SIZE );
+        report.putLong( 12000 );
+        for ( int i = 1; i <= 6; i++ )
+        {
+            report.putDouble( 1000000 * i );
+        }
+        report.putLong( 3000 );
+        for ( int i = 1; i <= 6; i++ )
+        {
+            report.putDouble( 2000000 * i );
+        }
+        report.flip();
+
+        summaries = new SummaryStatistics[Aggregator.SLOTS];
+        for ( int i = 0; i < summaries.length; i++ )
+        {
+            summaries[i] = new SummaryStatistics();
+        }
+        aggregator = new Aggregator();
+        decoded = new ClientReport();
+    }
+
+    /**
+     * The old way: decode the report and add each field to its own SummaryStatistics.
+     */
+    @Benchmark
+    public SummaryStatistics[] summaryStatistics()
+    {
+        ByteBuffer in = report;
+        in.rewind();
+        long nr = in.getLong();
+        summaries[Aggregator.READ_OPS].addValue( nr );
+        for ( int i = Aggregator.READ_MEAN; i <= Aggregator.READ_MAX; i++ )
+        {
+            summaries[i].addValue( in.getDouble() );
+        }
+        long nm = in.getLong();
+        summaries[Aggregator.MIXED_OPS].addValue( nm );
+        for ( int i = Aggregator.MIXED_MEAN; i <= Aggregator.MIXED_MAX; i++ )
+        {
+            summaries[i].addValue( in.getDouble() );
+        }
+        summaries[Aggregator.TOTAL_OPS].addValue( nr + nm );
+        return summaries;
+    }
+
+    /**
+     * The new way: decode the report and add it to the primitive slots.
+     */
+    @Benchmark
+    public Aggregator aggregator()
+    {
+        report.rewind();
+        WireProtocol.decode( report, decoded );
+        aggregator.add( decoded );
+        return aggregator;
+    }
+
+    public static void main( String[] args ) throws Exception
+    {
+        org.openjdk.jmh.Main.main( new String[] { AggregatorBenchmark.class.getSimpleName() } );
+    }
+}
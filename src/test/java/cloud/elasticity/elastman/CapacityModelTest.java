@@ -0,0 +1,79 @@
+package cloud.elasticity.elastman;
+
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for CapacityModel.
+ */
+public class CapacityModelTest
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public CapacityModelTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( CapacityModelTest.class );
+    }
+
+    private static CapacityModel model()
+    {
+        return new CapacityModel( 0.99, 1e6, 2, 6000000, 0.5, 1980, 220, 0, 1000 );
+    }
+
+    /**
+     * Before learning the capacity is where the mix crosses the configured line.
+     */
+    public void testPrior()
+    {
+        CapacityModel m = model();
+        assertEquals( 2200, m.estimate( 1980, 220, 1 ), 1e-6 );
+        assertEquals( 1000, m.estimate( 0, 500, 1 ), 1e-6 );
+        assertFalse( m.isLearned() );
+        assertEquals( m.getEstimate(), m.getLower(), 0 );
+        assertEquals( m.getEstimate(), m.getUpper(), 0 );
+    }
+
+    /**
+     * The capacity of p99 = 1e6 + 1000*r + 4000*m + 100000*c is learned from samples around
+     * the SLA, for any mix.
+     */
+    public void testLearned()
+    {
+        CapacityModel m = model();
+        Random random = new Random( 9 );
+        for ( int k = 0; k < 500; k++ )
+        {
+            double r = 1000 + random.nextInt( 2000 );
+            double w = 200 + random.nextInt( 800 );
+            double c = 1 + random.nextInt( 4 );
+            m.update( r, w, c, 1000000 + 1000 * r + 4000 * w + 100000 * c + random.nextGaussian() * 200000 );
+        }
+        // saturated samples are ignored
+        m.update( 3000, 300, 3, 50000000 );
+
+        // 90% reads, 2 clients per 2000 ops/s: 5e6 = (900 + 400 + 100)*T
+        double capacity = m.estimate( 1800, 200, 2 );
+        assertTrue( m.isLearned() );
+        assertEquals( 5000000 / 1400.0, capacity, 60 );
+        assertTrue( m.getLower() < capacity && capacity < m.getUpper() );
+        assertTrue( m.getUpper() - m.getLower() < 0.2 * capacity );
+
+        // write heavy
+        assertEquals( 5000000 / 2600.0, m.estimate( 1000, 1000, 2 ), 60 );
+    }
+}
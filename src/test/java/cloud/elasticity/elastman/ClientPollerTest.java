@@ -0,0 +1,196 @@
+package cloud.elasticity.elastman;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for ClientPoller over loopback sockets.
+ */
+public class ClientPollerTest
+    extends TestCase
+{
+    private ServerSocketChannel server;
+    private ClientPoller poller;
+    private final ArrayList<Socket> clients = new ArrayList<Socket>();
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public ClientPollerTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( ClientPollerTest.class );
+    }
+
+    protected void setUp() throws Exception
+    {
+        server = ServerSocketChannel.open();
+        server.socket().bind( new InetSocketAddress( "127.0.0.1", 0 ) );
+        poller = new ClientPoller( false );
+    }
+
+    protected void tearDown() throws Exception
+    {
+        poller.close();
+        for ( Socket s : clients )
+        {
+            s.close();
+        }
+        server.close();
+    }
+
+    /**
+     * Connects a client and adds the server side of the connection to the poller.
+     */
+    private Socket connect() throws IOException
+    {
+        Socket s = new Socket( "127.0.0.1", server.socket().getLocalPort() );
+        s.setSoTimeout( 5000 );
+        clients.add( s );
+        poller.add( server.accept() );
+        return s;
+    }
+
+    /**
+     * A version 2 record of a client.
+     */
+    private static byte[] record( int clientId, long seq, double readOps )
+    {
+        double[] values = new double[Aggregator.METRICS];
+        Arrays.fill( values, 1 );
+        values[Aggregator.READ_OPS] = readOps;
+        ByteBuffer buf = ByteBuffer.allocate( WireProtocol.MAX_FRAME_SIZE );
+        WireProtocol.encode( buf, clientId, seq, values, null, null );
+        return Arrays.copyOf( buf.array(), buf.position() );
+    }
+
+    /**
+     * Answers every ping of the poller with a record, after a delay.
+     */
+    private static void answer( final Socket s, final int clientId, final long delayMs )
+    {
+        Thread t = new Thread()
+        {
+            public void run()
+            {
+                try
+                {
+                    DataInputStream in = new DataInputStream( s.getInputStream() );
+                    OutputStream out = s.getOutputStream();
+                    for ( long seq = 0;; seq++ )
+                    {
+                        in.readInt();
+                        Thread.sleep( delayMs );
+                        out.write( record( clientId, seq, 100 ) );
+                        out.flush();
+                    }
+                }
+                catch ( Exception e )
+                {
+                    // closed by the test
+                }
+            }
+        };
+        t.setDaemon( true );
+        t.start();
+    }
+
+    /**
+     * A client that misses the deadline is counted as late, is not pinged again and its
+     * reply is delivered in the next round.
+     */
+    public void testPullLateClient() throws Exception
+    {
+        answer( connect(), 1, 0 );
+        answer( connect(), 2, 1000 );
+        assertEquals( 2, poller.size() );
+
+        final ArrayList<Integer> ids = new ArrayList<Integer>();
+        ClientPoller.Listener listener = new ClientPoller.Listener()
+        {
+            public void report( ClientReport r )
+            {
+                ids.add( r.getClientId() );
+            }
+        };
+        assertEquals( 1, poller.poll( 300, listener ) );
+        assertEquals( 1, poller.getLateCount() );
+        assertEquals( Arrays.asList( 1 ), ids );
+
+        ids.clear();
+        assertEquals( 2, poller.poll( 3000, listener ) );
+        assertEquals( 0, poller.getLateCount() );
+        assertTrue( ids.contains( 1 ) && ids.contains( 2 ) );
+        assertEquals( 2, poller.getLiveCount() );
+    }
+
+    /**
+     * Streamed records are delivered without pings and a removed client is counted and
+     * closed at once.
+     */
+    public void testPush() throws Exception
+    {
+        Socket first = connect();
+        Socket second = connect();
+        final TelemetryAccumulator telemetry = new TelemetryAccumulator();
+        final AtomicInteger received = new AtomicInteger();
+        poller.startListening( new ClientPoller.Listener()
+        {
+            public void report( ClientReport r )
+            {
+                telemetry.add( r );
+                received.incrementAndGet();
+            }
+        } );
+
+        for ( int seq = 0; seq < 3; seq++ )
+        {
+            first.getOutputStream().write( record( 1, seq, 100 ) );
+            second.getOutputStream().write( record( 2, seq, 50 ) );
+        }
+        await( received, 6 );
+        Aggregator stats = new Aggregator();
+        assertEquals( 6, telemetry.drain( stats ) );
+        assertEquals( 450.0, stats.getSum( Aggregator.READ_OPS ) );
+
+        // the last client goes away. The count drops before the change is applied
+        poller.removeLast();
+        assertEquals( 1, poller.size() );
+        assertEquals( -1, second.getInputStream().read() );
+
+        first.getOutputStream().write( record( 1, 3, 100 ) );
+        await( received, 7 );
+        assertEquals( 1, telemetry.drain( stats ) );
+    }
+
+    private static void await( AtomicInteger n, int count ) throws InterruptedException
+    {
+        long end = System.currentTimeMillis() + 5000;
+        while ( n.get() < count && System.currentTimeMillis() < end )
+        {
+            Thread.sleep( 10 );
+        }
+        assertEquals( count, n.get() );
+    }
+}
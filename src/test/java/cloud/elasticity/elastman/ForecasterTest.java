@@ -0,0 +1,85 @@
+package cloud.elasticity.elastman;
+
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for Forecaster.
+ */
+public class ForecasterTest
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public ForecasterTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( ForecasterTest.class );
+    }
+
+    private static double day( int k, int period )
+    {
+        return 20000 + 8000 * Math.sin( 2 * Math.PI * k / period );
+    }
+
+    /**
+     * After a few noisy days the forecast follows the daily pattern, including the peak.
+     */
+    public void testSeason()
+    {
+        int period = 96;
+        Random random = new Random( 3 );
+        Forecaster f = new Forecaster( period, 0.2, 0.01, 0.3 );
+        int k = 0;
+        for ( ; k < period - 1; k++ )
+        {
+            f.update( day( k, period ) );
+        }
+        assertFalse( f.isReady() );
+        for ( ; k < 4 * period; k++ )
+        {
+            f.update( day( k, period ) + random.nextGaussian() * 500 );
+        }
+        assertTrue( f.isReady() );
+        for ( int h = 1; h <= period; h++ )
+        {
+            assertEquals( day( k + h - 1, period ), f.forecast( h ), 1000 );
+        }
+        // k is at the start of a day, the peak is a quarter day ahead
+        assertEquals( 28000, f.peak( period / 2 ), 1000 );
+        assertEquals( 0, f.getTrend(), 50 );
+    }
+
+    /**
+     * A load that starts growing after the first day is followed by the trend.
+     */
+    public void testTrend()
+    {
+        int period = 24;
+        Forecaster f = new Forecaster( period, 0.3, 0.1, 0.1 );
+        int k = 0;
+        for ( ; k < period; k++ )
+        {
+            f.update( 1000 );
+        }
+        for ( ; k < 20 * period; k++ )
+        {
+            f.update( 1000 + 10 * ( k - period ) );
+        }
+        assertEquals( 10, f.getTrend(), 0.5 );
+        assertEquals( 1000 + 10 * ( k - period + 4 ), f.forecast( 5 ), 50 );
+    }
+}
@@ -0,0 +1,95 @@
+package cloud.elasticity.elastman;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for GainTuner.
+ */
+public class GainTunerTest
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public GainTunerTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( GainTunerTest.class );
+    }
+
+    /**
+     * Only the gains that nothing beats on both scores are kept.
+     */
+    public void testPareto()
+    {
+        List<GainTuner.Result> results = Arrays.asList(
+            new GainTuner.Result( 1, 0, 0, 10, 100 ),
+            new GainTuner.Result( 2, 0, 0, 5, 200 ),
+            new GainTuner.Result( 3, 0, 0, 10, 150 ),
+            new GainTuner.Result( 4, 0, 0, 5, 120 ),
+            new GainTuner.Result( 5, 0, 0, 0, 300 ) );
+        List<GainTuner.Result> front = GainTuner.pareto( results );
+        assertEquals( 3, front.size() );
+        assertEquals( 5, front.get( 0 ).kp, 0 );
+        assertEquals( 4, front.get( 1 ).kp, 0 );
+        assertEquals( 1, front.get( 2 ).kp, 0 );
+        assertEquals( 4, GainTuner.knee( front ).kp, 0 );
+    }
+
+    /**
+     * A step of the load is followed by scaling out and the search is repeatable.
+     */
+    public void testSearch()
+    {
+        Props.control_inOp = 5000000;
+        Props.control_dead = 200000;
+        Props.filter_alpha = 0.5;
+        Props.control_warmup = 2;
+        Props.voldMin = 3;
+        Props.voldMax = 30;
+        Props.voldDeltaMax = 5;
+
+        // settles at 1e6 + 2000*u
+        PlantModel model = new PlantModel( 500000, new double[] { 0.5 }, new double[] { 1000 } );
+        double[] load = new double[100];
+        for ( int k = 0; k < load.length; k++ )
+        {
+            load[k] = k < 20 ? 6000 : 12000;
+        }
+        GainTuner tuner = new GainTuner( model, load, 0.25, 2, 3, 50000, 1 );
+
+        GainTuner.Result none = tuner.simulate( 0, 0, 0 );
+        GainTuner.Result tuned = tuner.simulate( 1.0 / 2000, 0, 0 );
+        assertTrue( tuned.violations < none.violations );
+        assertTrue( tuned.vmMinutes > none.vmMinutes );
+
+        double[] kps = GainTuner.grid( 1e-5, 1e-3, 4, false );
+        double[] zero = { 0 };
+        ForkJoinPool pool = new ForkJoinPool( 2 );
+        List<GainTuner.Result> r1 = tuner.search( kps, zero, zero, pool );
+        List<GainTuner.Result> r2 = new ArrayList<GainTuner.Result>( tuner.search( kps, zero, zero, pool ) );
+        assertEquals( 4, r1.size() );
+        for ( int i = 0; i < r1.size(); i++ )
+        {
+            assertEquals( r1.get( i ).kp, r2.get( i ).kp, 0 );
+            assertEquals( r1.get( i ).violations, r2.get( i ).violations );
+            assertEquals( r1.get( i ).vmMinutes, r2.get( i ).vmMinutes, 0 );
+        }
+    }
+}
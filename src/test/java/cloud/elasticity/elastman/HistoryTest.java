@@ -0,0 +1,184 @@
+package cloud.elasticity.elastman;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for HistoryWriter and HistoryReader.
+ */
+public class HistoryTest
+    extends TestCase
+{
+    private File file;
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public HistoryTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( HistoryTest.class );
+    }
+
+    @Override
+    protected void setUp()
+        throws IOException
+    {
+        file = File.createTempFile( "elastman", ".hist" );
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        file.delete();
+    }
+
+    private static DataRecorder.Sample sample( int i )
+    {
+        DataRecorder.Sample s = new DataRecorder.Sample();
+        s.step = i;
+        s.periodSec = 300.001;
+        s.clients = i % 20;
+        s.servers = 3 + i % 7;
+        s.totalOps = 1000.0 * i;
+        s.p99R = 5000000 + i;
+        s.nfp99 = -i;
+        if ( i % 3 == 0 )
+        {
+            s.decide( 0, "DeadZone" );
+        }
+        else if ( i % 3 == 1 )
+        {
+            s.decide( 1, "FB", 1234.5, 2.5, 3 );
+            s.ffFail = true;
+        }
+        return s;
+    }
+
+    /**
+     * Rows spanning several blocks read back, and convert to the same TSV as written by the recorder.
+     */
+    public void testRoundTrip()
+        throws IOException
+    {
+        int n = 2 * HistoryWriter.BLOCK_ROWS + 10;
+        HistoryWriter w = new HistoryWriter( file.getPath() );
+        StringBuilder expected = new StringBuilder( DataRecorder.HEADER );
+        for ( int i = 0; i < n; i++ )
+        {
+            DataRecorder.Sample s = sample( i );
+            w.append( s );
+            DataRecorder.appendRow( s, expected );
+            DataRecorder.appendDecision( s, expected );
+        }
+        w.close();
+
+        HistoryReader r = new HistoryReader( file.getPath() );
+        assertEquals( n, r.getRowCount() );
+        int p99 = HistoryReader.getColumn( "p99R" );
+        assertEquals( 5000000.0 + 2000, r.getDouble( p99, 2000 ) );
+        assertEquals( "FB", r.getLog( 1 ) );
+        assertEquals( 2040, r.findStep( 2040 ) );
+        assertEquals( -1, r.findStep( n ) );
+
+        StringWriter tsv = new StringWriter();
+        r.toTsv( tsv );
+        assertEquals( expected.toString(), tsv.toString() );
+    }
+
+    /**
+     * A file that was not closed has no index but all written rows can be read.
+     */
+    public void testNotClosed()
+        throws IOException
+    {
+        HistoryWriter w = new HistoryWriter( file.getPath() );
+        for ( int i = 0; i < HistoryWriter.BLOCK_ROWS + 5; i++ )
+        {
+            w.append( sample( i ) );
+        }
+        w.flush();
+
+        HistoryReader r = new HistoryReader( file.getPath() );
+        assertEquals( HistoryWriter.BLOCK_ROWS + 5, r.getRowCount() );
+        assertEquals( "DeadZone", r.get( HistoryWriter.BLOCK_ROWS + 2, new DataRecorder.Sample() ).log );
+    }
+
+    /**
+     * Closing the recorder while it writes a batch keeps all rows and the index.
+     */
+    public void testCloseWhileWriting()
+        throws IOException, InterruptedException
+    {
+        final CountDownLatch writing = new CountDownLatch( 2 ); // the header and the first row
+        Writer slow = new Writer()
+        {
+            @Override
+            public void write( char[] cbuf, int off, int len )
+                throws IOException
+            {
+                writing.countDown();
+                try
+                {
+                    Thread.sleep( 5 );
+                }
+                catch ( InterruptedException e )
+                {
+                    throw new InterruptedIOException(); // as a FileChannel would
+                }
+            }
+
+            @Override
+            public void flush()
+            {
+            }
+
+            @Override
+            public void close()
+            {
+            }
+        };
+        DataRecorder recorder = new DataRecorder( slow, new HistoryWriter( file.getPath() ), 1000 );
+        recorder.start();
+        int n = 100;
+        for ( int i = 0; i < n; i++ )
+        {
+            assertTrue( recorder.submit( sample( i ) ) );
+        }
+        assertTrue( writing.await( 5, TimeUnit.SECONDS ) );
+        recorder.close();
+
+        HistoryReader r = new HistoryReader( file.getPath() );
+        assertEquals( n, r.getRowCount() );
+        assertEquals( n - 1, r.findStep( n - 1 ) );
+        RandomAccessFile raw = new RandomAccessFile( file, "r" );
+        try
+        {
+            raw.seek( raw.length() - 4 );
+            assertEquals( HistoryWriter.INDEX_MAGIC, raw.readInt() );
+        }
+        finally
+        {
+            raw.close();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package cloud.elasticity.elastman;
+
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for KalmanEstimator.
+ */
+public class KalmanEstimatorTest
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public KalmanEstimatorTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( KalmanEstimatorTest.class );
+    }
+
+    /**
+     * A noisy ramp is followed with its slope, closer than the moving average.
+     */
+    public void testRamp()
+    {
+        Random random = new Random( 5 );
+        Estimator kalman = new KalmanEstimator( 500000, 5000 );
+        Estimator ewma = new Filter( 0.4 );
+        double kalmanError = 0, ewmaError = 0;
+        for ( int k = 0; k < 200; k++ )
+        {
+            double p99 = 4000000 + 20000 * k;
+            double z = p99 + random.nextGaussian() * 500000;
+            kalman.step( z );
+            ewma.step( z );
+            if ( k >= 50 )
+            {
+                kalmanError += Math.abs( kalman.getValue() - p99 );
+                ewmaError += Math.abs( ewma.getValue() - p99 );
+            }
+        }
+        assertTrue( kalmanError < ewmaError );
+        assertEquals( 20000, kalman.getTrend(), 10000 );
+        assertTrue( kalman.getStdDev() > 0 && kalman.getStdDev() < 500000 );
+        assertEquals( 0, ewma.getStdDev(), 0 );
+    }
+
+    /**
+     * A reset keeps the level but makes the estimate uncertain again.
+     */
+    public void testReset()
+    {
+        Estimator kalman = new KalmanEstimator( 500000, 50000 );
+        for ( int k = 0; k < 50; k++ )
+        {
+            kalman.step( 5000000 );
+        }
+        double settled = kalman.getStdDev();
+        kalman.reset();
+        assertEquals( 5000000, kalman.getValue(), 1 );
+        assertEquals( 500000, kalman.getStdDev(), 1 );
+        assertTrue( settled < kalman.getStdDev() );
+
+        // a shift is followed faster after the reset
+        double value = kalman.step( 7000000 );
+        assertTrue( value > 5500000 && value < 7000000 );
+    }
+}
@@ -0,0 +1,98 @@
+package cloud.elasticity.elastman;
+
+import java.nio.ByteBuffer;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for LatencyHistogram.
+ */
+public class LatencyHistogramTest
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public LatencyHistogramTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( LatencyHistogramTest.class );
+    }
+
+    /**
+     * Every value must fall inside the bounds of its bucket.
+     */
+    public void testBuckets()
+    {
+        long[] values = { 0, 1, 31, 32, 33, 63, 64, 1000, 6000000, 123456789, 1L << 40 };
+        for ( long v : values )
+        {
+            int i = LatencyHistogram.index( v );
+            assertTrue( LatencyHistogram.lowerBound( i ) <= v );
+            assertTrue( v <= LatencyHistogram.upperBound( i ) );
+        }
+        assertEquals( LatencyHistogram.BUCKETS - 1, LatencyHistogram.index( Long.MAX_VALUE ) );
+    }
+
+    /**
+     * Percentiles are within the relative error of one bucket.
+     */
+    public void testPercentile()
+    {
+        LatencyHistogram h = new LatencyHistogram();
+        for ( long v = 1; v <= 100000; v++ )
+        {
+            h.record( v * 100 );
+        }
+        assertEquals( 100000, h.getCount() );
+        assertEquals( 10000000, h.getMax() );
+        long p99 = h.percentile( 0.99 );
+        assertTrue( p99 >= 9900000 );
+        assertTrue( p99 <= 9900000 * ( 1 + 1.0 / LatencyHistogram.SUB ) );
+    }
+
+    /**
+     * Merging encoded histograms gives the percentile of all values, not the mean of the percentiles.
+     */
+    public void testMerge()
+    {
+        LatencyHistogram fast = new LatencyHistogram();
+        LatencyHistogram slow = new LatencyHistogram();
+        for ( int i = 0; i < 9900; i++ )
+        {
+            fast.record( 1000 );
+        }
+        for ( int i = 0; i < 100; i++ )
+        {
+            slow.record( 5000000 );
+        }
+        ByteBuffer buf = ByteBuffer.allocate( WireProtocol.MAX_FRAME_SIZE );
+        fast.encode( buf );
+        slow.encode( buf );
+        buf.flip();
+
+        LatencyHistogram merged = new LatencyHistogram();
+        merged.merge( buf );
+        merged.merge( buf );
+        assertFalse( buf.hasRemaining() );
+        assertEquals( 10000, merged.getCount() );
+        assertEquals( 5000000, merged.getMax() );
+        assertTrue( merged.percentile( 0.99 ) <= 1000 * ( 1 + 1.0 / LatencyHistogram.SUB ) );
+        assertEquals( 5000000, merged.percentile( 0.999 ) );
+
+        merged.reset();
+        assertEquals( 0, merged.getCount() );
+        assertEquals( 0, merged.percentile( 0.99 ) );
+    }
+}
@@ -0,0 +1,78 @@
+package cloud.elasticity.elastman;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for MPCController.
+ */
+public class MPCControllerTest
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public MPCControllerTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( MPCControllerTest.class );
+    }
+
+    // settles at 1e6 + 2000*u, so inOp = 5e6 at 2000 ops/s per server
+    private static final PlantModel MODEL = new PlantModel( 500000, new double[] { 0.5 }, new double[] { 1000 } );
+
+    private static MPCController controller()
+    {
+        return new MPCController( MODEL, 6, 1, 5000000, 10, 0.001, 0.5, 3, 30, 5 );
+    }
+
+    /**
+     * The controller adds the VMs needed for the load, within the max change.
+     */
+    public void testScaleOut()
+    {
+        MPCController mpc = controller();
+        assertFalse( mpc.isReady() );
+        for ( int k = 0; k < 5; k++ )
+        {
+            mpc.observe( 2000, 5000000 );
+        }
+        assertTrue( mpc.isReady() );
+        assertEquals( 0, mpc.getDisturbance(), 1 );
+        assertEquals( 0, mpc.decide( 20000, 10 ) );
+
+        // the load doubled
+        mpc.observe( 4000, MODEL.predict( new double[] { 5000000, 0 }, new double[] { 0, 4000 }, 1 ) );
+        assertEquals( 0, mpc.getDisturbance(), 1 );
+        assertEquals( 5, mpc.decide( 40000, 10 ) );
+        // 12 VMs serve the load but more drain the latency faster
+        int d = mpc.decide( 24000, 10 );
+        assertTrue( d >= 2 && d <= 5 );
+        assertEquals( 2, mpc.decide( 80000, 28 ) );
+    }
+
+    /**
+     * A model that predicts too low a latency is corrected by the measured error.
+     */
+    public void testDisturbance()
+    {
+        MPCController mpc = controller();
+        for ( int k = 0; k < 20; k++ )
+        {
+            mpc.observe( 2000, 6000000 );
+        }
+        assertEquals( 500000, mpc.getDisturbance(), 1000 );
+        assertTrue( mpc.decide( 20000, 10 ) > 0 );
+        assertTrue( mpc.decide( 10000, 10 ) < 0 );
+    }
+}
@@ -0,0 +1,94 @@
+package cloud.elasticity.elastman;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for ModelFitter.
+ */
+public class ModelFitterTest
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public ModelFitterTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( ModelFitterTest.class );
+    }
+
+    /**
+     * Identification data of y(k) = 1e6 + a*y(k-1) + br*r(k) + bw*w(k) + noise with a
+     * random throughput and mix.
+     */
+    private static List<DataRecorder.Sample> data( double a, double br, double bw )
+    {
+        Random random = new Random( 11 );
+        ArrayList<DataRecorder.Sample> data = new ArrayList<DataRecorder.Sample>();
+        double y = 4000000;
+        for ( int k = 0; k < 2000; k++ )
+        {
+            DataRecorder.Sample s = new DataRecorder.Sample();
+            s.tps = 1000 + random.nextInt( 2000 );
+            double f = 0.6 + 0.35 * random.nextDouble();
+            s.rtps = (long) ( s.tps * f );
+            s.mtps = s.tps - s.rtps;
+            y = 1000000 + a * y + br * s.rtps + bw * s.mtps + random.nextGaussian() * 50000;
+            s.p99R = (long) y;
+            data.add( s );
+        }
+        return data;
+    }
+
+    /**
+     * The order and coefficients of the model are found and the gains place the poles.
+     */
+    public void testArx()
+    {
+        ModelFitter fitter = new ModelFitter( data( 0.3, 1500, 1500 ), 5 );
+        List<ModelFitter.Fit> fits = fitter.fitAll( 2, new ForkJoinPool( 2 ) );
+        assertEquals( 6, fits.size() );
+
+        // the larger models fit the noise a bit better but the best must contain ARX(1,1)
+        PlantModel m = fits.get( 0 ).model;
+        assertTrue( m.toString(), m.getA().length >= 1 );
+        assertEquals( 0.3, m.getSumA(), 0.02 );
+        assertEquals( 1500, m.getSumB(), 30 );
+        assertEquals( 1500 / 0.7, m.getStaticGain(), 50 );
+
+        double[] g = ModelFitter.gains( m, 0.5 );
+        assertEquals( 0.25 / m.getSumB(), g[0], 1e-12 );
+        assertEquals( 0, g[1], 0 );
+        assertEquals( ( m.getSumA() - 0.25 ) / m.getSumB(), g[2], 1e-12 );
+    }
+
+    /**
+     * The feedforward line is the SLA boundary in the read/mixed plane.
+     */
+    public void testFeedForward()
+    {
+        ModelFitter fitter = new ModelFitter( data( 0, 1000, 4000 ), 5 );
+        double[] ff = fitter.fitFeedForward( 6000000 );
+        assertNotNull( ff );
+        assertEquals( 5000, ff[0], 50 );
+        assertEquals( 0, ff[1], 0 );
+        assertEquals( 0, ff[2], 0 );
+        assertEquals( 1250, ff[3], 20 );
+    }
+}
@@ -0,0 +1,103 @@
+package cloud.elasticity.elastman;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for ReadinessProbe.
+ */
+public class ReadinessProbeTest
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public ReadinessProbeTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( ReadinessProbeTest.class );
+    }
+
+    /**
+     * The latency is stable when all slots have data within the tolerance of the mean.
+     */
+    public void testStable()
+    {
+        assertTrue( ReadinessProbe.isStable( new double[] { 5e6, 5.4e6, 5.2e6 }, 0.2 ) );
+        assertFalse( ReadinessProbe.isStable( new double[] { 5e6, 7e6, 5.2e6 }, 0.2 ) );
+        assertFalse( ReadinessProbe.isStable( new double[] { 5e6, Double.NaN, 5.2e6 }, 0.2 ) );
+    }
+
+    /**
+     * A port is open while something listens on it.
+     */
+    public void testOpen() throws IOException
+    {
+        ServerSocket server = new ServerSocket( 0 );
+        int port = server.getLocalPort();
+        assertTrue( ReadinessProbe.isOpen( "127.0.0.1", port, 1000 ) );
+        server.close();
+        assertFalse( ReadinessProbe.isOpen( "127.0.0.1", port, 1000 ) );
+    }
+
+    /**
+     * The VMs are not ready while fewer hosts than expected are known, and the probe asks
+     * for them again until they are.
+     */
+    public void testMissingHosts() throws IOException
+    {
+        final ServerSocket socket = new ServerSocket( ReadinessProbe.SOCKET_PORT );
+        final ServerSocket admin = new ServerSocket( ReadinessProbe.ADMIN_PORT );
+        try
+        {
+            ReadinessProbe probe = new ReadinessProbe( null, 1, 1, 1000, 3, 0.2 );
+            ReadinessProbe.Hosts none = new ReadinessProbe.Hosts()
+            {
+                public List<String> get()
+                {
+                    return new ArrayList<String>();
+                }
+            };
+            long start = System.currentTimeMillis();
+            assertFalse( probe.awaitReady( none, 2, 1500 ) );
+            assertTrue( System.currentTimeMillis() - start >= 1500 );
+
+            final int[] calls = new int[1];
+            ReadinessProbe.Hosts later = new ReadinessProbe.Hosts()
+            {
+                public List<String> get()
+                {
+                    List<String> hosts = new ArrayList<String>();
+                    hosts.add( "127.0.0.1" );
+                    if ( ++calls[0] > 1 )
+                    {
+                        hosts.add( "127.0.0.1" );
+                    }
+                    return hosts;
+                }
+            };
+            assertTrue( probe.awaitReady( later, 2, 5000 ) );
+            assertEquals( 2, calls[0] );
+        }
+        finally
+        {
+            socket.close();
+            admin.close();
+        }
+    }
+}
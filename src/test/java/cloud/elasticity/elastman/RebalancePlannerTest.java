@@ -0,0 +1,132 @@
+package cloud.elasticity.elastman;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for RebalancePlanner.
+ */
+public class RebalancePlannerTest
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public RebalancePlannerTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( RebalancePlannerTest.class );
+    }
+
+    /**
+     * The plan moves exactly the partitions that change owner.
+     */
+    public void testPlan()
+    {
+        List<RebalancePlanner.Move> moves = RebalancePlanner.plan( 90, 6, 9 );
+        assertEquals( PartitionGenerator.moved( 90, 6, 9 ), moves.size() );
+        int[] after = PartitionGenerator.owners( 90, 9 );
+        for ( RebalancePlanner.Move m : moves )
+        {
+            assertTrue( m.getFrom() != m.getTo() );
+            assertEquals( after[m.getPartition()], m.getTo() );
+        }
+        assertTrue( RebalancePlanner.plan( 90, 6, 6 ).isEmpty() );
+    }
+
+    /**
+     * No server is in two moves of a batch and all moves end up in a batch.
+     */
+    public void testBatches()
+    {
+        ArrayList<RebalancePlanner.Move> remaining = RebalancePlanner.plan( 90, 9, 4 );
+        int total = remaining.size();
+        int n = 0;
+        while ( !remaining.isEmpty() )
+        {
+            ArrayList<RebalancePlanner.Move> batch = RebalancePlanner.nextBatch( remaining, 2 );
+            assertFalse( batch.isEmpty() );
+            assertTrue( batch.size() <= 2 );
+            HashSet<Integer> busy = new HashSet<Integer>();
+            for ( RebalancePlanner.Move m : batch )
+            {
+                assertTrue( busy.add( m.getFrom() ) );
+                assertTrue( busy.add( m.getTo() ) );
+            }
+            n += batch.size();
+        }
+        assertEquals( total, n );
+    }
+
+    /**
+     * Running the plan gives the new layout and reports every move.
+     */
+    public void testRun()
+    {
+        LocalMoveExecutor executor = new LocalMoveExecutor( 90, 3, 2, 1000 );
+        RebalancePlanner planner = new RebalancePlanner( executor, 3 );
+        final AtomicInteger reported = new AtomicInteger();
+        planner.setListener( new RebalancePlanner.Listener()
+        {
+            public void moved( RebalancePlanner.Move move, long bytes, int done, int total )
+            {
+                reported.incrementAndGet();
+            }
+        } );
+        List<RebalancePlanner.Move> moves = RebalancePlanner.plan( 90, 3, 6 );
+        assertTrue( planner.run( moves ) );
+        assertFalse( planner.isRunning() );
+        assertEquals( moves.size(), reported.get() );
+        assertEquals( moves.size(), planner.getDone() );
+        assertEquals( 1000L * moves.size(), planner.getBytes() );
+        assertTrue( executor.getMaxRunning() <= 3 );
+        int[] after = PartitionGenerator.owners( 90, 6 );
+        int[] owners = executor.getOwners();
+        for ( int p = 0; p < 90; p++ )
+        {
+            assertEquals( after[p], owners[p] );
+        }
+
+        // a stale plan fails
+        assertFalse( planner.run( moves ) );
+        assertEquals( moves.size(), planner.getFailed() );
+    }
+
+    /**
+     * The moves that succeeded before a failure can be undone.
+     */
+    public void testRollback()
+    {
+        LocalMoveExecutor executor = new LocalMoveExecutor( 90, 3, 1, 1000 );
+        RebalancePlanner planner = new RebalancePlanner( executor, 2 );
+        ArrayList<RebalancePlanner.Move> moves = RebalancePlanner.plan( 90, 3, 6 );
+        RebalancePlanner.Move first = moves.get( 0 );
+        moves.add( new RebalancePlanner.Move( first.getPartition(), first.getFrom(), first.getTo() ) ); // already moved
+        assertFalse( planner.run( moves ) );
+        assertEquals( 1, planner.getFailed() );
+        assertEquals( moves.size() - 1, planner.getCompleted().size() );
+
+        assertTrue( planner.run( RebalancePlanner.reverse( planner.getCompleted() ) ) );
+        int[] before = PartitionGenerator.owners( 90, 3 );
+        int[] owners = executor.getOwners();
+        for ( int p = 0; p < 90; p++ )
+        {
+            assertEquals( before[p], owners[p] );
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package cloud.elasticity.elastman;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for RebalanceQueue.
+ */
+public class RebalanceQueueTest
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public RebalanceQueueTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( RebalanceQueueTest.class );
+    }
+
+    /**
+     * Queued steps are merged into one net step and dropped if they cancel.
+     */
+    public void testMerge()
+    {
+        RebalanceQueue q = new RebalanceQueue();
+        q.add( 3, true );
+        q.add( -2, false );
+        RebalanceQueue.Task t = q.take();
+        assertEquals( 1, t.getnVMs() );
+        assertFalse( t.getLimit() );
+        assertNull( q.take() );
+
+        q.add( 2, true );
+        q.add( -2, true );
+        assertTrue( q.isEmpty() );
+        assertEquals( 2, q.getMerged() );
+        assertEquals( 1, q.getCancelled() );
+    }
+
+    /**
+     * A running step is cut by a queued step in the other direction only.
+     */
+    public void testPreempt()
+    {
+        RebalanceQueue q = new RebalanceQueue();
+        assertEquals( 0, q.preempt( 3 ) );
+        q.add( 2, true );
+        assertEquals( 0, q.preempt( 3 ) );
+        q.take();
+
+        q.add( -2, true );
+        assertEquals( 2, q.preempt( 3 ) );
+        assertTrue( q.isEmpty() );
+
+        q.add( -5, true );
+        assertEquals( 3, q.preempt( 3 ) );
+        assertEquals( -2, q.take().getnVMs() );
+    }
+}
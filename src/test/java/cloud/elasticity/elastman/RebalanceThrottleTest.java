@@ -0,0 +1,49 @@
+package cloud.elasticity.elastman;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for RebalanceThrottle.
+ */
+public class RebalanceThrottleTest
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public RebalanceThrottleTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( RebalanceThrottleTest.class );
+    }
+
+    /**
+     * Cut by half near inOp, raised by one with headroom, held in between.
+     */
+    public void testAimd()
+    {
+        RebalanceThrottle t = new RebalanceThrottle( 5, 1, 6, 1000, 0.9, 0.7, 0.5 );
+        assertEquals( 2, t.update( 950 ) );
+        assertEquals( 1, t.update( 2000 ) );
+        assertEquals( 1, t.update( 2000 ) );
+        assertEquals( 1, t.update( 800 ) );
+        assertEquals( 1, t.update( Double.NaN ) );
+        for ( int i = 0; i < 10; i++ )
+        {
+            t.update( 500 );
+        }
+        assertEquals( 6, t.getParallel() );
+        assertEquals( 6, new RebalanceThrottle( 9, 1, 6, 1000, 0.9, 0.7, 0.5 ).getParallel() );
+    }
+}
@@ -0,0 +1,72 @@
+package cloud.elasticity.elastman;
+
+import java.util.Random;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for RlsModel.
+ */
+public class RlsModelTest
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public RlsModelTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( RlsModelTest.class );
+    }
+
+    /**
+     * The model finds a noisy line and then follows a change of slope.
+     */
+    public void testTracking()
+    {
+        Random random = new Random( 7 );
+        RlsModel m = new RlsModel( 0.95, 1e6 );
+        assertFalse( m.isValid() );
+        for ( int i = 0; i < 100; i++ )
+        {
+            double u = 1500 + random.nextInt( 1000 );
+            m.update( u, 1000000 + 2000 * u + random.nextGaussian() * 100000 );
+        }
+        assertTrue( m.isValid() );
+        assertEquals( 2000, m.getB(), 50 );
+        assertEquals( 2000, m.inverse( 5000000 ), 20 );
+
+        for ( int i = 0; i < 100; i++ )
+        {
+            double u = 1500 + random.nextInt( 1000 );
+            m.update( u, 1000000 + 3000 * u + random.nextGaussian() * 100000 );
+        }
+        assertEquals( 3000, m.getB(), 50 );
+    }
+
+    /**
+     * A constant throughput says nothing about the slope, so the model is not trusted.
+     */
+    public void testNoExcitation()
+    {
+        Random random = new Random( 7 );
+        RlsModel m = new RlsModel( 0.95, 1e6 );
+        for ( int i = 0; i < 500; i++ )
+        {
+            m.update( 2000, 5000000 + random.nextGaussian() * 100000 );
+        }
+        assertEquals( 5000000, m.predict( 2000 ), 200000 );
+        assertFalse( m.isValid() );
+    }
+}
@@ -0,0 +1,102 @@
+package cloud.elasticity.elastman;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.Options;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for the Simulator.
+ */
+public class SimulatorTest
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public SimulatorTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( SimulatorTest.class );
+    }
+
+    /**
+     * Only the partitions of the new or removed VMs move.
+     */
+    public void testMoved()
+    {
+        assertEquals( 0, PartitionGenerator.moved( 90, 6, 6 ) );
+        int out = PartitionGenerator.moved( 90, 6, 9 );
+        assertTrue( out > 0 && out <= 90 );
+        assertEquals( out, PartitionGenerator.moved( 90, 9, 6 ) );
+    }
+
+    /**
+     * The whole control scenario runs, the clients get their throughput and a run is
+     * repeatable.
+     */
+    public void testScenario() throws Exception
+    {
+        Props.load( "no-such-file.prop", new GnuParser().parse( new Options(), new String[0] ) );
+
+        StringWriter first = new StringWriter();
+        Simulator sim = new Simulator( 6 );
+        sim.run( ControlWorkLoad.scenario(), 60 * 60 * 1000L, first );
+        String summary = sim.getSummary();
+        assertTrue( summary, sim.now() >= 1480 * 60 * 1000L );
+
+        String[] rows = first.toString().split( "\n" );
+        assertTrue( rows.length > 290 );
+        String[] row = rows[1].split( "\t" );
+        assertEquals( 12, Integer.parseInt( row[2].trim() ) );
+        assertEquals( 12 * Props.sim_client_ops, Double.parseDouble( row[5].trim() ), 1 );
+
+        StringWriter second = new StringWriter();
+        Simulator again = new Simulator( 6 );
+        again.run( ControlWorkLoad.scenario(), 60 * 60 * 1000L, second );
+        assertEquals( summary, again.getSummary() );
+        assertEquals( first.toString(), second.toString() );
+    }
+
+    /**
+     * When the load drops while new VMs boot, the MPC cancels the VMs not needed anymore
+     * before any data is moved.
+     */
+    public void testCancelScaleOut() throws Exception
+    {
+        Props.load( "no-such-file.prop", new GnuParser().parse( new Options(), new String[0] ) );
+        Props.control_mode = "mpc";
+        Props.model_c = -2604344.69;
+        Props.model_a = new double[] { 0.569, -0.196 };
+        Props.model_b = new double[] { 751.2, 4650.9 };
+        Props.sim_boot_jitter = 0;
+        try
+        {
+            ArrayList<ControlWorkLoad.work> scenario = new ArrayList<ControlWorkLoad.work>();
+            scenario.add( new ControlWorkLoad.work( 0, 12 ) );
+            scenario.add( new ControlWorkLoad.work( 60, 26 ) );
+            scenario.add( new ControlWorkLoad.work( 25, 12 ) );
+            Simulator sim = new Simulator( 6 );
+            sim.run( scenario, 60 * 60 * 1000L, null );
+            assertTrue( sim.getSummary(), sim.getCancelled() > 0 );
+        }
+        finally
+        {
+            Props.load( "no-such-file.prop", new GnuParser().parse( new Options(), new String[0] ) );
+        }
+    }
+}
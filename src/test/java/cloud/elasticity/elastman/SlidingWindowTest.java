@@ -0,0 +1,105 @@
+package cloud.elasticity.elastman;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for SlidingWindow.
+ */
+public class SlidingWindowTest
+    extends TestCase
+{
+    private static final long SEC = 1000000000L;
+
+    private double spikeThroughput = Double.NaN;
+
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public SlidingWindowTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( SlidingWindowTest.class );
+    }
+
+    private static ClientReport record( double readOps, double mixedOps, double p99 )
+    {
+        ClientReport r = new ClientReport();
+        r.set( Aggregator.READ_OPS, readOps );
+        r.set( Aggregator.MIXED_OPS, mixedOps );
+        r.set( Aggregator.READ_P99, p99 );
+        return r;
+    }
+
+    /**
+     * The views only cover complete slots.
+     */
+    public void testThroughput()
+    {
+        SlidingWindow w = new SlidingWindow( 10, 60, 2 );
+        long t = 1000 * SEC;
+        for ( int s = 0; s < 3; s++ )
+        {
+            // one record per second, 100 read and 10 mixed ops each
+            for ( int i = 0; i < 10; i++ )
+            {
+                w.add( record( 100, 10, 1000 * ( s + 1 ) ), t + s * 10 * SEC + i * SEC );
+            }
+        }
+        long now = t + 30 * SEC;
+        assertEquals( 110.0, w.getThroughput( 3, true, true, now ), 1e-9 );
+        assertEquals( 100.0, w.getThroughput( 2, true, false, now ), 1e-9 );
+        assertEquals( 2500.0, w.getReadP99( 2, now ), 1e-9 );
+        // slots older than the history are gone
+        assertEquals( 0.0, w.getThroughput( 6, true, true, now + 100 * SEC ), 1e-9 );
+        assertTrue( Double.isNaN( w.getReadP99( 6, now + 100 * SEC ) ) );
+    }
+
+    /**
+     * A spike is raised after enough consecutive slots outside the band, and only once.
+     */
+    public void testSpike()
+    {
+        SlidingWindow w = new SlidingWindow( 10, 60, 2 );
+        w.setSpikeListener( new SlidingWindow.SpikeListener()
+        {
+            public void spike( double throughput, double baseline )
+            {
+                spikeThroughput = throughput;
+            }
+        } );
+        w.setBaseline( 100, 50 );
+        long t = 0;
+        for ( int s = 0; s < 6; s++ )
+        {
+            double ops = s < 2 ? 100 : 400; // load jumps in the third slot
+            for ( int i = 0; i < 10; i++, t += SEC )
+            {
+                w.add( record( ops, 0, 1000 ), t );
+            }
+            if ( s == 2 )
+            {
+                assertTrue( "one slot is not a spike", Double.isNaN( spikeThroughput ) );
+            }
+        }
+        assertEquals( 400.0, spikeThroughput, 1e-9 );
+
+        // disarmed till a new baseline is set
+        spikeThroughput = Double.NaN;
+        for ( int i = 0; i < 30; i++, t += SEC )
+        {
+            w.add( record( 10, 0, 1000 ), t );
+        }
+        assertTrue( Double.isNaN( spikeThroughput ) );
+    }
+}
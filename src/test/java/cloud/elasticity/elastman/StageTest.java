@@ -0,0 +1,93 @@
+package cloud.elasticity.elastman;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for Stage.
+ */
+public class StageTest
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public StageTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( StageTest.class );
+    }
+
+    private static class Collect
+        extends Stage<Integer>
+    {
+        final List<Integer> items = new ArrayList<Integer>();
+
+        Collect( int capacity )
+        {
+            super( "Collect", capacity );
+        }
+
+        @Override
+        protected void process( Integer item )
+        {
+            synchronized ( items )
+            {
+                items.add( item );
+            }
+        }
+    }
+
+    /**
+     * Without its thread a stage is stepped by the caller and drops what does not fit.
+     */
+    public void testStep()
+    {
+        Collect stage = new Collect( 2 );
+        assertTrue( stage.submit( 1 ) );
+        assertTrue( stage.submit( 2 ) );
+        assertFalse( stage.submit( 3 ) );
+        assertEquals( 1, stage.getDropped() );
+
+        stage.step();
+        assertEquals( 1, stage.items.size() );
+        stage.step();
+        stage.step();
+        assertEquals( 2, stage.items.size() );
+        assertEquals( 2, (int) stage.items.get( 1 ) );
+        assertEquals( 2, stage.getProcessed() );
+    }
+
+    /**
+     * The stage thread processes the items in order and close waits for all of them.
+     */
+    public void testThread()
+    {
+        Collect stage = new Collect( 1000 );
+        stage.start();
+        for ( int i = 0; i < 1000; i++ )
+        {
+            assertTrue( stage.submit( i ) );
+        }
+        stage.close();
+        assertFalse( stage.isAlive() );
+        assertEquals( 1000, stage.items.size() );
+        for ( int i = 0; i < 1000; i++ )
+        {
+            assertEquals( i, (int) stage.items.get( i ) );
+        }
+    }
+}
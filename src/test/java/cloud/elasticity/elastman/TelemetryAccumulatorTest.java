@@ -0,0 +1,85 @@
+package cloud.elasticity.elastman;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for TelemetryAccumulator.
+ */
+public class TelemetryAccumulatorTest
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public TelemetryAccumulatorTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( TelemetryAccumulatorTest.class );
+    }
+
+    /**
+     * Records added while the periods are drained are never split between two periods.
+     */
+    public void testDrainAtomic()
+        throws InterruptedException
+    {
+        final TelemetryAccumulator telemetry = new TelemetryAccumulator();
+        final ClientReport r = new ClientReport();
+        for ( int i = 0; i < Aggregator.METRICS; i++ )
+        {
+            r.set( i, 1 );
+        }
+        final AtomicBoolean stop = new AtomicBoolean();
+        Thread[] writers = new Thread[4];
+        for ( int t = 0; t < writers.length; t++ )
+        {
+            writers[t] = new Thread()
+            {
+                public void run()
+                {
+                    while ( !stop.get() )
+                    {
+                        telemetry.add( r );
+                    }
+                }
+            };
+            writers[t].start();
+        }
+
+        long total = 0;
+        Aggregator stats = new Aggregator();
+        for ( int period = 0; period < 200; period++ )
+        {
+            stats.reset();
+            long n = telemetry.drain( stats );
+            total += n;
+            for ( int i = 0; i < Aggregator.METRICS; i++ )
+            {
+                assertEquals( (double) n, stats.getSum( i ) );
+            }
+            assertEquals( 2.0 * n, stats.getSum( Aggregator.TOTAL_OPS ) );
+        }
+        stop.set( true );
+        for ( int t = 0; t < writers.length; t++ )
+        {
+            writers[t].join();
+        }
+        stats.reset();
+        total += telemetry.drain( stats );
+        assertTrue( total > 0 );
+        assertEquals( 0, telemetry.drain( stats ) );
+    }
+}
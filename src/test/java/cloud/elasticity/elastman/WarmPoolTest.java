@@ -0,0 +1,77 @@
+package cloud.elasticity.elastman;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for WarmPool.
+ */
+public class WarmPoolTest
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public WarmPoolTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( WarmPoolTest.class );
+    }
+
+    /**
+     * The target is the number of VMs added in the window, within the limits.
+     */
+    public void testTarget()
+    {
+        WarmPool pool = new WarmPool( 1, 5, 1000, 20 );
+        assertEquals( 1, pool.getTarget( 0, 10 ) );
+        pool.recordScaleOut( 0, 2 );
+        pool.recordScaleOut( 500, 2 );
+        assertEquals( 4, pool.getTarget( 600, 10 ) );
+        pool.recordScaleOut( 700, 3 );
+        assertEquals( 5, pool.getTarget( 800, 10 ) );
+        assertEquals( 2, pool.getTarget( 800, 18 ) );
+        assertEquals( 3, pool.getTarget( 1600, 10 ) );
+        assertEquals( 1, pool.getTarget( 2000, 10 ) );
+    }
+
+    /**
+     * Spares are counted from the refill till they are taken, kept or trimmed.
+     */
+    public void testSpares()
+    {
+        WarmPool pool = new WarmPool( 0, 4, 1000, 20 );
+        pool.recordScaleOut( 0, 3 );
+        assertEquals( 3, pool.refill( 0, 10 ) );
+        assertTrue( pool.isChanging() );
+        assertEquals( 0, pool.refill( 0, 10 ) );
+        assertEquals( 3, pool.getSpares() );
+        pool.booted( 3 );
+        assertEquals( 3, pool.getReady() );
+
+        assertEquals( 2, pool.take( 2 ) );
+        pool.recordScaleOut( 100, 2 );
+        assertEquals( 1, pool.getReady() );
+
+        // a scale-in of 5 keeps 3 of the removed VMs to reach the target of 4
+        assertEquals( 3, pool.keep( 200, 7, 5 ) );
+        assertEquals( 4, pool.getReady() );
+
+        // the scale-outs leave the window, so the pool is trimmed
+        assertEquals( 4, pool.trim( 1200, 7 ) );
+        assertEquals( 4, pool.getSpares() );
+        assertEquals( 0, pool.trim( 1200, 7 ) );
+        pool.deleted();
+        assertEquals( 0, pool.getSpares() );
+    }
+}
@@ -0,0 +1,147 @@
+package cloud.elasticity.elastman;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for the client {@link WireProtocol}.
+ */
+public class WireProtocolTest
+    extends TestCase
+{
+    /**
+     * Create the test case
+     *
+     * @param testName name of the test case
+     */
+    public WireProtocolTest( String testName )
+    {
+        super( testName );
+    }
+
+    /**
+     * @return the suite of tests being tested
+     */
+    public static Test suite()
+    {
+        return new TestSuite( WireProtocolTest.class );
+    }
+
+    /**
+     * Old clients send the fixed 14 field layout without a header.
+     */
+    public void testVersion1()
+    {
+        ByteBuffer buf = ByteBuffer.allocate( WireProtocol.V1_SIZE );
+        buf.putLong( 1200 );
+        for ( int i = 1; i <= 6; i++ )
+        {
+            buf.putDouble( i );
+        }
+        buf.putLong( 300 );
+        for ( int i = 1; i <= 6; i++ )
+        {
+            buf.putDouble( 10 * i );
+        }
+        assertEquals( WireProtocol.V1_SIZE, WireProtocol.frameSize( buf, false ) );
+        buf.flip();
+
+        ClientReport r = new ClientReport();
+        assertTrue( WireProtocol.decode( buf, r ) );
+        assertEquals( 1, r.getVersion() );
+        assertEquals( -1, r.getSeq() );
+        assertEquals( 1200.0, r.get( Aggregator.READ_OPS ) );
+        assertEquals( 6.0, r.get( Aggregator.READ_MAX ) );
+        assertEquals( 300.0, r.get( Aggregator.MIXED_OPS ) );
+        assertEquals( 50.0, r.get( Aggregator.MIXED_P99 ) );
+        assertNull( r.histograms() );
+    }
+
+    /**
+     * A version 2 frame carries only the metrics that are set, plus any new metric id.
+     */
+    public void testVersion2()
+    {
+        double[] values = new double[20];
+        Arrays.fill( values, Double.NaN );
+        values[Aggregator.READ_OPS] = 500;
+        values[Aggregator.READ_P99] = 7000000;
+        values[19] = 42;
+        LatencyHistogram read = new LatencyHistogram();
+        LatencyHistogram mixed = new LatencyHistogram();
+        read.record( 1000 );
+        mixed.record( 2000 );
+
+        ByteBuffer buf = ByteBuffer.allocate( WireProtocol.MAX_FRAME_SIZE );
+        WireProtocol.encode( buf, 3, 17, values, read, mixed );
+        int size = buf.position();
+        assertEquals( size, WireProtocol.frameSize( buf, false ) );
+        buf.flip();
+
+        ClientReport r = new ClientReport();
+        assertTrue( WireProtocol.decode( buf, r ) );
+        assertEquals( 2, r.getVersion() );
+        assertEquals( 3, r.getClientId() );
+        assertEquals( 17, r.getSeq() );
+        assertEquals( 500.0, r.get( Aggregator.READ_OPS ) );
+        assertEquals( 7000000.0, r.get( Aggregator.READ_P99 ) );
+        assertEquals( 42.0, r.get( 19 ) );
+        assertFalse( r.has( Aggregator.MIXED_OPS ) );
+
+        LatencyHistogram h = new LatencyHistogram();
+        ByteBuffer in = r.histograms();
+        h.merge( in );
+        h.merge( in );
+        assertEquals( 2, h.getCount() );
+        assertEquals( size, in.position() );
+    }
+
+    /**
+     * A corrupt length is detected before anything is read.
+     */
+    public void testInvalidLength()
+    {
+        ByteBuffer buf = ByteBuffer.allocate( WireProtocol.HEADER_SIZE );
+        buf.putInt( WireProtocol.MAGIC );
+        buf.putShort( (short) WireProtocol.VERSION );
+        buf.putShort( (short) 0 );
+        buf.putInt( WireProtocol.MAX_FRAME_SIZE );
+        assertEquals( -1, WireProtocol.frameSize( buf, false ) );
+    }
+
+    /**
+     * A frame whose histograms are cut off is dropped instead of read past its end.
+     */
+    public void testTruncatedHistograms()
+    {
+        double[] values = new double[Aggregator.METRICS];
+        Arrays.fill( values, Double.NaN );
+        values[Aggregator.READ_OPS] = 500;
+        LatencyHistogram read = new LatencyHistogram();
+        LatencyHistogram mixed = new LatencyHistogram();
+        read.record( 1000 );
+        mixed.record( 2000 );
+
+        ByteBuffer buf = ByteBuffer.allocate( WireProtocol.MAX_FRAME_SIZE );
+        WireProtocol.encode( buf, 3, 17, values, read, mixed );
+        int size = buf.position();
+        ClientReport r = new ClientReport();
+        for ( int cut = 1; cut <= 2 * LatencyHistogram.HEADER_SIZE + 2 * LatencyHistogram.ENTRY_SIZE; cut++ )
+        {
+            ByteBuffer frame = buf.duplicate();
+            frame.limit( size - cut );
+            frame.position( 0 );
+            frame.putInt( 8, size - cut - WireProtocol.HEADER_SIZE );
+            assertFalse( "cut " + cut, WireProtocol.decode( frame, r ) );
+        }
+
+        // a bad entry count
+        buf.putInt( size - 2 * ( LatencyHistogram.HEADER_SIZE + LatencyHistogram.ENTRY_SIZE ), -1 );
+        buf.flip();
+        assertFalse( WireProtocol.decode( buf, r ) );
+    }
+}